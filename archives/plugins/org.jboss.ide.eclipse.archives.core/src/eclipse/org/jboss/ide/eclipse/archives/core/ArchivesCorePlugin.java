@@ -13,6 +13,9 @@ package org.jboss.ide.eclipse.archives.core;
 
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.Plugin;
+import org.jboss.ide.eclipse.archives.core.build.ExternalFilesetWatcher;
+import org.jboss.ide.eclipse.archives.core.build.ExternalFilesetWatcherWithJob;
+import org.jboss.ide.eclipse.archives.core.util.internal.DirectoryListingCache;
 import org.osgi.framework.BundleContext;
 
 /**
@@ -27,6 +30,12 @@ public class ArchivesCorePlugin extends Plugin {
 
 	// The shared instance
 	private static ArchivesCorePlugin plugin;
+
+	// Builds the filesets outside the workspace as they change, once turned on
+	private ExternalFilesetWatcher externalWatcher;
+
+	// Drops cached folder listings as workspace folders change
+	private DirectoryListingInvalidator listingInvalidator;
 	
 	/**
 	 * The constructor
@@ -45,6 +54,11 @@ public class ArchivesCorePlugin extends Plugin {
 		// Load the workspace version of ArchivesCore
 		new WorkspaceArchivesCore();
 		ResourcesPlugin.getWorkspace().addResourceChangeListener(new WorkspaceChangeListener());
+		listingInvalidator = new DirectoryListingInvalidator();
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(listingInvalidator,
+				DirectoryListingInvalidator.EVENTS);
+		externalWatcher = new ExternalFilesetWatcherWithJob();
+		externalWatcher.start();
 	}
 
 	/*
@@ -52,6 +66,15 @@ public class ArchivesCorePlugin extends Plugin {
 	 * @see org.eclipse.core.runtime.Plugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		if( externalWatcher != null ) {
+			externalWatcher.stop();
+			externalWatcher = null;
+		}
+		if( listingInvalidator != null ) {
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(listingInvalidator);
+			listingInvalidator = null;
+			DirectoryListingCache.getDefault().clear();
+		}
 		plugin = null;
 		super.stop(context);
 	}
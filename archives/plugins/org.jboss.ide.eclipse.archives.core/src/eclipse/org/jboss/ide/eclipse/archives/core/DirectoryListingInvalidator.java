@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.runtime.CoreException;
+import org.jboss.ide.eclipse.archives.core.util.internal.DirectoryListingCache;
+
+/**
+ * Drop the cached listings of workspace folders whose members change.
+ * Listens to pre-build events as well, so that builders, which run
+ * before post-change listeners are told, do not see stale listings.
+ */
+public class DirectoryListingInvalidator implements IResourceChangeListener {
+	public static final int EVENTS = IResourceChangeEvent.PRE_BUILD | IResourceChangeEvent.POST_CHANGE
+			| IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE;
+
+	private static final int FLAGS = IResourceDelta.OPEN | IResourceDelta.TYPE
+			| IResourceDelta.REPLACED | IResourceDelta.LOCAL_CHANGED;
+
+	public void resourceChanged(IResourceChangeEvent event) {
+		final DirectoryListingCache cache = DirectoryListingCache.getDefault();
+		IResourceDelta delta = event.getDelta();
+		if( delta == null ) {
+			// a project being closed or deleted
+			if( event.getResource() != null )
+				cache.invalidateWorkspace(event.getResource().getFullPath(), true);
+			return;
+		}
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+				public boolean visit(IResourceDelta delta) throws CoreException {
+					IResource r = delta.getResource();
+					if( delta.getKind() == IResourceDelta.ADDED || delta.getKind() == IResourceDelta.REMOVED ) {
+						cache.invalidateWorkspace(r.getFullPath().removeLastSegments(1), false);
+						if( delta.getKind() == IResourceDelta.REMOVED ) {
+							cache.invalidateWorkspace(r.getFullPath(), true);
+							return false;
+						}
+					} else if( (delta.getFlags() & FLAGS) != 0 ) {
+						cache.invalidateWorkspace(r.getFullPath(), true);
+					}
+					return r.getType() != IResource.FILE;
+				}
+			});
+		} catch( CoreException ce ) {
+			cache.clear();
+		}
+	}
+}
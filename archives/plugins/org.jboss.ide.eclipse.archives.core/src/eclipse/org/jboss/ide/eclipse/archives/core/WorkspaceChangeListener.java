@@ -33,7 +33,8 @@ import org.jboss.ide.eclipse.archives.core.model.ArchivesModelException;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveModel;
 
 /**
- * Update the model if someone changes the packaging file by hand
+ * Update the model if someone changes the packaging file by hand.
+ * Only projects whose model is already registered are reloaded.
  * @author Rob Stryker <rob.stryker@redhat.com>
  *
  */
@@ -93,6 +94,10 @@ public class WorkspaceChangeListener implements IResourceChangeListener {
 			Iterator<IProject> i = projects.iterator();
 			while(i.hasNext()) {
 				final IProject p = i.next();
+				// Projects nobody has looked at yet are registered lazily,
+				// the first time a build or the view needs their model
+				if( !ArchivesModel.instance().isProjectRegistered(p.getLocation()))
+					continue;
 				try {
 					if( p.getSessionProperty(new QualifiedName(ArchivesCorePlugin.PLUGIN_ID, "localname")) == null ) { //$NON-NLS-1$
 						try {
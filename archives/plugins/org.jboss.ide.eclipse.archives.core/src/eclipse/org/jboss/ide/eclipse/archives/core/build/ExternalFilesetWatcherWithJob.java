@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.build;
+
+import java.util.Set;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.jboss.ide.eclipse.archives.core.ArchivesCoreMessages;
+
+/**
+ * Builds the changes found outside the workspace in a workspace job,
+ * so that they do not overlap with the archives builder. The jobs
+ * belong to the watcher's family and are canceled when it stops.
+ */
+public class ExternalFilesetWatcherWithJob extends ExternalFilesetWatcher {
+	protected void changed(final Set<IPath> addedChanged, final Set<IPath> removed) {
+		Job j = new WorkspaceJob(ArchivesCoreMessages.ProjectArchivesIncrementalBuild) {
+			public IStatus runInWorkspace(IProgressMonitor monitor) {
+				if( isStopped() || monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				new ArchiveBuildDelegate().incrementalBuild(null, addedChanged, removed, false, monitor);
+				return Status.OK_STATUS;
+			}
+			public boolean belongsTo(Object family) {
+				return family == ExternalFilesetWatcherWithJob.this;
+			}
+		};
+		j.setRule(ResourcesPlugin.getWorkspace().getRoot());
+		j.schedule();
+	}
+
+	public void stop() {
+		super.stop();
+		Job.getJobManager().cancel(this);
+	}
+}
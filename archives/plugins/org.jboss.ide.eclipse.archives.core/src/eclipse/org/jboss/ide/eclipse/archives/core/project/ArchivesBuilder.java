@@ -35,6 +35,7 @@ import org.jboss.ide.eclipse.archives.core.model.IArchiveModelRootNode;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeVisitor;
 import org.jboss.ide.eclipse.archives.core.util.PathUtils;
+import org.jboss.ide.eclipse.archives.core.util.internal.ArchiveManifest;
 import org.jboss.ide.eclipse.archives.core.util.internal.TrueZipUtil;
 
 /**
@@ -88,6 +89,7 @@ public class ArchivesBuilder extends IncrementalProjectBuilder {
 			for( int i = 0; i < nodes.length; i++ ) {
 				IPath path = ((IArchive)nodes[i]).getArchiveFilePath();
 				TrueZipUtil.deleteAll(path);
+				ArchiveManifest.discard((IArchive)nodes[i]);
 			}
 		}
 	}
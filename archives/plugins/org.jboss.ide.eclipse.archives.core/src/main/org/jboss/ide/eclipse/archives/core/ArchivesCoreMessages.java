@@ -39,6 +39,7 @@ public class ArchivesCoreMessages {
 	public static String CannotBuildOutputLocationNotWriteable;
 	public static String ErrorCreatingOutputFile;
 	public static String ProjectArchivesIncrementalBuild;
+	public static String ArchiveReferenceCycle;
 
 	public static String ErrorUpdatingModel;
 	public static String ErrorUnmarshallingFile;
@@ -54,6 +55,7 @@ public class ArchivesCoreMessages {
 	public static String FileCopyFailed;
 	public static String DeletingCountFiles;
 	public static String FileDeleteFailed;
+	public static String ErrorSavingBuildManifest;
 	public static String VariableUndefined;
 
 	public static String KeyIsNull;
@@ -23,14 +23,37 @@ import org.jboss.ide.eclipse.archives.core.ArchivesCore;
 import org.jboss.ide.eclipse.archives.core.ArchivesCoreMessages;
 import org.jboss.ide.eclipse.archives.core.build.ArchiveBuildDelegate;
 import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.util.internal.ArchiveManifest;
 
 /**
+ * Builds every archive of a project's .packages file.
+ *
+ * The task takes these attributes:
+ * <ul>
+ * <li><code>projectPath</code> (required): the folder holding the
+ * project's .packages file</li>
+ * <li><code>incremental</code> (optional, default false): when true,
+ * each archive's output is brought up to date using the manifest
+ * saved next to it by the previous build, so only files whose size,
+ * modification time or contents changed are copied again. When false,
+ * every archive is rebuilt from scratch, as before this attribute
+ * existed.</li>
+ * <li><code>threads</code> (optional): how many archives which do not
+ * consume each other's output may be built at the same time. 1 builds
+ * serially and 0 uses one thread per processor. When unset, the
+ * {@link ArchiveBuildDelegate#BUILD_THREADS_PROPERTY} system property
+ * applies.</li>
+ * </ul>
+ *
  * @author rob.stryker <rob.stryker@redhat.com>
  *
  */
 public class GenerateArchivesTask extends Task {
 
 	private String projectPath;
+	private boolean incremental = false;
+	/* -1 keeps the build delegate's default */
+	private int threads = -1;
 
 	public void init() throws BuildException {
 		// Force standalone mode
@@ -45,6 +68,7 @@ public class GenerateArchivesTask extends Task {
 		getCore().setProject(getProject());
 		getCore().setTask(this);
 		ClassLoader original = Thread.currentThread().getContextClassLoader();
+		boolean incrementalFullBuilds = ArchiveManifest.isIncrementalFullBuilds();
 		try {
 			IPath projectPath = new Path(this.projectPath);
 			IProgressMonitor monitor = new NullProgressMonitor();
@@ -60,8 +84,11 @@ public class GenerateArchivesTask extends Task {
 			ClassLoader myCL = getClass().getClassLoader();
 			Thread.currentThread().setContextClassLoader(myCL);
 			if( ArchivesModel.instance().canReregister(projectPath)) {
+				ArchiveManifest.setIncrementalFullBuilds(incremental);
 				ArchivesModel.instance().registerProject(projectPath, monitor);
-				new ArchiveBuildDelegate().fullProjectBuild(projectPath, new NullProgressMonitor());
+				ArchiveBuildDelegate delegate = threads < 0 ? new ArchiveBuildDelegate()
+						: new ArchiveBuildDelegate(threads);
+				delegate.fullProjectBuild(projectPath, new NullProgressMonitor());
 			} else {
 				getCore().log(IStatus.ERROR,
 						getCore().bind(ArchivesCoreMessages.ProjectCannotBeBuilt, projectPath.toString()), null);
@@ -70,6 +97,7 @@ public class GenerateArchivesTask extends Task {
 			getCore().getLogger().log(IStatus.ERROR, ArchivesCoreMessages.RuntimeErrorDuringBuild, e);
 		}
 		finally {
+			ArchiveManifest.setIncrementalFullBuilds(incrementalFullBuilds);
 			Thread.currentThread().setContextClassLoader(original);
 			getCore().setProject(null);
 			getCore().setTask(null);
@@ -83,4 +111,29 @@ public class GenerateArchivesTask extends Task {
 	public void setProjectPath(String projectPath) {
 		this.projectPath = projectPath;
 	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Whether to only apply what changed since the last build,
+	 * using the manifests saved next to the archives, rather than
+	 * rebuilding every archive from scratch (the default)
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set how many archives may be built at the same time.
+	 * 1 builds serially, 0 uses one thread per processor.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
 }
\ No newline at end of file
@@ -28,6 +28,7 @@
  */
 package org.jboss.ide.eclipse.archives.core.asf;
 
+
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -46,6 +47,8 @@ import org.apache.tools.ant.types.resources.FileResource;
 import org.apache.tools.ant.types.selectors.FileSelector;
 import org.apache.tools.ant.types.selectors.SelectorUtils;
 import org.apache.tools.ant.util.FileUtils;
+import org.jboss.tools.archives.scanner.ITreeNode;
+import org.jboss.tools.archives.scanner.VirtualDirectoryScanner;
 
 /**
  * Class for scanning a directory for files/directories which match certain
@@ -132,12 +135,18 @@ import org.apache.tools.ant.util.FileUtils;
  * @deprecated This class is deprecated
  */
 
+
 /*
  * Note: This class ideally should be translated, but since
  * it was stolen from ant, I'd rather leave it as close to the ant
  * version as possible.
  * 
- * Started to diverge quite a bit in preparation for 
+ * The folders are now walked by the shared scanner of
+ * org.jboss.tools.archives.scanner, so that this class and
+ * DirectoryScannerFactory list folders and match patterns the same way.
+ * The fields and protected methods of the ant version are kept, and
+ * the shared scanner calls back into them, so subclasses overriding
+ * them see the same calls as before.
  * 
  * This class is now deprecated. It was never intended to be a public class. 
  * The suggested way to make use of directory scanners in project archives
@@ -150,6 +159,7 @@ public class DirectoryScanner {
     /** Is OpenVMS the operating system we're running on? */
     private static final boolean ON_VMS = Os.isFamily("openvms");//$NON-NLS-1$
 
+
     protected static final String[] DEFAULTEXCLUDES = {
         // Miscellaneous typical temporary files
         "**/*~", //$NON-NLS-1$
@@ -265,13 +275,6 @@ public class DirectoryScanner {
 
     // CheckStyle:VisibilityModifier ON
 
-    /**
-     * Temporary table to speed up the various scanning methods.
-     *
-     * @since Ant 1.6
-     */
-    private Map<File, File[]> fileListMap = new HashMap<File, File[]>();
-
     /**
      * List of all scanned directories.
      *
@@ -279,94 +282,13 @@ public class DirectoryScanner {
      */
     private Set<String> scannedDirs = new HashSet<String>();
 
-    /**
-     * Set of all include patterns that are full file names and don't
-     * contain any wildcards.
-     *
-     * <p>If this instance is not case sensitive, the file names get
-     * turned to lower case.</p>
-     *
-     * <p>Gets lazily initialized on the first invocation of
-     * isIncluded or isExcluded and cleared at the end of the scan
-     * method (cleared in clearCaches, actually).</p>
-     *
-     * @since Ant 1.6.3
-     */
-    private Set<String> includeNonPatterns = new HashSet<String>();
+    /** The shared scanner walking the folders for the current scan. */
+    private Delegate delegate = null;
 
-    /**
-     * Set of all include patterns that are full file names and don't
-     * contain any wildcards.
-     *
-     * <p>If this instance is not case sensitive, the file names get
-     * turned to lower case.</p>
-     *
-     * <p>Gets lazily initialized on the first invocation of
-     * isIncluded or isExcluded and cleared at the end of the scan
-     * method (cleared in clearCaches, actually).</p>
-     *
-     * @since Ant 1.6.3
-     */
-    private Set<String> excludeNonPatterns = new HashSet<String>();
-
-    /**
-     * Array of all include patterns that contain wildcards.
-     *
-     * <p>Gets lazily initialized on the first invocation of
-     * isIncluded or isExcluded and cleared at the end of the scan
-     * method (cleared in clearCaches, actually).</p>
-     *
-     * @since Ant 1.6.3
-     */
-    private String[] includePatterns;
-
-    /**
-     * Array of all exclude patterns that contain wildcards.
-     *
-     * <p>Gets lazily initialized on the first invocation of
-     * isIncluded or isExcluded and cleared at the end of the scan
-     * method (cleared in clearCaches, actually).</p>
-     *
-     * @since Ant 1.6.3
-     */
-    private String[] excludePatterns;
-
-    /**
-     * Have the non-pattern sets and pattern arrays for in- and
-     * excludes been initialized?
-     *
-     * @since Ant 1.6.3
-     */
-    private boolean areNonPatternSetsReady = false;
-
-    /**
-     * Scanning flag.
-     *
-     * @since Ant 1.6.3
-     */
-    private boolean scanning = false;
-
-    /**
-     * Has this scan finished?
-     */
-    private boolean complete = false;
+    private DirectoryScannerIterator iterator = null;
 
-    /**
-     * Scanning lock.
-     *
-     * @since Ant 1.6.3
-     */
-    private Object scanLock = new Object();
+    private boolean tmpNullIncludes, tmpNullExcludes;
 
-    /**
-     * Exception thrown during scan.
-     *
-     * @since Ant 1.6.3
-     */
-    private IllegalStateException illegal = null;
-    
-    private DirectoryScannerIterator iterator = null;
-    
     /**
      * Sole constructor.
      */
@@ -512,72 +434,40 @@ public class DirectoryScanner {
     }
 
     public synchronized boolean isEverythingIncluded() {
+        if (delegate != null) {
+            return everythingIncluded && delegate.isEverythingIncluded();
+        }
         return everythingIncluded;
     }
     
+    /**
+     * Scans are serialized by synchronizing on the scanner,
+     * so there is never another scan to wait for. Kept for
+     * subclasses calling it.
+     */
     protected void scanWait() {
-        synchronized (scanLock) {
-            if (scanning) {
-                while (scanning) {
-                    try {
-                        scanLock.wait();
-                    } catch (InterruptedException e) {
-                        continue;
-                    }
-                }
-                if (illegal != null) {
-                    throw illegal;
-                }
-                return;
-            }
-            scanning = true;
-        	complete = false;
-        }
     }
 
     protected void scanPrepare() {
         tmpNullIncludes = (includes == null);
         tmpNullExcludes = (excludes == null);
-        illegal = null;
         clearResults();
-        boolean nullIncludes = includes == null;
         includes = includes == null ? new String[] {"**"} : includes;//$NON-NLS-1$
         excludes = excludes == null ? new String[0] : excludes;
 
-        if (basedir == null ) {
-            // if no basedir and no includes, nothing to do:
-            if (nullIncludes) {
-                return;
-            }
-        } else {
-            if (!basedir.exists()) {
-                illegal = new IllegalStateException("basedir " + basedir//$NON-NLS-1$
-                                                    + " does not exist");//$NON-NLS-1$
-            }
-            if (!basedir.isDirectory()) {
-                illegal = new IllegalStateException("basedir " + basedir//$NON-NLS-1$
-                                                    + " is not a directory");//$NON-NLS-1$
-            }
-            if (illegal != null) {
-                throw illegal;
-            }
-        }
-        if (isIncluded("")) {//$NON-NLS-1$
-            if (!isExcluded("")) {//$NON-NLS-1$
-                if (isSelected("", basedir)) {//$NON-NLS-1$
-                    dirsIncluded.addElement("");//$NON-NLS-1$
-                } else {
-                    dirsDeselected.addElement("");//$NON-NLS-1$
-                }
-            } else {
-                dirsExcluded.addElement("");//$NON-NLS-1$
-            }
-        } else {
-            dirsNotIncluded.addElement("");//$NON-NLS-1$
-        }
+        Delegate d = new Delegate();
+        d.setBasedir(basedir == null ? null : toScanned(basedir));
+        d.setIncludes(includes);
+        d.setExcludes(excludes);
+        d.setCaseSensitive(isCaseSensitive);
+        // list2 and getChild may be overridden by callers not ready for other
+        // threads, and an iterator only scans as far as it is asked to
+        d.setParallel(getClass() == DirectoryScanner.class && iterator == null);
+        delegate = d;
+        // checks the basedir, and accounts for it as the directory ""
+        d.scanPrepare();
     }
     
-    private boolean tmpNullIncludes, tmpNullExcludes;
     /**
      * Scan for files which match at least one include pattern and don't match
      * any exclude patterns. If there are selectors then the files must pass
@@ -588,28 +478,24 @@ public class DirectoryScanner {
      * @exception IllegalStateException if the base directory was set
      *            incorrectly (i.e. if it doesn't exist or isn't a directory).
      */
-    public void scan() throws IllegalStateException {
-    	scanWait();
+    public synchronized void scan() throws IllegalStateException {
+        scanWait();
         try {
-            synchronized (this) {
-                scanPrepare();
-                runScan();
-            }
+            scanPrepare();
+            runScan();
         } finally {
-           	release();
+            release();
         }
     }
     
     protected void release() {
-        synchronized (scanLock) {
-	        clearCaches();
-	        iterator = null;
-	        includes = tmpNullIncludes ? null : includes;
-	        excludes = tmpNullExcludes ? null : excludes;
-	    	complete = true;
-	        scanning = false;
-	        scanLock.notifyAll();
+        iterator = null;
+        includes = tmpNullIncludes ? null : includes;
+        excludes = tmpNullExcludes ? null : excludes;
+        if (delegate != null) {
+            everythingIncluded &= delegate.isEverythingIncluded();
         }
+        scannedDirs.clear();
     }
     
     /**
@@ -642,7 +528,6 @@ public class DirectoryScanner {
             }
         }
     }
-
     protected void handleOneEntry(Map.Entry entry, File canonBase) {
         String[] currentelement_ = new String[] { (String) entry.getKey() };
         if (basedir == null && !FileUtils.isAbsolutePath(currentelement_[0])) {
@@ -760,6 +645,8 @@ public class DirectoryScanner {
     }
 
     
+
+    
     protected void scandirWrap(File dir, String vpath) {
     	if( iterator == null )
     		scandirImpl(dir,vpath);
@@ -771,13 +658,13 @@ public class DirectoryScanner {
      * Scan the given directory for files and directories. Found files and
      * directories are placed in their respective collections, based on the
      * matching of includes, excludes, and the selectors.  When a directory
-     * is found, it is scanned recursively.
+     * is found, it is scanned recursively, through {@link #scandirWrap(File, String)}.
+     * The listing and matching is done by the shared scanner.
      *
      * @param dir   The directory to scan. Must not be <code>null</code>.
      * @param vpath The path relative to the base directory (needed to
      *              prevent problems with an absolute path when using
      *              dir). Must not be <code>null</code>.
-     * @param fast  Whether or not this call is part of a fast scan.
      *
      * @see #filesIncluded
      * @see #filesNotIncluded
@@ -785,57 +672,16 @@ public class DirectoryScanner {
      * @see #dirsIncluded
      * @see #dirsNotIncluded
      * @see #dirsExcluded
-     * @see #slowScan
      */
     protected void scandirImpl(File dir, String vpath) {
         if (dir == null) {
             throw new BuildException("dir must not be null.");//$NON-NLS-1$
-        } else if (!dir.exists()) {
-            throw new BuildException(dir + " doesn't exist.");//$NON-NLS-1$
-        } else if (!dir.isDirectory()) {
-            throw new BuildException(dir + " is not a directory.");//$NON-NLS-1$
         }
         // avoid double scanning of directories, can only happen in fast mode
         if (hasBeenScanned(vpath)) {
             return;
         }
-
-        // LINE MODIFIED FOR JBOSS TOOLS;  was  dir.list();
-        File[] newfiles = list(dir);
-
-        if (newfiles == null) {
-            /*
-             * two reasons are mentioned in the API docs for File.list
-             * (1) dir is not a directory. This is impossible as
-             *     we wouldn't get here in this case.
-             * (2) an IO error occurred (why doesn't it throw an exception
-             *     then???)
-             */
-            throw new BuildException("IO error scanning directory '"//$NON-NLS-1$
-                                     + dir.getAbsolutePath() + "'");//$NON-NLS-1$
-        }
-        for (int i = 0; i < newfiles.length; i++) {
-            String name = vpath + getName(newfiles[i]);
-            File file = newfiles[i];
-            if (file.isDirectory()) {
-                if (isIncluded(name)) {
-                    accountForIncludedDir(name, file);
-                } else {
-                    everythingIncluded = false;
-                    dirsNotIncluded.addElement(name);
-                    if (couldHoldIncluded(name)) {
-                        scandirWrap(file, name + File.separator);
-                    }
-                }
-            } else if (file.isFile()) {
-                if (isIncluded(name)) {
-                    accountForIncludedFile(name, file);
-                } else {
-                    everythingIncluded = false;
-                    filesNotIncluded.addElement(name);
-                }
-            }
-        }
+        getScanned().scanDirectory(toScanned(dir), vpath);
     }
 
     protected String getName(File file) {
@@ -848,7 +694,7 @@ public class DirectoryScanner {
      * @param file  included File.
      */
     private void accountForIncludedFile(String name, File file) {
-        processIncluded(name, file, filesIncluded, filesExcluded, filesDeselected);
+        getScanned().processIncluded(name, file, false);
     }
 
     /**
@@ -856,33 +702,14 @@ public class DirectoryScanner {
      * @param name path of the directory relative to the directory of
      *             the FileSet.
      * @param file directory as File.
-     * @param fast whether to perform fast scans.
      */
     private void accountForIncludedDir(String name, File file) {
-        processIncluded(name, file, dirsIncluded, dirsExcluded, dirsDeselected);
+        getScanned().processIncluded(name, file, true);
         if (couldHoldIncluded(name) && !contentsExcluded(name)) {
             scandirWrap(file, name + File.separator);
         }
     }
 
-    private void processIncluded(String name, File file, Vector<String> inc, Vector<String> exc, Vector<String> des) {
-
-        if (inc.contains(name) || exc.contains(name) || des.contains(name)) { return; }
-
-        boolean included = false;
-        if (isExcluded(name)) {
-            exc.add(name);
-            postExclude(file, name);
-        } else if (isSelected(name, file)) {
-            included = true;
-            inc.add(name);
-            postInclude(file, name);
-        } else {
-            des.add(name);
-        }
-        everythingIncluded &= included;
-    }
-
     protected void postInclude(File f, String name) {
     	if( iterator != null ) {
     		iterator.addMatch(f, name);
@@ -901,15 +728,11 @@ public class DirectoryScanner {
      *         include pattern, or <code>false</code> otherwise.
      */
     protected boolean isIncluded(String name) {
-        ensureNonPatternSetsReady();
-
-        if (isCaseSensitive()
-            ? includeNonPatterns.contains(name)
-            : includeNonPatterns.contains(name.toUpperCase())) {
+        if (includes == null) {
             return true;
         }
-        for (int i = 0; i < includePatterns.length; i++) {
-            if (matchPath(includePatterns[i], name, isCaseSensitive())) {
+        for (int i = 0; i < includes.length; i++) {
+            if (matchPath(includes[i], name, isCaseSensitive())) {
                 return true;
             }
         }
@@ -925,6 +748,9 @@ public class DirectoryScanner {
      *         least one include pattern, or <code>false</code> otherwise.
      */
     protected boolean couldHoldIncluded(String name) {
+        if (includes == null) {
+            return true;
+        }
         for (int i = 0; i < includes.length; i++) {
             if (matchPatternStart(includes[i], name, isCaseSensitive())
                 && isMorePowerfulThanExcludes(name, includes[i])
@@ -934,7 +760,6 @@ public class DirectoryScanner {
         }
         return false;
     }
-
     /**
      * Verify that a pattern specifies files deeper
      * than the level of the specified file.
@@ -1001,15 +826,11 @@ public class DirectoryScanner {
      *         exclude pattern, or <code>false</code> otherwise.
      */
     protected boolean isExcluded(String name) {
-        ensureNonPatternSetsReady();
-
-        if (isCaseSensitive()
-            ? excludeNonPatterns.contains(name)
-            : excludeNonPatterns.contains(name.toUpperCase())) {
-            return true;
+        if (excludes == null) {
+            return false;
         }
-        for (int i = 0; i < excludePatterns.length; i++) {
-            if (matchPath(excludePatterns[i], name, isCaseSensitive())) {
+        for (int i = 0; i < excludes.length; i++) {
+            if (matchPath(excludes[i], name, isCaseSensitive())) {
                 return true;
             }
         }
@@ -1125,29 +946,12 @@ public class DirectoryScanner {
         return new FileResource(basedir, name);
     }
 
-    /**
-     * Return a cached result of list performed on file, if
-     * available.  Invokes the method and caches the result otherwise.
-     *
-     * @param file File (dir) to list.
-     * @since Ant 1.6
-     */
-    private File[] list(File file) {
-        File[] files = fileListMap.get(file);
-        if (files == null) {
-            files = list2(file);
-            if (files != null) {
-                fileListMap.put(file, files);
-            }
-        }
-        return files;
-    }
-
     // Made protected to be over-ridden
     protected File[] list2(File file) {
     	return file.listFiles();
     }
 
+
     /**
      * From <code>base</code> traverse the filesystem in order to find
      * a file that matches the given name.
@@ -1200,7 +1004,7 @@ public class DirectoryScanner {
         if (!base.isDirectory()) {
             return null;
         }
-        File[] files = list(base);
+        File[] files = list2(base);
         if (files == null) {
             throw new BuildException("IO error scanning directory "//$NON-NLS-1$
                                      + base.getAbsolutePath());
@@ -1217,40 +1021,6 @@ public class DirectoryScanner {
         return null;
     }
 
-    /**
-     * Do we have to traverse a symlink when trying to reach path from
-     * basedir?
-     * @param base base File (dir).
-     * @param path file path.
-     * @since Ant 1.6
-     */
-    private boolean isSymlink(File base, String path) {
-        return isSymlink(base, SelectorUtils.tokenizePath(path));
-    }
-
-    /**
-     * Do we have to traverse a symlink when trying to reach path from
-     * basedir?
-     * @param base base File (dir).
-     * @param pathElements Vector of path elements (dirs...file).
-     * @since Ant 1.6
-     */
-    private boolean isSymlink(File base, Vector pathElements) {
-        if (pathElements.size() > 0) {
-            String current = (String) pathElements.remove(0);
-            try {
-                return FILE_UTILS.isSymbolicLink(base, current)
-                    || isSymlink(new File(base, current), pathElements);
-            } catch (IOException ioe) {
-                String msg = "IOException caught while checking "//$NON-NLS-1$
-                    + "for links, couldn't get canonical path!";//$NON-NLS-1$
-                // will be caught and redirected to Ant's logging system
-                System.err.println(msg);
-            }
-        }
-        return false;
-    }
-
     /**
      * Has the directory with the given path relative to the base
      * directory already been scanned?
@@ -1263,70 +1033,19 @@ public class DirectoryScanner {
         return !scannedDirs.add(vpath);
     }
 
-    /**
-     * This method is of interest for testing purposes.  The returned
-     * Set is live and should not be modified.
-     * @return the Set of relative directory names that have been scanned.
-     */
-    /* package-private */ Set<String> getScannedDirs() {
-        return scannedDirs;
-    }
 
-    /**
-     * Clear internal caches.
-     *
-     * @since Ant 1.6
-     */
-    private synchronized void clearCaches() {
-        fileListMap.clear();
-        includeNonPatterns.clear();
-        excludeNonPatterns.clear();
-        includePatterns = null;
-        excludePatterns = null;
-        areNonPatternSetsReady = false;
-    }
-
-    /**
-     * Ensure that the in|exclude &quot;patterns&quot;
-     * have been properly divided up.
-     *
-     * @since Ant 1.6.3
-     */
-    private synchronized void ensureNonPatternSetsReady() {
-        if (!areNonPatternSetsReady) {
-            includePatterns = fillNonPatternSet(includeNonPatterns, includes);
-            excludePatterns = fillNonPatternSet(excludeNonPatterns, excludes);
-            areNonPatternSetsReady = true;
-        }
-    }
-
-    /**
-     * Add all patterns that are not real patterns (do not contain
-     * wildcards) to the set and returns the real patterns.
-     *
-     * @param set Set to populate.
-     * @param patterns String[] of patterns.
-     * @since Ant 1.6.3
-     */
-    private String[] fillNonPatternSet(Set<String> set, String[] patterns) {
-        ArrayList<String> al = new ArrayList<String>(patterns.length);
-        for (int i = 0; i < patterns.length; i++) {
-            if (!SelectorUtils.hasWildcards(patterns[i])) {
-                set.add(isCaseSensitive() ? patterns[i]
-                    : patterns[i].toUpperCase());
-            } else {
-                al.add(patterns[i]);
-            }
-        }
-        return set.size() == 0 ? patterns
-            : al.toArray(new String[al.size()]);
-    }
-    
     protected File getChild(File file, String element) {
     	return new File(file, element);
     }
     
-    public Iterator<File> iterator() {
+    private Delegate getScanned() {
+        if (delegate == null) {
+            throw new IllegalStateException("Must call scan() first");//$NON-NLS-1$
+        }
+        return delegate;
+    }
+    
+    public synchronized Iterator<File> iterator() {
     	iterator = new DirectoryScannerIterator();
     	return iterator;
     }
@@ -1339,6 +1058,7 @@ public class DirectoryScanner {
     	public DirectoryScannerIterator() {
     		this.matches = new ArrayList<DSPair>();
     		this.toScan = new ArrayList<DSPair>();
+    		this.scanner = DirectoryScanner.this;
     		pointer = 0;
     		iterator = this;
             scanPrepare();
@@ -1389,4 +1109,153 @@ public class DirectoryScanner {
     		this.vpath = vpath;
     	}
     }
-}
\ No newline at end of file
+
+    /*
+     * A file the shared scanner can walk. Whether it is a
+     * folder is read once, as the scanner asks several times.
+     */
+    protected static class ScannedFile extends File implements ITreeNode {
+        private static final long serialVersionUID = 1L;
+        private transient Boolean leaf;
+
+        public ScannedFile(String path) {
+            super(path);
+        }
+
+        public boolean isLeaf() {
+            if (leaf == null) {
+                leaf = Boolean.valueOf(!isDirectory());
+            }
+            return leaf.booleanValue();
+        }
+
+        public ITreeNode getChild(String name) {
+            return new ScannedFile(new File(this, name).getPath());
+        }
+
+        public ITreeNode[] listChildren() {
+            return wrap(listFiles());
+        }
+    }
+
+    private static ScannedFile toScanned(File file) {
+        return file instanceof ScannedFile ? (ScannedFile) file
+            : new ScannedFile(file.getPath());
+    }
+
+    private static ScannedFile[] wrap(File[] files) {
+        if (files == null) {
+            return null;
+        }
+        ScannedFile[] ret = new ScannedFile[files.length];
+        for (int i = 0; i < files.length; i++) {
+            ret[i] = toScanned(files[i]);
+        }
+        return ret;
+    }
+
+    /*
+     * The shared scanner, listing and matching for this class.
+     * It walks through scandirWrap and records through postInclude,
+     * and when this class is subclassed it also matches and names
+     * files through the methods a subclass may have overridden.
+     */
+    protected class Delegate extends VirtualDirectoryScanner<ScannedFile> {
+        private final boolean hooked = DirectoryScanner.this.getClass() != DirectoryScanner.class;
+
+        /*
+         * Set up the patterns and results, which are shared
+         * with the fields of the enclosing scanner
+         */
+        protected void scanPrepare() {
+            if (getBasedir() != null) {
+                super.scanPrepare();
+            } else {
+                // only absolute include patterns are scanned
+                setupDefaultFilters();
+                setupMatchPatterns();
+                filesIncluded = new Vector<String>();
+                filesNotIncluded = new Vector<String>();
+                filesExcluded = new Vector<String>();
+                filesDeselected = new Vector<String>();
+                dirsIncluded = new Vector<String>();
+                dirsNotIncluded = new Vector<String>();
+                dirsExcluded = new Vector<String>();
+                dirsDeselected = new Vector<String>();
+            }
+            DirectoryScanner.this.filesIncluded = filesIncluded;
+            DirectoryScanner.this.filesNotIncluded = filesNotIncluded;
+            DirectoryScanner.this.filesExcluded = filesExcluded;
+            DirectoryScanner.this.filesDeselected = filesDeselected;
+            DirectoryScanner.this.dirsIncluded = dirsIncluded;
+            DirectoryScanner.this.dirsNotIncluded = dirsNotIncluded;
+            DirectoryScanner.this.dirsExcluded = dirsExcluded;
+            DirectoryScanner.this.dirsDeselected = dirsDeselected;
+        }
+
+        void processIncluded(String name, File file, boolean dir) {
+            if (dir) {
+                processIncluded(name, toScanned(file), dirsIncluded, dirsExcluded, dirsDeselected);
+            } else {
+                processIncluded(name, toScanned(file), filesIncluded, filesExcluded, filesDeselected);
+            }
+        }
+
+        protected void scandirWrap(ScannedFile dir, String vpath, boolean fast) {
+            DirectoryScanner.this.scandirWrap(dir, vpath);
+        }
+
+        protected ITreeNode[] listChildren(ITreeNode node) {
+            return wrap(list2((File) node));
+        }
+
+        protected ITreeNode getChild(ScannedFile file, String child) {
+            return toScanned(DirectoryScanner.this.getChild(file, child));
+        }
+
+        protected String getName(ITreeNode node) {
+            return hooked ? DirectoryScanner.this.getName((File) node) : super.getName(node);
+        }
+
+        protected boolean basedirMustExist() {
+            return true;
+        }
+
+        protected boolean exists(ScannedFile node) {
+            return node.exists();
+        }
+
+        protected boolean isIncluded(String name) {
+            return hooked ? DirectoryScanner.this.isIncluded(name) : super.isIncluded(name);
+        }
+
+        protected boolean isIncluded(String name, String[] tokenizedName) {
+            return hooked ? DirectoryScanner.this.isIncluded(name) : super.isIncluded(name, tokenizedName);
+        }
+
+        protected boolean couldHoldIncluded(String name) {
+            return hooked ? DirectoryScanner.this.couldHoldIncluded(name) : super.couldHoldIncluded(name);
+        }
+
+        protected boolean isExcluded(String name) {
+            return hooked ? DirectoryScanner.this.isExcluded(name) : super.isExcluded(name);
+        }
+
+        protected boolean isExcluded(String name, String[] tokenizedName) {
+            return hooked ? DirectoryScanner.this.isExcluded(name) : super.isExcluded(name, tokenizedName);
+        }
+
+        protected boolean isSelected(String name, ITreeNode file) {
+            return DirectoryScanner.this.isSelected(name, (File) file);
+        }
+
+        protected void postInclude(ScannedFile f, String name) {
+            super.postInclude(f, name);
+            DirectoryScanner.this.postInclude(f, name);
+        }
+
+        protected void postExclude(ITreeNode f, String name) {
+            DirectoryScanner.this.postExclude((File) f, name);
+        }
+    }
+}
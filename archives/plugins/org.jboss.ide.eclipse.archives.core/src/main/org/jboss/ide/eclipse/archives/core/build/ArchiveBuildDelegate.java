@@ -14,6 +14,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -33,12 +36,17 @@ import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveFolder;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveModelRootNode;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
-import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeVisitor;
 import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension.FileWrapper;
 import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
 import org.jboss.ide.eclipse.archives.core.util.PathUtils;
+import org.jboss.ide.eclipse.archives.core.util.internal.ArchiveManifest;
+import org.jboss.ide.eclipse.archives.core.util.internal.ArchiveReferenceIndex;
+import org.jboss.ide.eclipse.archives.core.util.internal.ArchiveReferenceIndex.Cascade;
 import org.jboss.ide.eclipse.archives.core.util.internal.ModelTruezipBridge;
+import org.jboss.ide.eclipse.archives.core.util.internal.OutputContributionMap;
+import org.jboss.ide.eclipse.archives.core.util.internal.StreamingArchiveWriter;
 import org.jboss.ide.eclipse.archives.core.util.internal.TrueZipUtil;
+import org.jboss.ide.eclipse.archives.core.zip.ParallelZipWriter;
 import org.jboss.ide.eclipse.archives.core.util.internal.ModelTruezipBridge.FileWrapperStatusPair;
 
 /**
@@ -53,7 +61,45 @@ import org.jboss.ide.eclipse.archives.core.util.internal.ModelTruezipBridge.File
 public class ArchiveBuildDelegate {
 
 	public static int CANNOT_REGISTER_CODE = 31415;
+
+	/**
+	 * System property holding the number of threads a full project build
+	 * may use. 1 (the default) builds serially, 0 uses one thread per processor.
+	 */
+	public static final String BUILD_THREADS_PROPERTY = "org.jboss.ide.eclipse.archives.core.buildThreads"; //$NON-NLS-1$
+
+	private int buildThreads;
+
 	public ArchiveBuildDelegate() {
+		this(getDefaultBuildThreads());
+	}
+
+	public ArchiveBuildDelegate(int buildThreads) {
+		setBuildThreads(buildThreads);
+	}
+
+	private static int getDefaultBuildThreads() {
+		String val = System.getProperty(BUILD_THREADS_PROPERTY);
+		if( val == null )
+			return 1;
+		try {
+			return Integer.parseInt(val.trim());
+		} catch(NumberFormatException nfe) {
+			return 1;
+		}
+	}
+
+	/**
+	 * Set how many archives of a project may be built at the same time.
+	 * @param buildThreads the number of threads, or 0 for one per processor
+	 */
+	public void setBuildThreads(int buildThreads) {
+		this.buildThreads = buildThreads > 0 ? buildThreads
+				: Runtime.getRuntime().availableProcessors();
+	}
+
+	public int getBuildThreads() {
+		return buildThreads;
 	}
 
 
@@ -62,6 +108,15 @@ public class ArchiveBuildDelegate {
 	 * @param project The project containing the archive model
 	 */
 	public IStatus fullProjectBuild(IPath project, IProgressMonitor monitor) {
+		TrueZipUtil.beginTransaction();
+		try {
+			return buildProject(project, monitor);
+		} finally {
+			TrueZipUtil.commitTransaction();
+		}
+	}
+
+	private IStatus buildProject(IPath project, IProgressMonitor monitor) {
 		EventManager.cleanProjectBuild(project);
 		EventManager.startedBuild(project);
 
@@ -86,12 +141,27 @@ public class ArchiveBuildDelegate {
 			monitor.beginTask( ArchivesCore.bind(ArchivesCoreMessages.BuildingProject,
 					ArchivesCore.getInstance().getVFS().getProjectName(project)), nodes.length * 1000);
 			
-			for( int i = 0; i < nodes.length; i++ ) {
-				errors.addAll(Arrays.asList(
-						fullArchiveBuild(
-								((IArchive)nodes[i]),
-								new SubProgressMonitor(monitor, 1000), 
-								false)));
+			ParallelArchiveBuild parallel = null;
+			if( buildThreads > 1 && nodes.length > 1 ) {
+				IArchive[] archives = new IArchive[nodes.length];
+				for( int i = 0; i < nodes.length; i++ )
+					archives[i] = (IArchive)nodes[i];
+				parallel = new ParallelArchiveBuild(this, archives, buildThreads);
+				// archives referencing each other in a cycle cannot be ordered
+				if( !parallel.computeGraph())
+					parallel = null;
+			}
+
+			if( parallel != null ) {
+				errors.addAll(parallel.build(monitor));
+			} else {
+				for( int i = 0; i < nodes.length; i++ ) {
+					errors.addAll(Arrays.asList(
+							fullArchiveBuild(
+									((IArchive)nodes[i]),
+									new SubProgressMonitor(monitor, 1000), 
+									false)));
+				}
 			}
 
 			EventManager.finishedBuild(project);
@@ -108,22 +178,9 @@ public class ArchiveBuildDelegate {
 	}
 
 	protected IArchive[] findReferences(IArchive node2) {
-		final Set<IArchive> s = new TreeSet<IArchive>();
-		final IPath dest = node2.getArchiveFilePath();
-		ArchivesModel.instance().accept(new IArchiveNodeVisitor(){
-			public boolean visit(IArchiveNode node) {
-				if( node.getNodeType() == IArchiveNode.TYPE_ARCHIVE_FILESET) {
-					IArchiveFileSet fs = (IArchiveFileSet)node;
-					FileWrapper[] wrapper = fs.getMatches(dest);
-					if( wrapper != null && wrapper.length > 0 )
-						s.add(fs.getRootArchive());
-				}
-				return true;
-			}
-		});
-		return (IArchive[]) s.toArray(new IArchive[s.size()]);
+		return ArchiveReferenceIndex.getInstance().getReferences(node2);
 	}
-	
+
 	/**
 	 * Builds an archive entirely, overwriting whatever was in the output destination.
 	 * @param pkg The archive to build
@@ -132,6 +189,29 @@ public class ArchiveBuildDelegate {
 		return fullArchiveBuild(pkg, monitor, true);
 	}
 	protected IStatus fullArchiveBuild(IArchive pkg, IProgressMonitor monitor, boolean log) {
+		return fullArchiveBuild(pkg, monitor, log, true, true);
+	}
+
+	/**
+	 * Builds an archive entirely.
+	 * @param pkg The archive to build
+	 * @param log Whether errors should be sent to the build listeners
+	 * @param buildReferences Whether archives consuming this one's output should be rebuilt too
+	 * @param sync Whether truezip should be synced once the archive is built.
+	 * 	If false, the caller is responsible for syncing afterwards.
+	 */
+	protected IStatus fullArchiveBuild(IArchive pkg, IProgressMonitor monitor, boolean log,
+			boolean buildReferences, boolean sync) {
+		TrueZipUtil.beginTransaction();
+		try {
+			return buildArchive(pkg, monitor, log, buildReferences, sync);
+		} finally {
+			TrueZipUtil.commitTransaction();
+		}
+	}
+
+	private IStatus buildArchive(IArchive pkg, IProgressMonitor monitor, boolean log,
+			boolean buildReferences, boolean sync) {
 		if( !pkg.canBuild() ) {
 			IStatus s = new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
 					ArchivesCore.bind(ArchivesCoreMessages.CannotBuildBadConfiguration, pkg.getName()), null);
@@ -144,11 +224,30 @@ public class ArchiveBuildDelegate {
 		EventManager.cleanArchiveBuild(pkg);
 		EventManager.startedBuildingArchive(pkg);
 		
+		// If incremental full builds are on and the output was built with the same
+		// layout, only apply what changed since, as recorded in its build manifest.
+		// Otherwise start from scratch.
+		// Reproducible packed archives are always streamed from scratch, since
+		// updating them through truezip would not keep their entries in order.
 		IPath filePath = pkg.getArchiveFilePath();
-		if( filePath.toFile().isFile()) 
-			filePath.toFile().delete();
-		else
-			TrueZipUtil.javaIODeleteDir(filePath.toFile());
+		ArchiveManifest manifest = ArchiveManifest.getManifest(pkg);
+		String structure = ArchiveManifest.getStructure(pkg);
+		boolean diff = manifest != null && manifest.canDiff(structure)
+			&& !(ParallelZipWriter.isReproducibleByDefault() && StreamingArchiveWriter.canWrite(pkg));
+		if( !diff ) {
+			if( manifest != null )
+				manifest.clear();
+			if( filePath.toFile().isFile()) 
+				filePath.toFile().delete();
+			else
+				TrueZipUtil.javaIODeleteDir(filePath.toFile());
+		}
+		if( manifest != null )
+			manifest.beginBuild(structure);
+		// every fileset is built again, recording where it puts its files
+		OutputContributionMap contributions = OutputContributionMap.getMap(pkg);
+		if( contributions != null )
+			contributions.clear();
 		
 		//ModelTruezipBridge.deleteArchive(pkg);
 		IPath dest = PathUtils.getGlobalLocation(pkg);
@@ -183,40 +282,54 @@ public class ArchiveBuildDelegate {
 //		}
 
 
-		if( !ModelTruezipBridge.createFile(pkg) ) {
-			IStatus e = new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
-					ArchivesCore.bind(ArchivesCoreMessages.ErrorCreatingOutputFile,
-							ModelTruezipBridge.getFilePath(pkg),
-							pkg.toString()));
-			errors.add(e);
-		}
-		monitor.worked(200);
-
-		// force create all folders
-		IArchiveFolder[] folders = ModelUtil.findAllDescendentFolders(pkg);
-		IProgressMonitor folderMonitor = new SubProgressMonitor(monitor, 800);
-		folderMonitor.beginTask(ArchivesCoreMessages.CreatingFolders, folders.length * 100);
-		for( int i = 0; i < folders.length; i++ ) {
-			if( !ModelTruezipBridge.createFile(folders[i])) {
-				IStatus e = new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID, 
+		if( !diff && StreamingArchiveWriter.canWrite(pkg)) {
+			// A packed archive built from scratch is streamed out in one pass
+			monitor.worked(1000);
+			errors.addAll(Arrays.asList(streamArchive(pkg, manifest, new SubProgressMonitor(monitor, 6000))));
+		} else {
+			if( !ModelTruezipBridge.createFile(pkg, sync) ) {
+				IStatus e = new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
 						ArchivesCore.bind(ArchivesCoreMessages.ErrorCreatingOutputFile,
-						ModelTruezipBridge.getFilePath(folders[i]),
-						folders[i].toString()));
+								ModelTruezipBridge.getFilePath(pkg),
+								pkg.toString()));
 				errors.add(e);
 			}
-			folderMonitor.worked(100);
+			monitor.worked(200);
+
+			// force create all folders
+			IArchiveFolder[] folders = ModelUtil.findAllDescendentFolders(pkg);
+			IProgressMonitor folderMonitor = new SubProgressMonitor(monitor, 800);
+			folderMonitor.beginTask(ArchivesCoreMessages.CreatingFolders, folders.length * 100);
+			for( int i = 0; i < folders.length; i++ ) {
+				if( !ModelTruezipBridge.createFile(folders[i], sync)) {
+					IStatus e = new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID, 
+							ArchivesCore.bind(ArchivesCoreMessages.ErrorCreatingOutputFile,
+							ModelTruezipBridge.getFilePath(folders[i]),
+							folders[i].toString()));
+					errors.add(e);
+				}
+				folderMonitor.worked(100);
+			}
+			folderMonitor.done();
+
+			// build the filesets
+			IArchiveFileSet[] filesets = ModelUtil.findAllDescendentFilesets(pkg);
+			IProgressMonitor filesetMonitor = new SubProgressMonitor(monitor, 6000);
+			filesetMonitor.beginTask(ArchivesCoreMessages.BuildingFilesets, filesets.length * 1000);
+			for( int i = 0; i < filesets.length; i++ ) {
+				IStatus[] errors2 = fullFilesetBuild(filesets[i], new SubProgressMonitor(filesetMonitor, 1000), pkg, sync, diff);
+				errors.addAll(Arrays.asList(errors2));
+			}
+			filesetMonitor.done();
 		}
-		folderMonitor.done();
 
-		// build the filesets
-		IArchiveFileSet[] filesets = ModelUtil.findAllDescendentFilesets(pkg);
-		IProgressMonitor filesetMonitor = new SubProgressMonitor(monitor, 6000);
-		filesetMonitor.beginTask(ArchivesCoreMessages.BuildingFilesets, filesets.length * 1000);
-		for( int i = 0; i < filesets.length; i++ ) {
-			IStatus[] errors2 = fullFilesetBuild(filesets[i], new SubProgressMonitor(filesetMonitor, 1000), pkg);
-			errors.addAll(Arrays.asList(errors2));
+		// Remove whatever the filesets no longer produce
+		if( manifest != null ) {
+			String[] stale = manifest.endBuild();
+			if( diff )
+				errors.addAll(Arrays.asList(ModelTruezipBridge.deleteEntries(pkg, stale)));
+			manifest.save();
 		}
-		filesetMonitor.done();
 
 //		// Run the post actions
 //		for( int i = 0; i < actions.length; i++ ) {
@@ -226,22 +339,29 @@ public class ArchiveBuildDelegate {
 //		}
 		
 		
-		ArrayList<IArchive> referencingArchives = new ArrayList<IArchive>();
-		referencingArchives.addAll(Arrays.asList(findReferences(pkg)));
+		// Write the archive out once, now that all of its contents are in place
+		if( sync )
+			TrueZipUtil.flush();
+
+		// Rebuild everything consuming this archive, each once, in dependency order
+		IArchive[] referencingArchives = new IArchive[0];
+		if( buildReferences ) {
+			Cascade cascade = ArchiveReferenceIndex.getInstance().getCascade(pkg);
+			referencingArchives = cascade.archives;
+			if( cascade.cyclic.length > 0 ) {
+				ArchivesCore.getInstance().getLogger().log(IStatus.WARNING, 
+						ArchivesCore.bind(ArchivesCoreMessages.ArchiveReferenceCycle,
+								pkg.toString(), Arrays.asList(cascade.cyclic).toString()), null);
+			}
+		}
 		IProgressMonitor referenceMon = new SubProgressMonitor(monitor, 1000);
 		referenceMon.beginTask(ArchivesCoreMessages.BuildingArchive, 
-				referencingArchives.size() * 1000);
-		for( Iterator<IArchive> i = referencingArchives.iterator(); i.hasNext();) {
-			IArchive toBuild = i.next();
-			if( !toBuild.equals(pkg)) {
-				errors.add(fullArchiveBuild(
-						toBuild, new SubProgressMonitor(referenceMon, 1000), log));
-			} else {
-				// RECURSE ERROR
-			}
+				referencingArchives.length * 1000);
+		for( int i = 0; i < referencingArchives.length; i++ ) {
+			errors.add(fullArchiveBuild(referencingArchives[i], 
+					new SubProgressMonitor(referenceMon, 1000), log, false, sync));
 		}
-
-		
+		referenceMon.done();
 
 		EventManager.finishedBuildingArchive(pkg);
 		IStatus[] errors2 = errors.toArray(new IStatus[errors.size()]);
@@ -257,21 +377,63 @@ public class ArchiveBuildDelegate {
 		return ms;
 	}
 
+	/**
+	 * Write a packed top level archive from scratch with a {@link StreamingArchiveWriter}
+	 * instead of through truezip. The filesets are still collected one by one
+	 * and their events fired as for any full build.
+	 */
+	protected IStatus[] streamArchive(IArchive pkg, ArchiveManifest manifest, IProgressMonitor monitor) {
+		IArchiveFileSet[] filesets = ModelUtil.findAllDescendentFilesets(pkg);
+		monitor.beginTask(ArchivesCoreMessages.BuildingFilesets, filesets.length * 100 + 1000);
+		StreamingArchiveWriter writer = new StreamingArchiveWriter(pkg, manifest);
+		OutputContributionMap contributions = OutputContributionMap.getMap(pkg);
+		for( int i = 0; i < filesets.length; i++ ) {
+			EventManager.startedCollectingFileSet(filesets[i]);
+			filesets[i].resetScanner();
+			FileWrapper[] paths = filesets[i].findMatchingPaths();
+			writer.addFileset(filesets[i], paths);
+			if( contributions != null ) {
+				contributions.beginFileset(filesets[i]);
+				contributions.record(filesets[i], paths);
+			}
+			EventManager.filesUpdated(pkg, filesets[i], paths);
+			EventManager.finishedCollectingFileSet(filesets[i]);
+			monitor.worked(100);
+		}
+		IStatus[] errors = writer.write(new SubProgressMonitor(monitor, 1000));
+		monitor.done();
+		return errors;
+	}
+
 	/**
 	 * Build the given fileset
 	 * @param fileset The fileset to match
 	 * @param topLevel The top level archive that the fileset belongs to
 	 */
 	protected IStatus[] fullFilesetBuild(IArchiveFileSet fileset, IProgressMonitor monitor, IArchive topLevel) {
+		return fullFilesetBuild(fileset, monitor, topLevel, true);
+	}
+
+	protected IStatus[] fullFilesetBuild(IArchiveFileSet fileset, IProgressMonitor monitor, IArchive topLevel, boolean sync) {
+		return fullFilesetBuild(fileset, monitor, topLevel, sync, false);
+	}
+
+	/**
+	 * Build the given fileset
+	 * @param skipUnchanged whether to leave entries the archive's build manifest
+	 * shows are already up to date
+	 */
+	protected IStatus[] fullFilesetBuild(IArchiveFileSet fileset, IProgressMonitor monitor, IArchive topLevel,
+			boolean sync, boolean skipUnchanged) {
 		EventManager.startedCollectingFileSet(fileset);
 
 		// reset the scanner. It *is* a full build afterall
 		fileset.resetScanner();
-		FileWrapper[] paths = fileset.findMatchingPaths();
 
-		FileWrapperStatusPair result = ModelTruezipBridge.fullFilesetBuild(fileset, monitor, true);
+		// scans the fileset, copying its files as they are found
+		FileWrapperStatusPair result = ModelTruezipBridge.fullFilesetBuild(fileset, monitor, sync, skipUnchanged);
 
-		EventManager.filesUpdated(topLevel, fileset, paths);
+		EventManager.filesUpdated(topLevel, fileset, result.f);
 		EventManager.finishedCollectingFileSet(fileset);
 		return result.s;
 	}
@@ -286,6 +448,28 @@ public class ArchiveBuildDelegate {
 	 */
 	public void incrementalBuild(IArchive archive, Set<IPath> addedChanged,
 			Set<IPath> removed, boolean workspaceRelative, IProgressMonitor monitor) {
+		TrueZipUtil.beginTransaction();
+		try {
+			buildIncremental(archive, addedChanged, removed, workspaceRelative, monitor);
+		} finally {
+			TrueZipUtil.commitTransaction();
+		}
+	}
+
+	private static void addEvents(Map<IArchiveFileSet, List<IPath>> events,
+			IPath path, IArchiveFileSet[] matchingFilesets) {
+		for( int i = 0; i < matchingFilesets.length; i++ ) {
+			List<IPath> paths = events.get(matchingFilesets[i]);
+			if( paths == null ) {
+				paths = new ArrayList<IPath>();
+				events.put(matchingFilesets[i], paths);
+			}
+			paths.add(path);
+		}
+	}
+
+	private void buildIncremental(IArchive archive, Set<IPath> addedChanged,
+			Set<IPath> removed, boolean workspaceRelative, IProgressMonitor monitor) {
 		ArrayList<IStatus> errors = new ArrayList<IStatus>();
 
 		if( addedChanged.size() == 0 && removed.size() == 0 )
@@ -301,6 +485,8 @@ public class ArchiveBuildDelegate {
 		IArchiveFileSet[] matchingFilesets;
 		ArrayList<IArchive> topPackagesChanged = new ArrayList<IArchive>();
 		ArrayList<IArchiveFileSet> seen = new ArrayList<IArchiveFileSet>();
+		// the files of each fileset, told to the listeners once per fileset
+		LinkedHashMap<IArchiveFileSet, List<IPath>> events = new LinkedHashMap<IArchiveFileSet, List<IPath>>();
 
 		// Handle the removed files first. Hopefully the fileset hasn't been reset yet
 		// or it could make this block of code fail.
@@ -321,9 +507,11 @@ public class ArchiveBuildDelegate {
 					seen.add(matchingFilesets[j]);
 				}
 			}
-			EventManager.fileRemoved(path, matchingFilesets);
+			addEvents(events, path, matchingFilesets);
 			monitor.worked(100);
 		}
+		EventManager.filesRemoved(events);
+		events.clear();
 
 		// reset all of the filesets that have already matched
 		Iterator<IArchiveFileSet> fit = seen.iterator();
@@ -344,16 +532,18 @@ public class ArchiveBuildDelegate {
 				}
 				IStatus[] errors2 = ModelTruezipBridge.copyFiles(matchingFilesets[j],
 						matchingFilesets[j].getMatches(globalPath),
-						new NullProgressMonitor(), true, false);
+						new NullProgressMonitor(), true, false, true);
 				errors.addAll(Arrays.asList(errors2));
 			}
-			EventManager.fileUpdated(path, matchingFilesets);
+			addEvents(events, path, matchingFilesets);
 			monitor.worked(200);
 		}
+		EventManager.filesUpdated(events);
 
 
-		// NOW do the synch
-		TrueZipUtil.sync();
+		// NOW do the synch, once for every archive changed
+		TrueZipUtil.flush();
+		ArchiveManifest.saveAll();
 		Comparator c = new Comparator() {
 			public int compare(Object o1, Object o2) {
 				return 0;
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.build;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.ArchivesCore;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModelRootNode;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
+import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension.FileWrapper;
+import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
+import org.jboss.ide.eclipse.archives.core.util.PathUtils;
+
+/**
+ * Watches the filesets whose source folder lies outside the workspace.
+ * No resource delta ever reports changes to their files, so without
+ * this the builder only picks them up on a full build.
+ *
+ * The watcher polls: every interval it scans each such fileset again
+ * and compares the modification time and size of its files with those
+ * of the last poll. The scan goes through the shared folder listings,
+ * so only folders which changed are listed again. The files added,
+ * changed or removed are then handed to
+ * {@link ArchiveBuildDelegate#incrementalBuild(org.jboss.ide.eclipse.archives.core.model.IArchive, Set, Set, boolean, org.eclipse.core.runtime.IProgressMonitor)}
+ * as global paths, just as the builder hands it the files of a delta.
+ *
+ * Filesets are found in the registered model on each poll, and only
+ * for projects with the archives builder enabled. A fileset's first
+ * poll only records its files.
+ *
+ * As every poll scans each external fileset again, the watcher is off
+ * unless {@link #INTERVAL_PROPERTY} sets an interval.
+ */
+public class ExternalFilesetWatcher {
+	/**
+	 * A system property with the number of ms between polls.
+	 * 0, the default, turns the watcher off.
+	 */
+	public static final String INTERVAL_PROPERTY = "org.jboss.ide.eclipse.archives.core.externalPollInterval"; //$NON-NLS-1$
+	public static final long DEFAULT_INTERVAL = 0;
+
+	/* how long stop() waits for a poll in progress to end */
+	private static final long STOP_TIMEOUT = 5000;
+
+	public static long getDefaultInterval() {
+		String prop = System.getProperty(INTERVAL_PROPERTY);
+		if( prop != null ) {
+			try {
+				return Long.parseLong(prop.trim());
+			} catch( NumberFormatException nfe ) {
+				// keep the default
+			}
+		}
+		return DEFAULT_INTERVAL;
+	}
+
+	private long interval;
+	private Thread thread;
+	private volatile boolean running;
+	private volatile boolean stopped;
+	/* fileset key -> global path -> { modified, length } at the last poll */
+	private HashMap<String, HashMap<String, long[]>> snapshots = new HashMap<String, HashMap<String, long[]>>();
+
+	public ExternalFilesetWatcher() {
+		this(getDefaultInterval());
+	}
+
+	public ExternalFilesetWatcher(long interval) {
+		this.interval = interval;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Start polling on a background thread, unless the interval is 0
+	 */
+	public synchronized void start() {
+		if( interval <= 0 || thread != null )
+			return;
+		running = true;
+		stopped = false;
+		thread = new Thread("Archives External Fileset Watcher") { //$NON-NLS-1$
+			public void run() {
+				while( running ) {
+					try {
+						Thread.sleep(interval);
+					} catch( InterruptedException ie ) {
+						return;
+					}
+					if( !running )
+						return;
+					try {
+						poll();
+					} catch( RuntimeException re ) {
+						ArchivesCore.getInstance().getLogger().log(IStatus.WARNING, re.getMessage(), re);
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop polling, waiting a while for a poll in progress to end.
+	 * Once stopped, polls no longer build anything.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized(this) {
+			running = false;
+			stopped = true;
+			t = thread;
+			thread = null;
+		}
+		if( t != null && t != Thread.currentThread()) {
+			t.interrupt();
+			try {
+				t.join(STOP_TIMEOUT);
+			} catch( InterruptedException ie ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Whether {@link #stop()} was called since the watcher last started
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Scan the watched filesets and build what changed since the last poll
+	 */
+	public void poll() {
+		if( stopped )
+			return;
+		Set<IPath> addedChanged = new LinkedHashSet<IPath>();
+		Set<IPath> removed = new LinkedHashSet<IPath>();
+		synchronized(this) {
+			LinkedHashMap<String, IArchiveStandardFileSet> filesets = new LinkedHashMap<String, IArchiveStandardFileSet>();
+			IArchiveStandardFileSet[] watched = getWatchedFilesets();
+			for( int i = 0; i < watched.length; i++ )
+				filesets.put(getKey(watched[i]), watched[i]);
+			// forget the filesets which are gone
+			snapshots.keySet().retainAll(filesets.keySet());
+
+			Iterator<Map.Entry<String, IArchiveStandardFileSet>> i = filesets.entrySet().iterator();
+			while(i.hasNext()) {
+				Map.Entry<String, IArchiveStandardFileSet> e = i.next();
+				HashMap<String, long[]> now = snapshot(e.getValue());
+				if( now == null )
+					continue;
+				HashMap<String, long[]> before = snapshots.put(e.getKey(), now);
+				if( before != null )
+					compare(before, now, addedChanged, removed);
+			}
+		}
+		// a file may have left one fileset and still be in another
+		removed.removeAll(addedChanged);
+		if( !stopped && (addedChanged.size() > 0 || removed.size() > 0))
+			changed(addedChanged, removed);
+	}
+
+	/**
+	 * Build the files which changed. The paths are global.
+	 */
+	protected void changed(Set<IPath> addedChanged, Set<IPath> removed) {
+		new ArchiveBuildDelegate().incrementalBuild(null, addedChanged, removed, false, new NullProgressMonitor());
+	}
+
+	/**
+	 * Get the filesets of the model which lie outside the workspace
+	 */
+	protected IArchiveStandardFileSet[] getWatchedFilesets() {
+		ArrayList<IArchiveStandardFileSet> list = new ArrayList<IArchiveStandardFileSet>();
+		IArchiveModelRootNode[] roots = ArchivesModel.instance().getModelNodes();
+		for( int i = 0; i < roots.length; i++ ) {
+			if( !ArchivesCore.getInstance().getPreferenceManager().isArchivesBuilderEnabled(roots[i].getProjectPath()))
+				continue;
+			IArchiveFileSet[] filesets = ModelUtil.findAllDescendentFilesets(roots[i]);
+			for( int j = 0; j < filesets.length; j++ ) {
+				if( filesets[j] instanceof IArchiveStandardFileSet && isExternal((IArchiveStandardFileSet)filesets[j]))
+					list.add((IArchiveStandardFileSet)filesets[j]);
+			}
+		}
+		return list.toArray(new IArchiveStandardFileSet[list.size()]);
+	}
+
+	protected boolean isExternal(IArchiveStandardFileSet fileset) {
+		if( fileset.isInWorkspace() || !fileset.canBuild())
+			return false;
+		IPath global = PathUtils.getGlobalLocation(fileset);
+		return global != null
+			&& ArchivesCore.getInstance().getVFS().absolutePathToWorkspacePath(global).length == 0;
+	}
+
+	/*
+	 * Filesets scanning the same files share a snapshot, even
+	 * across reloads of the model which replace the fileset objects
+	 */
+	private String getKey(IArchiveStandardFileSet fileset) {
+		return PathUtils.getGlobalLocation(fileset) + "|" + fileset.getIncludesPattern() //$NON-NLS-1$
+			+ "|" + fileset.getExcludesPattern() //$NON-NLS-1$
+			+ "|" + DirectoryScannerFactory.getDefaultExcludes(fileset); //$NON-NLS-1$
+	}
+
+	private HashMap<String, long[]> snapshot(IArchiveStandardFileSet fileset) {
+		FileWrapper[] files;
+		try {
+			files = DirectoryScannerFactory.createDirectoryScanner(fileset, true).getMatchedArray();
+		} catch( RuntimeException re ) {
+			// the folder may be gone or unreadable for now, try again next time
+			return null;
+		}
+		HashMap<String, long[]> snapshot = new HashMap<String, long[]>();
+		for( int i = 0; i < files.length; i++ )
+			snapshot.put(files[i].getAbsolutePath(), new long[] { files[i].lastModified(), files[i].length() });
+		return snapshot;
+	}
+
+	private static void compare(HashMap<String, long[]> before, HashMap<String, long[]> now,
+			Set<IPath> addedChanged, Set<IPath> removed) {
+		Iterator<Map.Entry<String, long[]>> i = now.entrySet().iterator();
+		while(i.hasNext()) {
+			Map.Entry<String, long[]> e = i.next();
+			long[] old = before.get(e.getKey());
+			if( old == null || old[0] != e.getValue()[0] || old[1] != e.getValue()[1] )
+				addedChanged.add(new Path(e.getKey()));
+		}
+		Iterator<String> j = before.keySet().iterator();
+		while(j.hasNext()) {
+			String path = j.next();
+			if( !now.containsKey(path))
+				removed.add(new Path(path));
+		}
+	}
+}
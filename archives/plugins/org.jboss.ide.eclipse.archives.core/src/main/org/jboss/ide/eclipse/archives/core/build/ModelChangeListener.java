@@ -34,9 +34,11 @@ import org.jboss.ide.eclipse.archives.core.model.IArchiveModelRootNode;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeDelta;
 import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
+import org.jboss.ide.eclipse.archives.core.util.internal.ArchiveManifest;
 import org.jboss.ide.eclipse.archives.core.util.internal.ModelTruezipBridge;
 import org.jboss.ide.eclipse.archives.core.util.internal.ModelTruezipBridge.FileWrapperStatusPair;
 import org.jboss.ide.eclipse.archives.core.util.internal.ModelTruezipBridge.FullBuildRequiredException;
+import org.jboss.ide.eclipse.archives.core.util.internal.TrueZipUtil;
 
 /**
  * This class responds to model change events.
@@ -83,6 +85,7 @@ public class ModelChangeListener implements IArchiveModelListener {
 	
 	protected void executeAndLog(IArchiveNodeDelta delta) {
 		IStatus[] errors = null;
+		TrueZipUtil.beginTransaction();
 		try {
 			errors = handle(delta);
 		} catch( FullBuildRequiredException fbre) {
@@ -91,6 +94,9 @@ public class ModelChangeListener implements IArchiveModelListener {
 		} catch( Exception e ) {
 			IStatus er = new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID, ArchivesCoreMessages.ErrorUpdatingModel, e);
 			errors = new IStatus[] { er };
+		} finally {
+			TrueZipUtil.commitTransaction();
+			ArchiveManifest.saveAll();
 		}
 		IArchiveNode node = delta.getPreNode() == null ? delta.getPostNode() : delta.getPreNode();
 		EventManager.error(node, errors);
@@ -137,8 +143,10 @@ public class ModelChangeListener implements IArchiveModelListener {
 			}
 		}
 
-		if( isTopLevelArchive(delta.getPostNode()))
+		if( isTopLevelArchive(delta.getPostNode())) {
+			TrueZipUtil.flush();
 			EventManager.finishedBuildingArchive((IArchive)delta.getPostNode());
+		}
 		return errors.toArray(new IStatus[errors.size()]);
 	}
 	protected boolean descendentChanged(int kind) {
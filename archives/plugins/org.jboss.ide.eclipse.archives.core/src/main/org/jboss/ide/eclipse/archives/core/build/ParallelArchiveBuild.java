@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.jboss.ide.eclipse.archives.core.ArchivesCore;
+import org.jboss.ide.eclipse.archives.core.model.IArchive;
+import org.jboss.ide.eclipse.archives.core.util.internal.ArchiveReferenceIndex;
+import org.jboss.ide.eclipse.archives.core.util.internal.TrueZipUtil;
+
+/**
+ * Builds a set of top level archives on a bounded pool of worker threads.
+ *
+ * An archive depends on another archive of the set when one of its filesets
+ * matches the other archive's output file, as recorded in the
+ * {@link ArchiveReferenceIndex}. Archives are
+ * only handed to the pool once everything they depend on has been built, so
+ * independent archives are built at the same time and dependent ones wait.
+ *
+ * Each worker builds its archive inside its own truezip build transaction,
+ * which only umounts the archives written by that worker. A global umount
+ * would also flush the archives other workers are still writing.
+ */
+class ParallelArchiveBuild {
+	private static final AtomicInteger poolCount = new AtomicInteger();
+
+	private ArchiveBuildDelegate delegate;
+	private IArchive[] archives;
+	private int threads;
+
+	/* archive -> archives of this build that consume its output */
+	private HashMap<IArchive, List<IArchive>> dependents;
+	/* archive -> number of unbuilt archives it is waiting on */
+	private HashMap<IArchive, Integer> waitingOn;
+	/* archives outside of this build which consume one of its outputs */
+	private LinkedHashSet<IArchive> external;
+
+	private LinkedBlockingQueue<Result> finished = new LinkedBlockingQueue<Result>();
+
+	private static class Result {
+		private IArchive archive;
+		private IStatus status;
+		private Result(IArchive archive, IStatus status) {
+			this.archive = archive;
+			this.status = status;
+		}
+	}
+
+	ParallelArchiveBuild(ArchiveBuildDelegate delegate, IArchive[] archives, int threads) {
+		this.delegate = delegate;
+		this.archives = archives;
+		this.threads = threads;
+	}
+
+	/**
+	 * Compute the dependencies between the archives.
+	 * @return false if the archives reference each other in a cycle
+	 * and cannot be ordered
+	 */
+	boolean computeGraph() {
+		dependents = new HashMap<IArchive, List<IArchive>>();
+		waitingOn = new HashMap<IArchive, Integer>();
+		external = new LinkedHashSet<IArchive>();
+		List<IArchive> all = Arrays.asList(archives);
+		for( int i = 0; i < archives.length; i++ ) {
+			dependents.put(archives[i], new ArrayList<IArchive>());
+			waitingOn.put(archives[i], new Integer(0));
+		}
+		for( int i = 0; i < archives.length; i++ ) {
+			IArchive[] consumers = ArchiveReferenceIndex.getInstance().getReferences(archives[i]);
+			for( int j = 0; j < consumers.length; j++ ) {
+				IArchive consumer = consumers[j];
+				if( all.contains(consumer)) {
+					List<IArchive> list = dependents.get(archives[i]);
+					if( !list.contains(consumer)) {
+						list.add(consumer);
+						waitingOn.put(consumer, new Integer(waitingOn.get(consumer).intValue() + 1));
+					}
+				} else {
+					external.add(consumer);
+				}
+			}
+		}
+		return isAcyclic();
+	}
+
+	private boolean isAcyclic() {
+		HashMap<IArchive, Integer> indegree = new HashMap<IArchive, Integer>(waitingOn);
+		ArrayList<IArchive> ready = new ArrayList<IArchive>();
+		for( int i = 0; i < archives.length; i++ )
+			if( indegree.get(archives[i]).intValue() == 0 )
+				ready.add(archives[i]);
+		int visited = 0;
+		while( !ready.isEmpty()) {
+			IArchive a = ready.remove(ready.size()-1);
+			visited++;
+			Iterator<IArchive> i = dependents.get(a).iterator();
+			while(i.hasNext()) {
+				IArchive d = i.next();
+				int left = indegree.get(d).intValue() - 1;
+				indegree.put(d, new Integer(left));
+				if( left == 0 )
+					ready.add(d);
+			}
+		}
+		return visited == archives.length;
+	}
+
+	/**
+	 * Build all archives. {@link #computeGraph()} must have returned true.
+	 * The monitor is expected to have 1000 units of work per archive.
+	 * @return the status of every archive built, in order of completion
+	 */
+	List<IStatus> build(IProgressMonitor monitor) {
+		ArrayList<IStatus> statuses = new ArrayList<IStatus>();
+		ExecutorService pool = Executors.newFixedThreadPool(
+				Math.min(threads, archives.length), new BuildThreadFactory());
+		int submitted = 0;
+		int completed = 0;
+		try {
+			for( int i = 0; i < archives.length; i++ ) {
+				if( waitingOn.get(archives[i]).intValue() == 0 ) {
+					pool.execute(new BuildTask(archives[i]));
+					submitted++;
+				}
+			}
+			while( completed < submitted ) {
+				Result r = finished.take();
+				completed++;
+				statuses.add(r.status);
+				monitor.worked(1000);
+				if( monitor.isCanceled())
+					continue;
+				Iterator<IArchive> i = dependents.get(r.archive).iterator();
+				while(i.hasNext()) {
+					IArchive d = i.next();
+					int left = waitingOn.get(d).intValue() - 1;
+					waitingOn.put(d, new Integer(left));
+					if( left == 0 ) {
+						pool.execute(new BuildTask(d));
+						submitted++;
+					}
+				}
+			}
+		} catch(InterruptedException ie) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+			return statuses;
+		} finally {
+			pool.shutdown();
+		}
+
+		// Archives in other projects which consume ours are built serially, as before
+		if( !monitor.isCanceled()) {
+			Iterator<IArchive> i = external.iterator();
+			while(i.hasNext())
+				statuses.add(delegate.fullArchiveBuild(i.next(), new NullProgressMonitor(), false));
+		}
+		return statuses;
+	}
+
+	private class BuildTask implements Runnable {
+		private IArchive archive;
+		private BuildTask(IArchive archive) {
+			this.archive = archive;
+		}
+		public void run() {
+			IStatus s = null;
+			try {
+				// committing writes the archive out before any dependent reads it
+				TrueZipUtil.beginTransaction();
+				try {
+					s = delegate.fullArchiveBuild(archive, new NullProgressMonitor(), false, false, false);
+				} finally {
+					TrueZipUtil.commitTransaction();
+				}
+			} catch(RuntimeException re) {
+				s = new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID, re.getMessage() == null
+						? re.getClass().getName() : re.getMessage(), re);
+			} finally {
+				// the build thread waits for a result from every task
+				if( s == null )
+					s = new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID, archive.toString());
+				finished.add(new Result(archive, s));
+			}
+		}
+	}
+
+	private static class BuildThreadFactory implements ThreadFactory {
+		private int pool = poolCount.incrementAndGet();
+		private AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Archives Build " + pool + "-" + count.incrementAndGet()); //$NON-NLS-1$ //$NON-NLS-2$
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
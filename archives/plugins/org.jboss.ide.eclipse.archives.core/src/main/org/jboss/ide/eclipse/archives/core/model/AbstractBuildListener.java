@@ -13,7 +13,12 @@ package org.jboss.ide.eclipse.archives.core.model;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
 
-public class AbstractBuildListener implements IArchiveBuildListener {
+/**
+ * A build listener doing nothing. The batched file events are
+ * handed on one file at a time, so subclasses need only
+ * override the per file events.
+ */
+public class AbstractBuildListener implements IArchiveBuildListener2 {
 	public void buildFailed(IArchive pkg, IStatus status) {
 	}
 	public void cleanArchive(IArchive pkg) {
@@ -28,6 +33,16 @@ public class AbstractBuildListener implements IArchiveBuildListener {
 	public void fileUpdated(IArchive topLevelArchive, IArchiveFileSet fileset,
 			IPath filePath) {
 	}
+	public void filesRemoved(IArchive topLevelArchive, IArchiveFileSet fileset,
+			IPath[] filePaths) {
+		for( int i = 0; i < filePaths.length; i++ )
+			fileRemoved(topLevelArchive, fileset, filePaths[i]);
+	}
+	public void filesUpdated(IArchive topLevelArchive, IArchiveFileSet fileset,
+			IPath[] filePaths) {
+		for( int i = 0; i < filePaths.length; i++ )
+			fileUpdated(topLevelArchive, fileset, filePaths[i]);
+	}
 	public void finishedBuild(IPath project) {
 	}
 	public void finishedBuildingArchive(IArchive pkg) {
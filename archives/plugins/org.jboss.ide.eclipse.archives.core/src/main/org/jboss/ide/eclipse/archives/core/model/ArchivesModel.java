@@ -12,7 +12,8 @@ package org.jboss.ide.eclipse.archives.core.model;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
@@ -31,6 +32,12 @@ import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
  * The root model which keeps track of registered projects
  * and what archives / model nodes they contain.
  *
+ * The registry may be read from any thread without locking.
+ * Registering and unregistering a project hold a lock for that
+ * project only, so different projects can be registered at the
+ * same time. The listener lists are copied on write, so events can
+ * be fired while listeners are added or removed.
+ *
  * @author <a href="rob.stryker@redhat.com">Rob Stryker</a>
  */
 public class ArchivesModel implements IArchiveModel {
@@ -38,22 +45,42 @@ public class ArchivesModel implements IArchiveModel {
 	/**
 	 * Singleton instance
 	 */
-	protected static IArchiveModel instance;
+	protected static volatile IArchiveModel instance;
 	public static IArchiveModel instance() {
-		if( instance == null )
-			instance = new ArchivesModel();
+		if( instance == null ) {
+			synchronized(ArchivesModel.class) {
+				if( instance == null )
+					instance = new ArchivesModel();
+			}
+		}
 		return instance;
 	}
 
-	private HashMap<IPath, XbPackages> xbPackages; // maps an IPath (of a project) to XbPackages
-	private HashMap<IPath, ArchiveModelNode> archivesRoot; // maps an IPath (of a project) to PackageModelNode, aka root
-	private ArrayList<IArchiveBuildListener> buildListeners;
-	private ArrayList<IArchiveModelListener> modelListeners;
+	private ConcurrentHashMap<IPath, XbPackages> xbPackages; // maps an IPath (of a project) to XbPackages
+	private ConcurrentHashMap<IPath, ArchiveModelNode> archivesRoot; // maps an IPath (of a project) to PackageModelNode, aka root
+	private ConcurrentHashMap<IPath, Object> projectLocks; // maps an IPath (of a project) to the lock held while (un)registering it
+	private CopyOnWriteArrayList<IArchiveBuildListener> buildListeners;
+	private CopyOnWriteArrayList<IArchiveModelListener> modelListeners;
 	public ArchivesModel() {
-		xbPackages = new HashMap<IPath, XbPackages>();
-		archivesRoot = new HashMap<IPath, ArchiveModelNode>();
-		buildListeners = new ArrayList<IArchiveBuildListener>();
-		modelListeners = new ArrayList<IArchiveModelListener>();
+		xbPackages = new ConcurrentHashMap<IPath, XbPackages>();
+		archivesRoot = new ConcurrentHashMap<IPath, ArchiveModelNode>();
+		projectLocks = new ConcurrentHashMap<IPath, Object>();
+		buildListeners = new CopyOnWriteArrayList<IArchiveBuildListener>();
+		modelListeners = new CopyOnWriteArrayList<IArchiveModelListener>();
+	}
+
+	/*
+	 * The lock held while a project is registered or unregistered
+	 */
+	private Object getProjectLock(IPath project) {
+		Object lock = projectLocks.get(project);
+		if( lock == null ) {
+			Object newLock = new Object();
+			lock = projectLocks.putIfAbsent(project, newLock);
+			if( lock == null )
+				lock = newLock;
+		}
+		return lock;
 	}
 
 	/*
@@ -61,8 +88,7 @@ public class ArchivesModel implements IArchiveModel {
 	 * @see org.jboss.ide.eclipse.archives.core.model.IArchiveModel#addBuildListener(org.jboss.ide.eclipse.archives.core.model.IArchiveBuildListener)
 	 */
 	public void addBuildListener(IArchiveBuildListener listener) {
-		if( !buildListeners.contains(listener))
-			buildListeners.add(listener);
+		buildListeners.addIfAbsent(listener);
 	}
 
 	/*
@@ -86,8 +112,7 @@ public class ArchivesModel implements IArchiveModel {
 	 * @see org.jboss.ide.eclipse.archives.core.model.IArchiveModel#addModelListener(org.jboss.ide.eclipse.archives.core.model.IArchiveModelListener)
 	 */
 	public void addModelListener(IArchiveModelListener listener) {
-		if( !modelListeners.contains(listener))
-			modelListeners.add(listener);
+		modelListeners.addIfAbsent(listener);
 	}
 
 	/*
@@ -95,8 +120,7 @@ public class ArchivesModel implements IArchiveModel {
 	 * @see org.jboss.ide.eclipse.archives.core.model.IArchiveModel#removeModelListener(org.jboss.ide.eclipse.archives.core.model.IArchiveModelListener)
 	 */
 	public void removeModelListener(IArchiveModelListener listener) {
-		if( modelListeners.contains(listener))
-			modelListeners.remove(listener);
+		modelListeners.remove(listener);
 	}
 
 	/*
@@ -112,7 +136,8 @@ public class ArchivesModel implements IArchiveModel {
 	 * @see org.jboss.ide.eclipse.archives.core.model.IArchiveModel#getModelNodes()
 	 */
 	public IArchiveModelRootNode[] getModelNodes() {
-		Collection<ArchiveModelNode> c = archivesRoot.values();
+		// copy first, projects may be (un)registered meanwhile
+		Collection<ArchiveModelNode> c = new ArrayList<ArchiveModelNode>(archivesRoot.values());
 		return (IArchiveModelRootNode[]) c.toArray(new IArchiveModelRootNode[c.size()]);
 	}
 
@@ -132,7 +157,7 @@ public class ArchivesModel implements IArchiveModel {
 
 
 	public IArchiveModelRootNode getRoot(IPath project) {
-		return (archivesRoot.get(project));
+		return project == null ? null : archivesRoot.get(project);
 	}
 
 	public boolean isProjectRegistered(IPath projectPath) {
@@ -190,27 +215,37 @@ public class ArchivesModel implements IArchiveModel {
 	}
 
 	public void registerProject(IArchiveModelRootNode model, IProgressMonitor monitor) {
-		// If we're already registered, ignore this
-		if(!isProjectRegistered(model.getProjectPath())) {
-			ArchivesCore.getInstance().preRegisterProject(model.getProjectPath());
-			xbPackages.put(model.getProjectPath(), ((ArchiveModelNode)model).getXbPackages());
-			archivesRoot.put(model.getProjectPath(), (ArchiveModelNode)model);
-			model.setModel(this);
-			fireRegisterProjectEvent((ArchiveModelNode)model);
+		IPath projectPath = model.getProjectPath();
+		synchronized(getProjectLock(projectPath)) {
+			// If we're already registered, ignore this
+			if(!isProjectRegistered(projectPath)) {
+				ArchivesCore.getInstance().preRegisterProject(projectPath);
+				xbPackages.put(projectPath, ((ArchiveModelNode)model).getXbPackages());
+				archivesRoot.put(projectPath, (ArchiveModelNode)model);
+				model.setModel(this);
+				fireRegisterProjectEvent((ArchiveModelNode)model);
+			}
 		}
 	}
 
 	public void unregisterProject(IPath projectPath, IProgressMonitor monitor) {
-		IArchiveModelRootNode root = getRoot(projectPath);
-		xbPackages.remove(projectPath);
-		archivesRoot.remove(projectPath);
-		fireUnregisterProjectEvent(root);
+		if( projectPath == null )
+			return;
+		synchronized(getProjectLock(projectPath)) {
+			IArchiveModelRootNode root = getRoot(projectPath);
+			xbPackages.remove(projectPath);
+			archivesRoot.remove(projectPath);
+			fireUnregisterProjectEvent(root);
+		}
 	}
 
 	public void unregisterProject(IArchiveModelRootNode model, IProgressMonitor monitor) {
-		xbPackages.remove(model.getProjectPath());
-		archivesRoot.remove(model.getProjectPath());
-		fireUnregisterProjectEvent((ArchiveModelNode)model);
+		IPath projectPath = model.getProjectPath();
+		synchronized(getProjectLock(projectPath)) {
+			xbPackages.remove(projectPath);
+			archivesRoot.remove(projectPath);
+			fireUnregisterProjectEvent((ArchiveModelNode)model);
+		}
 	}
 
 	protected void fireRegisterProjectEvent(final IArchiveModelRootNode newRoot) {
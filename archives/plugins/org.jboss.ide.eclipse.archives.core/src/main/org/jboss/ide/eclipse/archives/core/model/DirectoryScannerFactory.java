@@ -13,6 +13,7 @@ package org.jboss.ide.eclipse.archives.core.model;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -20,6 +21,7 @@ import org.eclipse.core.runtime.Path;
 import org.jboss.ide.eclipse.archives.core.ArchivesCore;
 import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension.FileWrapper;
 import org.jboss.ide.eclipse.archives.core.util.PathUtils;
+import org.jboss.ide.eclipse.archives.core.util.internal.DirectoryListingCache;
 import org.jboss.tools.archives.scanner.ITreeNode;
 import org.jboss.tools.archives.scanner.VirtualDirectoryScanner;
 
@@ -28,6 +30,20 @@ import org.jboss.tools.archives.scanner.VirtualDirectoryScanner;
  * @author rob.stryker@jboss.com
  */
 public class DirectoryScannerFactory {
+	/**
+	 * The folders of version control systems and build tools a fileset
+	 * excludes when its {@link IArchiveFileSet#DEFAULT_EXCLUDES_PROPERTY}
+	 * is "true". Each ends with "**", so the scan skips these folders
+	 * without listing them.
+	 *
+	 * @since 3.5
+	 */
+	public static final String[] DEFAULT_EXCLUDES = {
+		"**/.svn/**", "**/CVS/**", "**/.git/**", "**/.hg/**", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		"**/.bzr/**", "**/SCCS/**", "**/RCS/**", "**/_darcs/**", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		"**/target/**", "**/node_modules/**" //$NON-NLS-1$ //$NON-NLS-2$
+	};
+
 	private static class ScannableFileSet {
 		public String rawPath;
 		public IPath rootArchiveRelativePath;
@@ -40,6 +56,10 @@ public class DirectoryScannerFactory {
 
 	public static DirectoryScannerExtension createDirectoryScanner(IArchiveStandardFileSet fs, boolean scan) {
 		String excludes = fs.getExcludesPattern(); 
+		String defaults = getDefaultExcludes(fs);
+		if( defaults != null ) {
+			excludes = (excludes == null || excludes.length() == 0 ? defaults : excludes + "," + defaults);  //$NON-NLS-1$
+		}
 		if( fs.getRootArchive().isDestinationInWorkspace() ) {
 			String s1 = fs.getRootArchive().getRawDestinationPath();
 			excludes = (excludes == null || excludes.length() == 0 ? s1 : excludes + "," + s1);  //$NON-NLS-1$
@@ -49,6 +69,24 @@ public class DirectoryScannerFactory {
 				fs.isInWorkspace(), fs.getDescriptorVersion(), scan);
 	}
 
+	/**
+	 * Get the default excludes a fileset asks for with its
+	 * {@link IArchiveFileSet#DEFAULT_EXCLUDES_PROPERTY}
+	 * @return the patterns, comma separated, or null if there are none
+	 */
+	public static String getDefaultExcludes(IArchiveFileSet fs) {
+		String value = fs.getProperty(IArchiveFileSet.DEFAULT_EXCLUDES_PROPERTY);
+		if( value == null || value.trim().length() == 0 || "false".equalsIgnoreCase(value.trim())) //$NON-NLS-1$
+			return null;
+		if( "true".equalsIgnoreCase(value.trim())) { //$NON-NLS-1$
+			StringBuffer buffer = new StringBuffer();
+			for( int i = 0; i < DEFAULT_EXCLUDES.length; i++ )
+				buffer.append(i == 0 ? "" : ",").append(DEFAULT_EXCLUDES[i]); //$NON-NLS-1$ //$NON-NLS-2$
+			return buffer.toString();
+		}
+		return value;
+	}
+
 	public static DirectoryScannerExtension createDirectoryScanner (
 			String rawPath, IPath rootArchiveRelativePath,
 			String includes, String excludes, String projectName,
@@ -114,6 +152,8 @@ public class DirectoryScannerFactory {
 		 */
 		protected HashMap<String, ArrayList<FileWrapper>> requiredFolders;
 		private IProgressMonitor monitor;
+		/* the names of the files listed so far, so that files of the same name share one string */
+		private ConcurrentHashMap<String, String> names = new ConcurrentHashMap<String, String>();
 		
 		public DirectoryScannerExtension(ScannableFileSet fs) {
 			this.fs = fs;
@@ -128,6 +168,8 @@ public class DirectoryScannerFactory {
 			matchesMap = new HashMap<String, ArrayList<FileWrapper>>();
 			requiredFolders = new HashMap<String, ArrayList<FileWrapper>>();
 			setBasedir2(fs.rawPath);
+			// listing files and workspace members is safe from any thread
+			setParallel(true);
 		}
 		
 	    public void scan(IProgressMonitor monitor) throws IllegalStateException {
@@ -224,18 +266,59 @@ public class DirectoryScannerFactory {
 	    	if( workspaceRelative == null )
 	    		return new FileWrapper[0];
 
+	    	DirectoryListingCache cache = DirectoryListingCache.getDefault();
+	    	DirectoryListingCache.Listing listing = cache.getWorkspace(workspaceRelative, file);
+	    	if( listing != null ) {
+	    		FileWrapper[] files = new FileWrapper[listing.names.length];
+	    		for( int i = 0; i < files.length; i++ ) {
+	    			files[i] = new FileWrapper(listing.locations[i], (FileWrapper)file,
+	    					intern(listing.names[i]), fs.rootArchiveRelativePath);
+	    			files[i].leaf = Boolean.valueOf(listing.leaves[i]);
+	    		}
+	    		return files;
+	    	}
+
+	    	long modified = file.lastModified();
 	    	IPath[] childrenWorkspace = ArchivesCore.getInstance()
 	    			.getVFS().getWorkspaceChildren(workspaceRelative);
 	    	IPath[] childrenAbsolute = globalize(childrenWorkspace);
 	    	FileWrapper[] files = new FileWrapper[childrenAbsolute.length];
-	    	IPath parentRootFSRelative = ((FileWrapper)file).getRootArchiveRelative();
 	    	for( int i = 0; i < files.length; i++ ) {
-	    		files[i] = new FileWrapper(childrenAbsolute[i].toFile(), childrenWorkspace[i], 
-	    				parentRootFSRelative.append(childrenWorkspace[i].lastSegment()));
+	    		files[i] = new FileWrapper(childrenAbsolute[i].toOSString(), (FileWrapper)file,
+	    				intern(childrenWorkspace[i].lastSegment()), fs.rootArchiveRelativePath);
 	    	}
+	    	if( cache.isEnabled())
+	    		cache.putWorkspace(workspaceRelative, createListing(files, modified));
 	    	return files;
 	    }
 
+	    /*
+	     * Describe a folder's children for the listing cache, reading whether
+	     * each is a file now, as the scanner is about to ask anyway
+	     */
+	    private DirectoryListingCache.Listing createListing(FileWrapper[] files, long modified) {
+	    	String[] names = new String[files.length];
+	    	String[] locations = new String[files.length];
+	    	boolean[] leaves = new boolean[files.length];
+	    	for( int i = 0; i < files.length; i++ ) {
+	    		names[i] = files[i].getOutputName();
+	    		locations[i] = files[i].getAbsolutePath();
+	    		leaves[i] = files[i].isLeaf();
+	    	}
+	    	return new DirectoryListingCache.Listing(names, locations, leaves, modified);
+	    }
+
+	    /**
+	     * Get the one string kept for a file name
+	     * @since 3.5
+	     */
+	    protected String intern(String name) {
+	    	if( name == null )
+	    		return null;
+	    	String existing = names.putIfAbsent(name, name);
+	    	return existing == null ? name : existing;
+	    }
+
 	    protected IPath[] globalize(IPath[] paths) {
 			IPath[] results = new IPath[paths.length];
 			for( int i = 0; i < paths.length; i++ )
@@ -255,11 +338,27 @@ public class DirectoryScannerFactory {
 	    	if( monitor != null && monitor.isCanceled() )
 	    		throw new RuntimeException();
 
+	    	DirectoryListingCache cache = DirectoryListingCache.getDefault();
+	    	DirectoryListingCache.Listing listing = cache.getFilesystem(file);
+	    	if( listing != null ) {
+	    		FileWrapper[] children2 = new FileWrapper[listing.locations.length];
+	    		for( int i = 0; i < children2.length; i++ ) {
+	    			children2[i] = new FileWrapper(listing.locations[i], (FileWrapper)file,
+	    					intern(listing.names[i]), fs.rootArchiveRelativePath);
+	    			children2[i].leaf = Boolean.valueOf(listing.leaves[i]);
+	    		}
+	    		return children2;
+	    	}
+
+	    	long modified = file.lastModified();
 	    	File[] children = file.listFiles();
 	    	if( children != null ) {
 		    	FileWrapper[] children2 = new FileWrapper[children.length];
 		    	for( int i = 0; i < children.length; i++ )
-		    		children2[i] = new FileWrapper(children[i], new Path(children[i].getAbsolutePath()), fs.rootArchiveRelativePath);
+		    		children2[i] = new FileWrapper(children[i].getAbsolutePath(), (FileWrapper)file,
+		    				intern(children[i].getName()), fs.rootArchiveRelativePath);
+		    	if( cache.isEnabled())
+		    		cache.putFilesystem(file, createListing(children2, modified));
 		    	return children2;
 	    	} 
 	    	return new FileWrapper[]{};
@@ -273,11 +372,14 @@ public class DirectoryScannerFactory {
 		 * @since 3.5
 		 */
 	    protected void postInclude(FileWrapper f, String relative) {
+	    	// set first: an iterator may hand the file on to another thread
+	    	if( f instanceof FileWrapper )
+	    		f.setFilesetRelative(relative);
 	    	super.postInclude(f, relative);
 	    	if( f instanceof FileWrapper ) {
 	    		FileWrapper f2 = ((FileWrapper)f);
-	    		f2.setFilesetRelative(relative);
-		    	if( f2.isFile() ) {
+	    		// the type was read when listing, no need to ask the file system again
+		    	if( f2.isLeaf() ) {
 		    		matches.add(f2);
 		    		addMatchToMap(f2, matchesMap);
 		    		if( fs.inWorkspace ) 
@@ -336,36 +438,76 @@ public class DirectoryScannerFactory {
 	    }
 
 	    /**
-	     * This class should really be broken out 
-		 * @since 3.4
-		 */
+	     * A file found by a scanner.
+	     *
+	     * A scan keeps every file it matches, so wrappers hold as little as
+	     * possible: a file listed from a folder only keeps the wrapper of that
+	     * folder and its own name, shared with the other files of that name,
+	     * and derives its workspace or global path from its parent's
+	     * when asked. All of a fileset's files share the fileset's path in
+	     * its root archive, and their own is derived from it.
+	     *
+	     * This class should really be broken out
+	     * @since 3.4
+	     */
 	    public static class FileWrapper extends File implements ITreeNode {
-	    	// The actual source file
-	    	File f;
+	    	// The wrapper of the folder this file was listed from, or null
+	    	private FileWrapper parent;
+
+	    	// The name of this file in its parent's listing
+	    	private String name;
 
-	    	// The path of this file, either workspace relative or global
-	    	IPath path;
+	    	// The path of this file, either workspace relative or global,
+	    	// or null to derive it from the parent
+	    	private IPath path;
 
 	    	// the path of this file relative to the fileset
 	    	String fsRelative;
+	    	// the path of the fileset in its root archive
 	    	IPath rootArchiveRelativePath;
+	    	// whether this is a file, read once: a scan asks several times
+	    	private Boolean leaf;
 	    	public FileWrapper(File delegate, IPath path2, IPath rootArchiveRelative) {
 				super(delegate.getAbsolutePath());
-				f = delegate;
 				path = path2;
+				name = path2.lastSegment();
 				rootArchiveRelativePath = rootArchiveRelative;
 			}
 	    	public FileWrapper(File delegate, IPath path2, IPath rootArchiveRelative, String fsRelative) {
 	    		this(delegate, path2, rootArchiveRelative);
 	    		this.fsRelative = fsRelative;
 			}
-			
+
+			/**
+			 * Wrap a file listed from a folder
+			 * @param location the absolute location of the file
+			 * @param parent the wrapper of the folder
+			 * @param name the name of the file in the folder
+			 * @param rootArchiveRelative the path of the fileset in its root archive
+			 * @since 3.5
+			 */
+			protected FileWrapper(String location, FileWrapper parent, String name, IPath rootArchiveRelative) {
+				super(location);
+				this.parent = parent;
+				this.name = name;
+				rootArchiveRelativePath = rootArchiveRelative;
+			}
+
 			public IPath getWrapperPath() {
-				return path;
+				if( path != null )
+					return path;
+				// append the names up to the nearest wrapper with a path all at once
+				StringBuffer sb = new StringBuffer(name);
+				FileWrapper w = parent;
+				while( w.path == null ) {
+					sb.insert(0, '/').insert(0, w.name);
+					w = w.parent;
+				}
+				return w.path.append(sb.toString());
 			}
 			// workspace name is the one we care about, or absolute if not in workspace
 			public String getOutputName() {
-				return path.lastSegment();
+				return name;
 			}
 			public String getFilesetRelative() {
 				return fsRelative;
@@ -387,7 +529,12 @@ public class DirectoryScannerFactory {
 			public boolean equals(Object o) {
 				if( o instanceof FileWrapper ) {
 					FileWrapper fo = (FileWrapper)o;
-					return f.equals(fo.f) && path.equals(fo.path);
+					if( !super.equals(fo))
+						return false;
+					if( parent == fo.parent && name != null && name.equals(fo.name)
+							&& path == null && fo.path == null )
+						return true;
+					return getWrapperPath().equals(fo.getWrapperPath());
 				}
 				return false;
 			}
@@ -396,26 +543,37 @@ public class DirectoryScannerFactory {
 			 */
 			@Override
 			public FileWrapper getParentFile() {
-				if( f.getParentFile() == null )
+				String parentLocation = getParent();
+				if( parentLocation == null )
 					return null;
-				if( path.segmentCount() == 0 )
+				IPath p2 = getWrapperPath();
+				if( p2.segmentCount() == 0 )
 					return null;
 				if( rootArchiveRelativePath.segmentCount() == 0 )
 					return null;
 				IPath p = new Path(fsRelative);
 				if( p.segmentCount() == 0 )
 					return null;
-				
-				FileWrapper ret = new FileWrapper(f.getParentFile(), 
-						path.removeLastSegments(1), rootArchiveRelativePath.removeLastSegments(1));
+
+				FileWrapper ret;
+				if( parent != null && parent.getPath().equals(parentLocation)) {
+					ret = new FileWrapper(parentLocation, parent.parent, parent.name, rootArchiveRelativePath);
+					ret.path = parent.path;
+					ret.leaf = Boolean.FALSE;
+				} else {
+					ret = new FileWrapper(new File(parentLocation), p2.removeLastSegments(1), rootArchiveRelativePath);
+				}
 				ret.setFilesetRelative(p.removeLastSegments(1).toString());
 				return ret;
 			}
+
 			/**
 			 * @since 3.5
 			 */
 			public boolean isLeaf() {
-				return !isDirectory();
+				if( leaf == null )
+					leaf = Boolean.valueOf(!isDirectory());
+				return leaf.booleanValue();
 			}
 			/**
 			 * @since 3.5
@@ -10,6 +10,10 @@
  ******************************************************************************/
 package org.jboss.ide.eclipse.archives.core.model;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
@@ -19,6 +23,12 @@ import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.Directo
 
 /**
  * The event manager to fire events
+ *
+ * Build events are fired to a copy of the listeners without holding
+ * any lock of this class. Each listener is called holding its own lock,
+ * so it is never entered from two threads at once, and a slow listener
+ * only holds up the builds waiting to call that same listener.
+ * Model events are not serialized this way.
  * @author <a href="rob.stryker@redhat.com">Rob Stryker</a>
  */
 public class EventManager {
@@ -27,7 +37,9 @@ public class EventManager {
 			IArchiveBuildListener[] listeners = getBuildListeners();
 			for( int i = 0; i < listeners.length; i++ ) {
 				try {
-					listeners[i].cleanProject(project);
+					synchronized( listeners[i] ) {
+						listeners[i].cleanProject(project);
+					}
 				} catch(Exception e ) {logError(e);}
 			}
 	}
@@ -36,7 +48,9 @@ public class EventManager {
 		IArchiveBuildListener[] listeners = getBuildListeners(archive);
 		for( int i = 0; i < listeners.length; i++ ) {
 			try {
-				listeners[i].cleanArchive(archive);
+				synchronized( listeners[i] ) {
+					listeners[i].cleanArchive(archive);
+				}
 			} catch(Exception e ) {logError(e);}
 		}
 	}
@@ -45,7 +59,9 @@ public class EventManager {
 		IArchiveBuildListener[] listeners = getBuildListeners();
 		for( int i = 0; i < listeners.length; i++ ) {
 			try {
-				listeners[i].startedBuild(project);
+				synchronized( listeners[i] ) {
+					listeners[i].startedBuild(project);
+				}
 			} catch(Exception e ) {logError(e);}
 		}
 	}
@@ -54,7 +70,9 @@ public class EventManager {
 		IArchiveBuildListener[] listeners = getBuildListeners();
 		for( int i = 0; i < listeners.length; i++ ) {
 			try {
-				listeners[i].finishedBuild(project);
+				synchronized( listeners[i] ) {
+					listeners[i].finishedBuild(project);
+				}
 			} catch(Exception e ) {logError(e);}
 		}
 	}
@@ -63,7 +81,9 @@ public class EventManager {
 		IArchiveBuildListener[] listeners = getBuildListeners(archive);
 		for( int i = 0; i < listeners.length; i++ ) {
 			try {
-				listeners[i].startedBuildingArchive(archive);
+				synchronized( listeners[i] ) {
+					listeners[i].startedBuildingArchive(archive);
+				}
 			} catch(Exception e ) {logError(e);}
 		}
 	}
@@ -72,7 +92,9 @@ public class EventManager {
 		IArchiveBuildListener[] listeners = getBuildListeners(archive);
 		for( int i = 0; i < listeners.length; i++ ) {
 			try {
-				listeners[i].finishedBuildingArchive(archive);
+				synchronized( listeners[i] ) {
+					listeners[i].finishedBuildingArchive(archive);
+				}
 			} catch(Exception e ) {logError(e);}
 		}
 	}
@@ -83,7 +105,9 @@ public class EventManager {
 		IArchiveBuildListener[] listeners = getBuildListeners(fileset);
 		for( int i = 0; i < listeners.length; i++ ) {
 			try {
-				listeners[i].startedCollectingFileSet(fileset);
+				synchronized( listeners[i] ) {
+					listeners[i].startedCollectingFileSet(fileset);
+				}
 			} catch(Exception e ) {logError(e);}
 		}
 	}
@@ -91,15 +115,57 @@ public class EventManager {
 		IArchiveBuildListener[] listeners = getBuildListeners(fileset);
 		for( int i = 0; i < listeners.length; i++ ) {
 			try {
-				listeners[i].finishedCollectingFileSet(fileset);
+				synchronized( listeners[i] ) {
+					listeners[i].finishedCollectingFileSet(fileset);
+				}
 			} catch(Exception e ) {logError(e);}
 		}
 	}
 
 	// Bulk events
 	public static void filesUpdated(IArchive topLevelArchive, IArchiveFileSet fileset, FileWrapper[] filePath) {
+		IPath[] paths = new IPath[filePath.length];
 		for( int i = 0; i < filePath.length; i++ ) {
-			fileUpdated(topLevelArchive, fileset, new Path(filePath[i].getAbsolutePath()));
+			paths[i] = new Path(filePath[i].getAbsolutePath());
+		}
+		filesUpdated(topLevelArchive, fileset, paths);
+	}
+
+	/**
+	 * Fire one event for files updated matching a fileset.
+	 * Listeners which are not an {@link IArchiveBuildListener2}
+	 * are told of each file in turn.
+	 * @since 3.5
+	 */
+	public static void filesUpdated(IArchive topLevelArchive, IArchiveFileSet fileset, IPath[] filePaths) {
+		if( filePaths.length == 0 )
+			return;
+		IArchiveBuildListener[] listeners = getBuildListeners(topLevelArchive);
+		for( int i = 0; i < listeners.length; i++ ) {
+			try {
+				synchronized( listeners[i] ) {
+					if( listeners[i] instanceof IArchiveBuildListener2 ) {
+						((IArchiveBuildListener2)listeners[i]).filesUpdated(topLevelArchive, fileset, filePaths);
+					} else {
+						for( int j = 0; j < filePaths.length; j++ )
+							listeners[i].fileUpdated(topLevelArchive, fileset, filePaths[j]);
+					}
+				}
+			} catch(Exception e ) {logError(e);}
+		}
+	}
+
+	/**
+	 * Fire one event per fileset for files updated, each
+	 * fileset mapped to the files which matched it
+	 * @since 3.5
+	 */
+	public static void filesUpdated(Map<IArchiveFileSet, List<IPath>> matches) {
+		Iterator<Map.Entry<IArchiveFileSet, List<IPath>>> i = matches.entrySet().iterator();
+		while(i.hasNext()) {
+			Map.Entry<IArchiveFileSet, List<IPath>> e = i.next();
+			List<IPath> paths = e.getValue();
+			filesUpdated(e.getKey().getRootArchive(), e.getKey(), paths.toArray(new IPath[paths.size()]));
 		}
 	}
 
@@ -114,7 +180,9 @@ public class EventManager {
 		IArchiveBuildListener[] listeners = getBuildListeners(topLevelArchive);
 		for( int i = 0; i < listeners.length; i++ ) {
 			try {
-				listeners[i].fileUpdated(topLevelArchive, fileset, filePath);
+				synchronized( listeners[i] ) {
+					listeners[i].fileUpdated(topLevelArchive, fileset, filePath);
+				}
 			} catch(Exception e ) {logError(e);}
 		}
 	}
@@ -123,7 +191,9 @@ public class EventManager {
 		IArchiveBuildListener[] listeners = getBuildListeners(topLevelArchive);
 		for( int i = 0; i < listeners.length; i++ ) {
 			try {
-				listeners[i].fileRemoved(topLevelArchive, fileset, filePath);
+				synchronized( listeners[i] ) {
+					listeners[i].fileRemoved(topLevelArchive, fileset, filePath);
+				}
 			} catch(Exception e ) {logError(e);}
 		}
 	}
@@ -136,8 +206,44 @@ public class EventManager {
 	}
 
 	public static void filesRemoved(IPath[] paths, IArchiveFileSet fileset) {
-		for( int i = 0; i < paths.length; i++ ) {
-			fileRemoved(fileset.getRootArchive(), fileset, paths[i]);
+		filesRemoved(fileset.getRootArchive(), fileset, paths);
+	}
+
+	/**
+	 * Fire one event for files removed matching a fileset.
+	 * Listeners which are not an {@link IArchiveBuildListener2}
+	 * are told of each file in turn.
+	 * @since 3.5
+	 */
+	public static void filesRemoved(IArchive topLevelArchive, IArchiveFileSet fileset, IPath[] filePaths) {
+		if( filePaths.length == 0 )
+			return;
+		IArchiveBuildListener[] listeners = getBuildListeners(topLevelArchive);
+		for( int i = 0; i < listeners.length; i++ ) {
+			try {
+				synchronized( listeners[i] ) {
+					if( listeners[i] instanceof IArchiveBuildListener2 ) {
+						((IArchiveBuildListener2)listeners[i]).filesRemoved(topLevelArchive, fileset, filePaths);
+					} else {
+						for( int j = 0; j < filePaths.length; j++ )
+							listeners[i].fileRemoved(topLevelArchive, fileset, filePaths[j]);
+					}
+				}
+			} catch(Exception e ) {logError(e);}
+		}
+	}
+
+	/**
+	 * Fire one event per fileset for files removed, each
+	 * fileset mapped to the files which matched it
+	 * @since 3.5
+	 */
+	public static void filesRemoved(Map<IArchiveFileSet, List<IPath>> matches) {
+		Iterator<Map.Entry<IArchiveFileSet, List<IPath>>> i = matches.entrySet().iterator();
+		while(i.hasNext()) {
+			Map.Entry<IArchiveFileSet, List<IPath>> e = i.next();
+			List<IPath> paths = e.getValue();
+			filesRemoved(e.getKey().getRootArchive(), e.getKey(), paths.toArray(new IPath[paths.size()]));
 		}
 	}
 
@@ -145,7 +251,9 @@ public class EventManager {
 		IArchiveBuildListener[] listeners = getBuildListeners(pkg);
 		for( int i = 0; i < listeners.length; i++ ) {
 			try {
-				listeners[i].buildFailed(pkg, status);
+				synchronized( listeners[i] ) {
+					listeners[i].buildFailed(pkg, status);
+				}
 			} catch(Exception e ) {logError(e);}
 		}
 	}
@@ -155,7 +263,9 @@ public class EventManager {
 			IArchiveBuildListener[] listeners = getBuildListeners(node);
 			for( int i = 0; i < listeners.length; i++ ) {
 				try {
-					listeners[i].error(node, errors);
+					synchronized( listeners[i] ) {
+						listeners[i].error(node, errors);
+					}
 				} catch(Exception e ) {logError(e);}
 			}
 		}
@@ -17,6 +17,17 @@ import org.eclipse.core.runtime.IStatus;
  * This interface is inteded to be implemented by classes who are
  * interested in receiving callbacks for various IArchive build events
  *
+ * Events are not always fired on the thread which started the build.
+ * When a project build uses more than one thread (see
+ * {@link org.jboss.ide.eclipse.archives.core.build.ArchiveBuildDelegate#BUILD_THREADS_PROPERTY}),
+ * the events of each archive are fired on the pool thread building it,
+ * so the events of different archives may interleave. The
+ * {@link EventManager} calls each listener holding the listener's
+ * own lock, so a listener is never entered from two threads at once,
+ * but a slow listener holds up every build firing to it. A listener
+ * touching the UI must still hand the work over to the display
+ * thread itself, without waiting for it.
+ *
  * @author Marshall
  */
 public interface IArchiveBuildListener {
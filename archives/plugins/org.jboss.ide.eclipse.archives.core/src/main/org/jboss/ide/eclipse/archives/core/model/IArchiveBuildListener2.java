@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.model;
+
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * A build listener which receives the files updated or removed
+ * for a fileset all at once, rather than one call per file.
+ *
+ * Listeners which only implement {@link IArchiveBuildListener}
+ * keep receiving one {@link #fileUpdated(IArchive, IArchiveFileSet, IPath)}
+ * or {@link #fileRemoved(IArchive, IArchiveFileSet, IPath)} per file.
+ * Listeners implementing this interface receive the batched
+ * calls instead, and not the per file ones.
+ *
+ * @since 3.5
+ */
+public interface IArchiveBuildListener2 extends IArchiveBuildListener {
+
+	/**
+	 * Files have been updated, with the given IArchive / IArchiveFileSet context
+	 * @param topLevelArchive The top level Archive that was updated
+	 * @param fileset The fileset that matched the updated files
+	 * @param filePaths The paths to the files that were copied (filesystem/workspace paths)
+	 */
+	public void filesUpdated (IArchive topLevelArchive, IArchiveFileSet fileset, IPath[] filePaths);
+
+	/**
+	 * Files have been removed, with the given IArchive / IArchiveFileSet context
+	 * @param topLevelArchive The top level Archive that was updated
+	 * @param fileset The fileset that matched the removed files
+	 * @param filePaths The paths to the files that were removed (filesystem/workspace paths)
+	 */
+	public void filesRemoved (IArchive topLevelArchive, IArchiveFileSet fileset, IPath[] filePaths);
+}
@@ -24,6 +24,26 @@ import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.Directo
  */
 public interface IArchiveFileSet extends IArchiveNode {
 
+	/**
+	 * The property deciding how the fileset's files are compressed
+	 * in packed archives, {@link #COMPRESSION_STORED} or
+	 * {@link #COMPRESSION_DEFLATED}. When unset the default policy
+	 * of {@link org.jboss.ide.eclipse.archives.core.zip.CompressionPolicy} applies.
+	 */
+	public static final String COMPRESSION_PROPERTY = "compression"; //$NON-NLS-1$
+	public static final String COMPRESSION_STORED = "stored"; //$NON-NLS-1$
+	public static final String COMPRESSION_DEFLATED = "deflated"; //$NON-NLS-1$
+
+	/**
+	 * The property adding default excludes to the fileset's excludes:
+	 * "true" for {@link DirectoryScannerFactory#DEFAULT_EXCLUDES}, or a
+	 * comma separated list of patterns to use in their place. When unset
+	 * or "false" only the fileset's own excludes apply.
+	 *
+	 * @since 3.5
+	 */
+	public static final String DEFAULT_EXCLUDES_PROPERTY = "defaultExcludes"; //$NON-NLS-1$
+
 	/**
 	 * Force the scanner to check for matched files again
 	 */
@@ -11,7 +11,10 @@
 package org.jboss.ide.eclipse.archives.core.model.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.IPath;
@@ -25,6 +28,7 @@ import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
 import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbFileSet;
 import org.jboss.ide.eclipse.archives.core.util.PathUtils;
 import org.jboss.ide.eclipse.archives.core.xpl.AntNLS;
+import org.jboss.tools.archives.scanner.StreamingDirectoryScannerIterator;
 
 /**
  * An implementation for filesets
@@ -155,6 +159,91 @@ public class ArchiveFileSetImpl extends ArchiveNodeImpl implements
 		return scanner;
 	}
 
+	/**
+	 * Hand back the files {@link #findMatchingPaths()} returns as a scan
+	 * finds them, so that the caller can work on each while the scan goes on.
+	 * If the fileset needs no new scan, its files are handed back at once.
+	 * Once the last file has been handed back, the scan is kept as the
+	 * fileset's, as if findMatchingPaths() had run it. A caller which stops
+	 * early must close the stream.
+	 *
+	 * @throws IllegalStateException if the fileset's folder cannot be scanned
+	 */
+	public MatchStream streamMatchingPaths() throws IllegalStateException {
+		synchronized(this) {
+			if( scanner != null && !rescanRequired )
+				return new MatchStream(Arrays.asList(matchingPaths).iterator(), null);
+			scanner = null;
+			rescanRequired = false;
+		}
+		DirectoryScannerExtension s = DirectoryScannerFactory.createDirectoryScanner(this, false);
+		return new MatchStream(s.streamingIterator(), s);
+	}
+
+	/*
+	 * Keep a scan finished by a stream, unless another scan
+	 * was made or the fileset changed in the meantime
+	 */
+	private synchronized void streamFinished(DirectoryScannerExtension s) {
+		if( scanner == null && !rescanRequired ) {
+			scanner = s;
+			matchingPaths = s.getMatchedArray();
+			matchingMap = s.getMatchedMap();
+		}
+	}
+
+	/**
+	 * The matching files of a fileset, as a scan finds them
+	 */
+	public class MatchStream implements Iterator<FileWrapper> {
+		private Iterator<FileWrapper> matches;
+		private DirectoryScannerExtension streaming;
+		private FileWrapper next;
+
+		private MatchStream(Iterator<FileWrapper> matches, DirectoryScannerExtension streaming) {
+			this.matches = matches;
+			this.streaming = streaming;
+		}
+
+		public boolean hasNext() {
+			while( next == null ) {
+				if( !matches.hasNext()) {
+					if( streaming != null ) {
+						streamFinished(streaming);
+						streaming = null;
+					}
+					return false;
+				}
+				FileWrapper f = matches.next();
+				// included folders are handed back too, but do not match
+				if( f.isLeaf())
+					next = f;
+			}
+			return true;
+		}
+
+		public FileWrapper next() {
+			if( !hasNext())
+				throw new NoSuchElementException();
+			FileWrapper ret = next;
+			next = null;
+			return ret;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Stop the scan, if it is still running
+		 */
+		public void close() {
+			if( matches instanceof StreamingDirectoryScannerIterator )
+				((StreamingDirectoryScannerIterator<FileWrapper>)matches).close();
+			streaming = null;
+		}
+	}
+
 	/*
 	 * @see IArchiveNode#getNodeType()
 	 */
@@ -227,6 +316,16 @@ public class ArchiveFileSetImpl extends ArchiveNodeImpl implements
 		return getParent().getRootArchiveRelativePath();
 	}
 
+	/*
+	 * The default excludes change what the fileset matches
+	 * @see org.jboss.ide.eclipse.archives.core.model.internal.ArchiveNodeImpl#setProperty(java.lang.String, java.lang.String)
+	 */
+	public void setProperty(String property, String value) {
+		super.setProperty(property, value);
+		if( DEFAULT_EXCLUDES_PROPERTY.equals(property))
+			rescanRequired = true;
+	}
+
 	/*
 	 * @see IArchiveFileSet#resetScanner()
 	 */
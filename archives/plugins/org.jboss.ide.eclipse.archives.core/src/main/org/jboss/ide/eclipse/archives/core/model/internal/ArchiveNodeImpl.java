@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.IPath;
@@ -58,6 +59,17 @@ public abstract class ArchiveNodeImpl implements IArchiveNode {
 	private HashMap<String, NodeDelta> propertyChanges;
 	private HashMap<IArchiveNode, Integer> childChanges;
 
+	// incremented on every change to any node, so caches can tell they are stale
+	private static AtomicLong modificationCount = new AtomicLong();
+
+	/**
+	 * Get a counter which changes whenever any node in any model
+	 * is changed, saved or not.
+	 */
+	public static long getModificationCount() {
+		return modificationCount.get();
+	}
+
 
 	public ArchiveNodeImpl (XbPackageNodeWithProperties delegate) {
 		nodeDelegate = delegate;
@@ -340,6 +352,7 @@ public abstract class ArchiveNodeImpl implements IArchiveNode {
 
 		// short circuit if no change has REALLY occurred
 		if( beforeValue != null && beforeValue.equals(afterValue)) return;
+		modificationCount.incrementAndGet();
 
 		if( attributeChanges.containsKey(key)) {
 			Object original = attributeChanges.get(key).getBefore();
@@ -366,7 +379,7 @@ public abstract class ArchiveNodeImpl implements IArchiveNode {
 	protected synchronized void propertyChanged(String key, Object beforeValue, Object afterValue) {
 		// short circuit if no change has REALLY occurred
 		if( beforeValue != null && beforeValue.equals(afterValue)) return;
-
+		modificationCount.incrementAndGet();
 
 		if( propertyChanges.containsKey(key)) {
 			// element has already been added, removed, or changed since last save
@@ -400,6 +413,7 @@ public abstract class ArchiveNodeImpl implements IArchiveNode {
 	 * @param changeType
 	 */
 	protected synchronized void childChanges(IArchiveNode node, int changeType) {
+		modificationCount.incrementAndGet();
 		if( childChanges.containsKey(node)) {
 			int lastChange = childChanges.get(node).intValue();
 			if( lastChange == IArchiveNodeDelta.CHILD_ADDED && changeType == IArchiveNodeDelta.CHILD_REMOVED) {
@@ -20,18 +20,20 @@ import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.jboss.ide.eclipse.archives.core.model.IArchive;
-import org.jboss.ide.eclipse.archives.core.model.IArchiveModelRootNode;
 import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveImpl;
 import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbProperties.PropertiesExt;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 
 /**
@@ -227,187 +229,33 @@ public class XMLBinding {
 		}
 	}
 
+	/**
+	 * Read a packages descriptor. The Xb objects are built
+	 * while parsing, in a single pass over the stream.
+	 */
 	public static XbPackages unmarshal (final InputStream in,
 			final IProgressMonitor monitor) throws XbException {
-		XMLMemento root = XMLMemento.createReadRoot(in);
-		if( root == null ) {
-			throw new XbException(new Exception("Unable to parse xml string")); //$NON-NLS-1$
-		}
-		String versionString = root.getString("version"); //$NON-NLS-1$
-		System.out.println("unmarshalling: " + versionString); //$NON-NLS-1$
-		XbPackages packs = new XbPackages();
-		Double d = IArchiveModelRootNode.DESCRIPTOR_VERSION_1_0;
-		if( versionString != null ) {
+		XbPackagesHandler handler = new XbPackagesHandler();
+		try {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.newSAXParser().parse(new InputSource(in), handler);
+		} catch( SAXException se ) {
+			if( se.getException() instanceof XbException )
+				throw (XbException)se.getException();
+			throw new XbException("Unable to parse xml string", se); //$NON-NLS-1$
+		} catch( ParserConfigurationException pce ) {
+			throw new XbException(pce);
+		} catch( IOException ioe ) {
+			throw new XbException(ioe);
+		} finally {
 			try {
-				d = Double.parseDouble(versionString);
-			} catch(NumberFormatException nfe ) {
-				throw new XbException(nfe);
+				in.close();
+			} catch( IOException ioe ) {
+				// ignore
 			}
 		}
-		packs.setVersion(d);
-
-		IMemento[] packageChildren = root.getChildren("package"); //$NON-NLS-1$
-		unmarshallPackageList(packs, packageChildren);
-		IMemento[] propertiesChild = root.getChildren("properties"); //$NON-NLS-1$
-		if( propertiesChild != null && propertiesChild.length == 1)
-			unmarshallProperties(packs, propertiesChild[0]);
-		return packs;
-	}
-
-	private static void unmarshallPackageList(XbPackageNodeWithProperties packs, IMemento[] packageChildren) throws XbException {
-		for( int i = 0; i < packageChildren.length; i++ ) {
-			XbPackage pack = new XbPackage();
-			// name, type, toDir, exploded, inWorkspace, id
-			String name = packageChildren[i].getString("name"); //$NON-NLS-1$
-			String type = packageChildren[i].getString("type"); //$NON-NLS-1$
-			String toDir = packageChildren[i].getString("todir"); //$NON-NLS-1$
-			String id = packageChildren[i].getString("id"); //$NON-NLS-1$
-			String exploded = packageChildren[i].getString("exploded"); //$NON-NLS-1$
-			String inWorkspace = packageChildren[i].getString("inWorkspace"); //$NON-NLS-1$
-			String exploded2 = exploded == null ? "" : exploded; //$NON-NLS-1$
-			String inWorkspace2 = inWorkspace == null ? "" : inWorkspace; //$NON-NLS-1$
-			boolean explodedValid = ("true".equals(exploded2.toLowerCase()) || "false".equals(exploded2.toLowerCase())); //$NON-NLS-1$ //$NON-NLS-2$
-			boolean inWorkspaceValid = ("true".equals(inWorkspace2.toLowerCase()) || "false".equals(inWorkspace2.toLowerCase())); //$NON-NLS-1$ //$NON-NLS-2$
-			boolean bExploded = explodedValid ? Boolean.parseBoolean(exploded) : false;
-			boolean bInWorkspace = inWorkspaceValid ? Boolean.parseBoolean(inWorkspace) : true;
-			pack.setName(name);
-			pack.setPackageType(type);
-			pack.setToDir(toDir);
-			pack.setId(id);
-			pack.setExploded(bExploded);
-			pack.setInWorkspace(bInWorkspace);
-			
-			if( name == null )
-				throw new XbException(new Exception("Element 'package' missing required attribute 'name'")); //$NON-NLS-1$
-
-			// package
-			IMemento[] inner = packageChildren[i].getChildren("package"); //$NON-NLS-1$
-			if( inner != null && inner.length > 0)
-				unmarshallPackageList(pack, inner);
-
-			// fileset
-			IMemento[] fsets = packageChildren[i].getChildren("fileset"); //$NON-NLS-1$
-			if( fsets != null && fsets.length > 0)
-				unmarshallFilesets(pack, fsets);
-
-			// lib-fileset
-			IMemento[] libfsets = packageChildren[i].getChildren("lib-fileset"); //$NON-NLS-1$
-			if( libfsets != null && libfsets.length > 0)
-				unmarshallLibFilesets(pack, libfsets);
-
-			// folder
-			IMemento[] folders = packageChildren[i].getChildren("folder"); //$NON-NLS-1$
-			if( folders != null && folders.length > 0)
-				unmarshallFolders(pack, folders);
-
-			// properties
-			IMemento[] propertiesChild = packageChildren[i].getChildren("properties"); //$NON-NLS-1$
-			if( propertiesChild != null && propertiesChild.length == 1)
-				unmarshallProperties(pack, propertiesChild[0]);
-
-			packs.addChild(pack);
-		}
-	}
-	private static void unmarshallFolders(XbPackageNodeWithProperties node, IMemento[] folders) throws XbException {
-		for( int i = 0; i < folders.length; i++ ) {
-			XbFolder folder = new XbFolder();
-			// name, type, toDir, exploded, inWorkspace, id
-			String name = folders[i].getString("name"); //$NON-NLS-1$
-			folder.setName(name);
-			if( name == null )
-				throw new XbException(new Exception("Element 'folder' missing required attribute 'name'")); //$NON-NLS-1$
-
-			// package
-			IMemento[] inner = folders[i].getChildren("package"); //$NON-NLS-1$
-			if( inner != null && inner.length > 0)
-				unmarshallPackageList(folder, inner);
-
-			// fileset
-			IMemento[] fsets = folders[i].getChildren("fileset"); //$NON-NLS-1$
-			if( fsets != null && fsets.length > 0)
-				unmarshallFilesets(folder, fsets);
-
-			// lib-fileset
-			IMemento[] libfsets = folders[i].getChildren("lib-fileset"); //$NON-NLS-1$
-			if( libfsets != null && libfsets.length > 0)
-				unmarshallLibFilesets(folder, libfsets);
-
-			// folder
-			IMemento[] folders2 = folders[i].getChildren("folder"); //$NON-NLS-1$
-			if( folders2 != null && folders2.length > 0)
-				unmarshallFolders(folder, folders2);
-
-			// properties
-			IMemento[] propertiesChild = folders[i].getChildren("properties"); //$NON-NLS-1$
-			if( propertiesChild != null && propertiesChild.length == 1)
-				unmarshallProperties(folder, propertiesChild[0]);
-
-			node.addChild(folder);
-		}
-	}
-	private static void unmarshallFilesets(XbPackageNodeWithProperties node, IMemento[] fs) throws XbException {
-		for( int i = 0; i < fs.length; i++ ) {
-			XbFileSet fileset = new XbFileSet();
-			// name, type, toDir, exploded, inWorkspace, id
-			String dir = fs[i].getString("dir"); //$NON-NLS-1$
-			String inc = fs[i].getString("includes"); //$NON-NLS-1$
-			String exc = fs[i].getString("excludes"); //$NON-NLS-1$
-			String inWorkspace = fs[i].getString("inWorkspace"); //$NON-NLS-1$
-			String inWorkspace2 = inWorkspace == null ? "" : inWorkspace; //$NON-NLS-1$
-			String flatten = fs[i].getString("exploded"); //$NON-NLS-1$
-			String flatten2 = flatten == null ? "" : flatten; //$NON-NLS-1$
-			boolean explodedValid = ("true".equals(flatten2.toLowerCase()) || "false".equals(flatten2.toLowerCase())); //$NON-NLS-1$ //$NON-NLS-2$
-			boolean inWorkspaceValid = ("true".equals(inWorkspace2.toLowerCase()) || "false".equals(inWorkspace2.toLowerCase())); //$NON-NLS-1$ //$NON-NLS-2$
-			boolean bFlat = explodedValid ? Boolean.parseBoolean(flatten) : false;
-			boolean bInWorkspace = inWorkspaceValid ? Boolean.parseBoolean(inWorkspace) : true;
-			fileset.setDir(dir);
-			fileset.setIncludes(inc);
-			if( exc != null && !"".equals(exc)) //$NON-NLS-1$
-				fileset.setExcludes(exc);
-			fileset.setInWorkspace(bInWorkspace);
-			fileset.setFlatten(bFlat);
-
-			if( dir == null )
-				throw new XbException(new Exception("Element 'fileset' missing required attribute 'dir'")); //$NON-NLS-1$
-			if( inc == null )
-				throw new XbException(new Exception("Element 'fileset' missing required attribute 'includes'")); //$NON-NLS-1$
-			
-			node.addChild(fileset);
-		}
-	}
-	private static void unmarshallLibFilesets(XbPackageNodeWithProperties node, IMemento[] fs) {
-		for( int i = 0; i < fs.length; i++ ) {
-			XbLibFileSet fileset = new XbLibFileSet();
-			String id = fs[i].getString("id"); //$NON-NLS-1$
-			fileset.setId(id);
-			node.addChild(fileset);
-		}
-
-	}
-	private static void unmarshallProperties(XbPackageNodeWithProperties node, IMemento propNode) throws XbException {
-		XbProperties propsWrapper = new XbProperties();
-		node.setProperties(propsWrapper);
-		String[] names = ((XMLMemento)propNode).getChildNames();
-		Set<String> set = new TreeSet<String>();
-		set.addAll(Arrays.asList(names));
-		if( set.size() == 0 )
-			return;  // no error, no props set
-		if( set.size() > 1 || !set.iterator().next().equals("property")) //$NON-NLS-1$
-			throw new XbException(new Exception("Element 'property' contains unknown attribute " + set.iterator().next())); //$NON-NLS-1$
-		IMemento[] allProps = propNode.getChildren("property"); //$NON-NLS-1$
-		for( int i = 0; i < allProps.length; i++ ) {
-			XbProperty p = new XbProperty();
-			String name = allProps[i].getString("name"); //$NON-NLS-1$
-			String val = allProps[i].getString("value"); //$NON-NLS-1$
-			if( name == null )
-				throw new XbException(new Exception("Element 'property' missing required attribute 'name'")); //$NON-NLS-1$
-			if( val == null )
-				throw new XbException(new Exception("Element 'property' missing required attribute 'value'")); //$NON-NLS-1$
-			if( allProps[i].getNames().size() > 2 )
-				throw new XbException(new Exception("Element 'property' contains unknown attribute key")); //$NON-NLS-1$
-			p.setName(name);
-			p.setValue(val);
-			propsWrapper.addProperty(p);
-		}
+		if( handler.getPackages() == null )
+			throw new XbException(new Exception("Unable to parse xml string")); //$NON-NLS-1$
+		return handler.getPackages();
 	}
 }
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.model.internal.xb;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModelRootNode;
+import org.jboss.ide.eclipse.archives.core.model.internal.xb.XMLBinding.XbException;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads a packages descriptor into its Xb objects in a single pass
+ * over the SAX events, without building a DOM of the file first.
+ *
+ * The result is the one the memento based reader produced: the same
+ * elements are read, with the same defaults, and the same missing
+ * attributes are errors. Elements it did not read are skipped along
+ * with their content. The children of a node are added grouped by
+ * type, packages first, then filesets, lib-filesets and folders.
+ * Only a single properties element per node is read. Unlike the
+ * memento based reader, the properties of filesets are read too,
+ * as {@link XMLBinding#marshall(XbPackages, java.io.Writer, org.eclipse.core.runtime.IProgressMonitor)}
+ * writes them.
+ *
+ * Errors are thrown as a SAXException wrapping an {@link XbException}.
+ */
+class XbPackagesHandler extends DefaultHandler {
+	private static final String PACKAGE = "package"; //$NON-NLS-1$
+	private static final String FOLDER = "folder"; //$NON-NLS-1$
+	private static final String FILESET = "fileset"; //$NON-NLS-1$
+	private static final String LIB_FILESET = "lib-fileset"; //$NON-NLS-1$
+	private static final String PROPERTIES = "properties"; //$NON-NLS-1$
+	private static final String PROPERTY = "property"; //$NON-NLS-1$
+
+	/*
+	 * An open element which is read, and what was found inside it so far
+	 */
+	private static class Frame {
+		private String name;
+		private XbPackageNodeWithProperties node;
+		private ArrayList<XbPackageNode> packages;
+		private ArrayList<XbPackageNode> filesets;
+		private ArrayList<XbPackageNode> libFilesets;
+		private ArrayList<XbPackageNode> folders;
+		private ArrayList<Frame> properties;
+		/* for a properties element, the names of its children and its property elements */
+		private Set<String> childNames;
+		private ArrayList<Attributes> propertyAttributes;
+		private Frame parent;
+
+		private Frame(String name, XbPackageNodeWithProperties node, Frame parent) {
+			this.name = name;
+			this.node = node;
+			this.parent = parent;
+		}
+	}
+
+	private XbPackages packages;
+	private Frame current;
+	/* the depth within elements which are skipped */
+	private int skipping = 0;
+
+	public XbPackages getPackages() {
+		return packages;
+	}
+
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) throws SAXException {
+		if( skipping > 0 ) {
+			skipping++;
+			return;
+		}
+		if( current == null ) {
+			packages = new XbPackages();
+			packages.setVersion(parseVersion(attributes.getValue("version"))); //$NON-NLS-1$
+			current = new Frame(qName, packages, null);
+			return;
+		}
+		if( current.childNames != null ) {
+			// inside properties: only property elements are valid, checked at the end
+			current.childNames.add(qName);
+			if( PROPERTY.equals(qName))
+				current.propertyAttributes.add(new AttributesImpl(attributes));
+			skipping = 1;
+			return;
+		}
+
+		boolean root = current.parent == null;
+		boolean container = PACKAGE.equals(current.name) || FOLDER.equals(current.name);
+		if( PROPERTIES.equals(qName) && (root || container || isFileset(current.name))) {
+			Frame f = new Frame(qName, null, current);
+			f.childNames = new TreeSet<String>();
+			f.propertyAttributes = new ArrayList<Attributes>();
+			current.properties = add(current.properties, f);
+			current = f;
+		} else if( PACKAGE.equals(qName) && (root || container)) {
+			XbPackage pack = readPackage(attributes);
+			current.packages = add(current.packages, pack);
+			current = new Frame(qName, pack, current);
+		} else if( FOLDER.equals(qName) && container ) {
+			XbFolder folder = readFolder(attributes);
+			current.folders = add(current.folders, folder);
+			current = new Frame(qName, folder, current);
+		} else if( FILESET.equals(qName) && container ) {
+			XbFileSet fs = readFileset(attributes);
+			current.filesets = add(current.filesets, fs);
+			current = new Frame(qName, fs, current);
+		} else if( LIB_FILESET.equals(qName) && container ) {
+			XbLibFileSet fs = new XbLibFileSet();
+			fs.setId(attributes.getValue("id")); //$NON-NLS-1$
+			current.libFilesets = add(current.libFilesets, fs);
+			current = new Frame(qName, fs, current);
+		} else {
+			skipping = 1;
+		}
+	}
+
+	public void endElement(String uri, String localName, String qName)
+			throws SAXException {
+		if( skipping > 0 ) {
+			skipping--;
+			return;
+		}
+		Frame f = current;
+		current = f.parent;
+		if( f.node == null )
+			return; // a properties element, read with its parent
+		addAll(f.node, f.packages);
+		addAll(f.node, f.filesets);
+		addAll(f.node, f.libFilesets);
+		addAll(f.node, f.folders);
+		if( f.properties != null && f.properties.size() == 1 )
+			readProperties(f.node, f.properties.get(0));
+	}
+
+	private static boolean isFileset(String name) {
+		return FILESET.equals(name) || LIB_FILESET.equals(name);
+	}
+
+	private static <T> ArrayList<T> add(ArrayList<T> list, T o) {
+		if( list == null )
+			list = new ArrayList<T>(2);
+		list.add(o);
+		return list;
+	}
+
+	private static void addAll(XbPackageNode node, ArrayList<XbPackageNode> children) {
+		if( children != null )
+			for( int i = 0; i < children.size(); i++ )
+				node.addChild(children.get(i));
+	}
+
+	private static double parseVersion(String versionString) throws SAXException {
+		if( versionString == null )
+			return IArchiveModelRootNode.DESCRIPTOR_VERSION_1_0;
+		try {
+			return Double.parseDouble(versionString);
+		} catch(NumberFormatException nfe ) {
+			throw error(new XbException(nfe));
+		}
+	}
+
+	private static XbPackage readPackage(Attributes a) throws SAXException {
+		XbPackage pack = new XbPackage();
+		String name = a.getValue("name"); //$NON-NLS-1$
+		pack.setName(name);
+		pack.setPackageType(a.getValue("type")); //$NON-NLS-1$
+		pack.setToDir(a.getValue("todir")); //$NON-NLS-1$
+		pack.setId(a.getValue("id")); //$NON-NLS-1$
+		pack.setExploded(getBoolean(a.getValue("exploded"), false)); //$NON-NLS-1$
+		pack.setInWorkspace(getBoolean(a.getValue("inWorkspace"), true)); //$NON-NLS-1$
+		if( name == null )
+			throw missing("package", "name"); //$NON-NLS-1$ //$NON-NLS-2$
+		return pack;
+	}
+
+	private static XbFolder readFolder(Attributes a) throws SAXException {
+		XbFolder folder = new XbFolder();
+		String name = a.getValue("name"); //$NON-NLS-1$
+		folder.setName(name);
+		if( name == null )
+			throw missing("folder", "name"); //$NON-NLS-1$ //$NON-NLS-2$
+		return folder;
+	}
+
+	private static XbFileSet readFileset(Attributes a) throws SAXException {
+		XbFileSet fileset = new XbFileSet();
+		String dir = a.getValue("dir"); //$NON-NLS-1$
+		String inc = a.getValue("includes"); //$NON-NLS-1$
+		String exc = a.getValue("excludes"); //$NON-NLS-1$
+		fileset.setDir(dir);
+		fileset.setIncludes(inc);
+		if( exc != null && !"".equals(exc)) //$NON-NLS-1$
+			fileset.setExcludes(exc);
+		fileset.setInWorkspace(getBoolean(a.getValue("inWorkspace"), true)); //$NON-NLS-1$
+		fileset.setFlatten(getBoolean(a.getValue("exploded"), false)); //$NON-NLS-1$
+		if( dir == null )
+			throw missing("fileset", "dir"); //$NON-NLS-1$ //$NON-NLS-2$
+		if( inc == null )
+			throw missing("fileset", "includes"); //$NON-NLS-1$ //$NON-NLS-2$
+		return fileset;
+	}
+
+	private static void readProperties(XbPackageNodeWithProperties node, Frame props) throws SAXException {
+		XbProperties propsWrapper = new XbProperties();
+		node.setProperties(propsWrapper);
+		Set<String> set = props.childNames;
+		if( set.size() == 0 )
+			return;  // no error, no props set
+		if( set.size() > 1 || !set.iterator().next().equals(PROPERTY))
+			throw error(new XbException(new Exception("Element 'property' contains unknown attribute " + set.iterator().next()))); //$NON-NLS-1$
+		for( int i = 0; i < props.propertyAttributes.size(); i++ ) {
+			Attributes a = props.propertyAttributes.get(i);
+			String name = a.getValue("name"); //$NON-NLS-1$
+			String val = a.getValue("value"); //$NON-NLS-1$
+			if( name == null )
+				throw missing(PROPERTY, "name"); //$NON-NLS-1$
+			if( val == null )
+				throw missing(PROPERTY, "value"); //$NON-NLS-1$
+			if( a.getLength() > 2 )
+				throw error(new XbException(new Exception("Element 'property' contains unknown attribute key"))); //$NON-NLS-1$
+			XbProperty p = new XbProperty();
+			p.setName(name);
+			p.setValue(val);
+			propsWrapper.addProperty(p);
+		}
+	}
+
+	/*
+	 * true or false in any case, or the default for anything else
+	 */
+	private static boolean getBoolean(String value, boolean defaultValue) {
+		if( "true".equalsIgnoreCase(value)) //$NON-NLS-1$
+			return true;
+		if( "false".equalsIgnoreCase(value)) //$NON-NLS-1$
+			return false;
+		return defaultValue;
+	}
+
+	private static SAXException missing(String element, String attribute) {
+		return error(new XbException(new Exception("Element '" + element //$NON-NLS-1$
+				+ "' missing required attribute '" + attribute + "'"))); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static SAXException error(XbException e) {
+		return new SAXException(e);
+	}
+}
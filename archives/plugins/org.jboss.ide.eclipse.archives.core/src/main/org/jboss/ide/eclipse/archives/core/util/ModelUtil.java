@@ -37,6 +37,7 @@ import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveModelNode;
 import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveNodeImpl;
 import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbPackageNode;
 import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbPackages;
+import org.jboss.ide.eclipse.archives.core.util.internal.FilesetPathIndex;
 import org.jboss.ide.eclipse.archives.core.xpl.AntNLS;
 
 /**
@@ -59,18 +60,20 @@ public class ModelUtil {
 
 	public static IArchiveFileSet[] getMatchingFilesets(IArchiveNode node, final IPath path, final boolean inWorkspace) {
 		final ArrayList<IArchiveFileSet> rets = new ArrayList<IArchiveFileSet>();
+		FilesetPathIndex index = FilesetPathIndex.getInstance();
+		if( index.covers(node)) {
+			// only ask the filesets whose base directory contains the path
+			IArchiveFileSet[] candidates = index.getCandidates(node, path, inWorkspace);
+			for( int i = 0; i < candidates.length; i++ )
+				if( filesetMatchesPath(candidates[i], path, inWorkspace))
+					rets.add(candidates[i]);
+			return rets.toArray(new IArchiveFileSet[rets.size()]);
+		}
+
 		IArchiveNodeVisitor visitor = new IArchiveNodeVisitor() {
 			public boolean visit(IArchiveNode node) {
 				if( node.getNodeType() == IArchiveNode.TYPE_ARCHIVE_FILESET ) {
-					boolean matches = false;
-					try {
-						matches = ((IArchiveFileSet)node).matchesPath(path, inWorkspace);
-					} catch(IllegalStateException ise) {
-						// The fileset is broken somehow, so do some raw checks. 
-						IArchiveStandardFileSet std = node instanceof IArchiveStandardFileSet ? (IArchiveStandardFileSet)node : null;
-						matches =  std != null && new Path(std.getRawSourcePath()).equals(path) && std.isInWorkspace() == inWorkspace;
-					}
-					if( matches ) 
+					if( filesetMatchesPath((IArchiveFileSet)node, path, inWorkspace)) 
 						rets.add((IArchiveFileSet)node);
 				}
 				return true;
@@ -85,6 +88,16 @@ public class ModelUtil {
 		return rets.toArray(new IArchiveFileSet[rets.size()]);
 	}
 
+	private static boolean filesetMatchesPath(IArchiveFileSet fs, IPath path, boolean inWorkspace) {
+		try {
+			return fs.matchesPath(path, inWorkspace);
+		} catch(IllegalStateException ise) {
+			// The fileset is broken somehow, so do some raw checks. 
+			IArchiveStandardFileSet std = fs instanceof IArchiveStandardFileSet ? (IArchiveStandardFileSet)fs : null;
+			return std != null && new Path(std.getRawSourcePath()).equals(path) && std.isInWorkspace() == inWorkspace;
+		}
+	}
+
 	/**
 	 * Find all filesets that are a child to this node
 	 * @param node
@@ -135,6 +148,15 @@ public class ModelUtil {
 	public static boolean otherFilesetMatchesPathAndOutputLocation(IArchiveFileSet fileset, IPath absolute,
 			String fsRelative, String rootArchiveRelative, IArchiveNode root) {
 		IArchiveFileSet[] filesets = ModelUtil.getMatchingFilesets(root, absolute);
+		return otherFilesetMatchesPathAndOutputLocation(fileset, absolute, rootArchiveRelative, filesets);
+	}
+
+	/**
+	 * Do any of the given filesets, other than the first parameter,
+	 * put this path at the same location of the same archive?
+	 */
+	public static boolean otherFilesetMatchesPathAndOutputLocation(IArchiveFileSet fileset, IPath absolute,
+			String rootArchiveRelative, IArchiveFileSet[] filesets) {
 		if( filesets.length == 0 || (filesets.length == 1 && Arrays.asList(filesets).contains(fileset))) {
 			return false;
 		} else {
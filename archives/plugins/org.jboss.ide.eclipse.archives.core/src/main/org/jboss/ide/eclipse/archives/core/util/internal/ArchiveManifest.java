@@ -0,0 +1,549 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.util.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.ArchivesCore;
+import org.jboss.ide.eclipse.archives.core.ArchivesCoreMessages;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchive;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModelListener;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeDelta;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeVisitor;
+
+/**
+ * Remembers, for every entry copied into a top level archive,
+ * which source file it came from and that file's size and
+ * modification time when it was copied. This lets a build skip
+ * copying files whose entry already holds the same bytes.
+ *
+ * Entries are keyed by their path relative to the archive's
+ * output file, using '/' as the separator.
+ *
+ * Incremental full builds are off by default. When they are turned on
+ * through {@link #INCREMENTAL_FULL_BUILD_PROPERTY} or
+ * {@link #setIncrementalFullBuilds(boolean)}, the manifest is saved next
+ * to the archive's output file, as <code>.&lt;name&gt;.manifest</code>,
+ * so that it survives a restart. A full build then only applies the
+ * differences between the manifest and the filesystem to the existing
+ * output, as long as the archive's folders and nested archives are laid
+ * out as they were when the manifest was saved. Entries whose source
+ * kept its size and modification time are trusted, so an output changed
+ * by hand is only repaired by a build with incremental full builds off.
+ * Otherwise the manifest is only kept in memory, for incremental builds,
+ * and a full build always starts from scratch.
+ */
+public class ArchiveManifest {
+	/**
+	 * A system property which, set to true, turns incremental full builds on
+	 */
+	public static final String INCREMENTAL_FULL_BUILD_PROPERTY = "org.jboss.ide.eclipse.archives.core.incrementalFullBuild"; //$NON-NLS-1$
+
+	private static volatile boolean incrementalFullBuilds = Boolean.getBoolean(INCREMENTAL_FULL_BUILD_PROPERTY);
+
+	public static boolean isIncrementalFullBuilds() {
+		return incrementalFullBuilds;
+	}
+
+	/**
+	 * Set whether full builds may only apply what changed since
+	 * the previous build, and manifests are saved for them
+	 */
+	public static void setIncrementalFullBuilds(boolean incremental) {
+		incrementalFullBuilds = incremental;
+	}
+
+	public static class Entry {
+		public String source;
+		public long size;
+		public long mtime;
+		/* hex md5 of the contents, or null if not computed yet */
+		public String hash;
+		public String fileset;
+	}
+
+	private static final String HEADER = "#archives-manifest 1"; //$NON-NLS-1$
+	private static final String STRUCTURE = "structure="; //$NON-NLS-1$
+
+	private static HashMap<IPath, ArchiveManifest> manifests = new HashMap<IPath, ArchiveManifest>();
+
+	/* drops the manifests of projects which are unregistered */
+	private static IArchiveModel listening;
+	private static final IArchiveModelListener EVICTOR = new IArchiveModelListener() {
+		public void modelChanged(IArchiveNodeDelta delta) {
+			if( delta.getKind() == IArchiveNodeDelta.NODE_UNREGISTERED && delta.getPreNode() != null )
+				evict(delta.getPreNode());
+		}
+	};
+
+	/**
+	 * Get the manifest for a top level archive
+	 * @param archive a top level archive
+	 * @return the manifest, or null if the archive has no output location
+	 */
+	public static synchronized ArchiveManifest getManifest(IArchive archive) {
+		IPath p = archive == null ? null : archive.getArchiveFilePath();
+		if( p == null )
+			return null;
+		ArchiveManifest m = manifests.get(p);
+		if( m == null ) {
+			ensureListening();
+			m = new ArchiveManifest(p);
+			m.load();
+			manifests.put(p, m);
+		}
+		return m;
+	}
+
+	private static void ensureListening() {
+		IArchiveModel model = ArchivesModel.instance();
+		if( listening != model ) {
+			if( listening != null )
+				listening.removeModelListener(EVICTOR);
+			model.addModelListener(EVICTOR);
+			listening = model;
+		}
+	}
+
+	/**
+	 * Forget the manifest of a top level archive and delete its saved
+	 * copy, as when the archive is cleaned or removed
+	 */
+	public static void discard(IArchive archive) {
+		IPath p = archive == null ? null : archive.getArchiveFilePath();
+		if( p == null )
+			return;
+		ArchiveManifest m;
+		synchronized(ArchiveManifest.class) {
+			m = manifests.remove(p);
+		}
+		if( m == null )
+			m = new ArchiveManifest(p);
+		synchronized(m) {
+			m.clear();
+			m.dirty = false;
+			File f = m.getManifestFile();
+			if( f.exists())
+				f.delete();
+		}
+	}
+
+	/*
+	 * Save and forget the manifests of the archives of a model
+	 * which is no longer registered
+	 */
+	private static void evict(IArchiveNode root) {
+		IArchiveNode[] archives = root.getChildren(IArchiveNode.TYPE_ARCHIVE);
+		for( int i = 0; i < archives.length; i++ ) {
+			IPath p = ((IArchive)archives[i]).getArchiveFilePath();
+			ArchiveManifest m;
+			synchronized(ArchiveManifest.class) {
+				m = p == null ? null : manifests.remove(p);
+			}
+			if( m != null )
+				m.save();
+		}
+	}
+
+	/**
+	 * Save every manifest changed since it was last saved
+	 */
+	public static void saveAll() {
+		ArrayList<ArchiveManifest> all;
+		synchronized(ArchiveManifest.class) {
+			all = new ArrayList<ArchiveManifest>(manifests.values());
+		}
+		Iterator<ArchiveManifest> i = all.iterator();
+		while(i.hasNext())
+			i.next().save();
+	}
+
+	/**
+	 * Describe the layout of an archive's folders and nested archives.
+	 * Stale entries can only be removed from an existing output
+	 * if this has not changed since it was built.
+	 */
+	public static String getStructure(IArchive archive) {
+		final ArrayList<String> list = new ArrayList<String>();
+		final int root = archive.getRootArchiveRelativePath().segmentCount();
+		archive.accept(new IArchiveNodeVisitor() {
+			public boolean visit(IArchiveNode node) {
+				String type = null;
+				if( node.getNodeType() == IArchiveNode.TYPE_ARCHIVE )
+					type = ((IArchive)node).isExploded() ? "d" : "a"; //$NON-NLS-1$ //$NON-NLS-2$
+				else if( node.getNodeType() == IArchiveNode.TYPE_ARCHIVE_FOLDER )
+					type = "f"; //$NON-NLS-1$
+				if( type != null )
+					list.add(node.getRootArchiveRelativePath().removeFirstSegments(root).toString() + ":" + type); //$NON-NLS-1$
+				return true;
+			}
+		});
+		Collections.sort(list);
+		StringBuffer sb = new StringBuffer();
+		for( int i = 0; i < list.size(); i++ ) {
+			if( i > 0 )
+				sb.append(';');
+			sb.append(list.get(i));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * An identifier for the fileset an entry was copied by
+	 */
+	public static String getFilesetId(IArchiveFileSet fs) {
+		return fs.getRootArchiveRelativePath() + "|" + fs.toString(); //$NON-NLS-1$
+	}
+
+	private IPath archivePath;
+	private HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	private String structure;
+	/* entries copied or found unchanged since beginBuild, or null if not building */
+	private HashSet<String> seen;
+	private boolean dirty = false;
+
+	protected ArchiveManifest(IPath archivePath) {
+		this.archivePath = archivePath;
+	}
+
+	public IPath getArchivePath() {
+		return archivePath;
+	}
+
+	public File getManifestFile() {
+		return archivePath.removeLastSegments(1)
+			.append("." + archivePath.lastSegment() + ".manifest").toFile(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Whether the existing output can be brought up to date by only
+	 * applying the differences to it, rather than rebuilding it
+	 * @param structure the archive's current {@link #getStructure(IArchive)}
+	 */
+	public synchronized boolean canDiff(String structure) {
+		return incrementalFullBuilds
+			&& this.structure != null && this.structure.equals(structure)
+			&& !entries.isEmpty() && archivePath.toFile().exists();
+	}
+
+	/**
+	 * Start tracking which entries a full build produces
+	 * @param structure the archive's current {@link #getStructure(IArchive)}
+	 */
+	public synchronized void beginBuild(String structure) {
+		this.structure = structure;
+		this.seen = new HashSet<String>();
+		dirty = true;
+	}
+
+	/**
+	 * Stop tracking, and forget every entry the build did not produce
+	 * @return the entry paths which are no longer produced by the archive
+	 */
+	public synchronized String[] endBuild() {
+		ArrayList<String> stale = new ArrayList<String>();
+		if( seen != null ) {
+			Iterator<String> i = entries.keySet().iterator();
+			while(i.hasNext()) {
+				String e = i.next();
+				if( !seen.contains(e)) {
+					stale.add(e);
+					i.remove();
+				}
+			}
+			seen = null;
+		}
+		return stale.toArray(new String[stale.size()]);
+	}
+
+	/**
+	 * Get the entry path of a destination file in this archive
+	 * @return the entry path, or null if the file is not inside this archive
+	 */
+	public String getEntryPath(File dest) {
+		IPath p = new Path(dest.getAbsolutePath());
+		if( !archivePath.isPrefixOf(p) || p.segmentCount() == archivePath.segmentCount())
+			return null;
+		return p.removeFirstSegments(archivePath.segmentCount()).setDevice(null)
+			.makeRelative().toString();
+	}
+
+	public synchronized Entry get(String entryPath) {
+		return entryPath == null ? null : entries.get(entryPath);
+	}
+
+	public synchronized void put(String entryPath, Entry entry) {
+		if( entryPath != null ) {
+			entries.put(entryPath, entry);
+			markSeen(entryPath);
+		}
+	}
+
+	private void markSeen(String entryPath) {
+		dirty = true;
+		if( seen != null )
+			seen.add(entryPath);
+	}
+
+	/**
+	 * Record that the source was just copied to the given entry
+	 */
+	public synchronized void record(String entryPath, File source, String fileset) {
+		if( entryPath == null )
+			return;
+		Entry e = new Entry();
+		e.source = source.getAbsolutePath();
+		e.size = source.length();
+		e.mtime = source.lastModified();
+		e.fileset = fileset;
+		entries.put(entryPath, e);
+		markSeen(entryPath);
+	}
+
+	/**
+	 * Forget an entry, and if it is a folder, everything beneath it
+	 */
+	public synchronized void remove(String entryPath) {
+		if( entryPath == null )
+			return;
+		dirty = true;
+		entries.remove(entryPath);
+		String prefix = entryPath + "/"; //$NON-NLS-1$
+		Iterator<String> i = entries.keySet().iterator();
+		while(i.hasNext())
+			if( i.next().startsWith(prefix))
+				i.remove();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		structure = null;
+		dirty = true;
+	}
+
+	public synchronized HashMap<String, Entry> getEntries() {
+		return new HashMap<String, Entry>(entries);
+	}
+
+	/**
+	 * Whether the destination entry already holds the contents of the source.
+	 * Size and modification time are compared first. If only the modification
+	 * time differs, the contents are compared by hash.
+	 */
+	public boolean isUnchanged(String entryPath, File source, File dest) {
+		Entry e = get(entryPath);
+		if( e == null || !e.source.equals(source.getAbsolutePath()))
+			return false;
+		long size = source.length();
+		if( size != e.size || !dest.exists() || dest.length() != size )
+			return false;
+		long mtime = source.lastModified();
+		if( mtime == e.mtime ) {
+			synchronized(this) {
+				markSeen(entryPath);
+			}
+			return true;
+		}
+
+		try {
+			String sourceHash = hash(new FileInputStream(source));
+			String destHash = e.hash;
+			if( destHash == null )
+				destHash = hash(dest instanceof de.schlichtherle.io.File
+						? new de.schlichtherle.io.FileInputStream(dest) : new FileInputStream(dest));
+			if( sourceHash.equals(destHash)) {
+				synchronized(this) {
+					e.mtime = mtime;
+					e.hash = sourceHash;
+					markSeen(entryPath);
+				}
+				return true;
+			}
+		} catch( IOException ioe ) {
+			// just copy it
+		}
+		return false;
+	}
+
+	/**
+	 * Write the manifest next to the archive if it has changed.
+	 * An empty manifest is deleted instead, as is a manifest
+	 * left over while incremental full builds are off.
+	 */
+	public synchronized void save() {
+		if( !dirty )
+			return;
+		dirty = false;
+		File f = getManifestFile();
+		if( !incrementalFullBuilds || (entries.isEmpty() && structure == null)) {
+			if( f.exists())
+				f.delete();
+			return;
+		}
+		if( !f.getParentFile().exists())
+			return;
+		BufferedWriter w = null;
+		try {
+			w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), "UTF-8")); //$NON-NLS-1$
+			w.write(HEADER);
+			w.newLine();
+			w.write(STRUCTURE + escape(structure == null ? "" : structure)); //$NON-NLS-1$
+			w.newLine();
+			Iterator<String> i = entries.keySet().iterator();
+			while(i.hasNext()) {
+				String path = i.next();
+				Entry e = entries.get(path);
+				w.write(escape(path) + '\t' + escape(e.source) + '\t' + e.size + '\t' + e.mtime + '\t'
+						+ (e.hash == null ? "-" : e.hash) + '\t' + escape(e.fileset == null ? "" : e.fileset)); //$NON-NLS-1$ //$NON-NLS-2$
+				w.newLine();
+			}
+		} catch( IOException ioe ) {
+			ArchivesCore.getInstance().getLogger().log(IStatus.WARNING,
+					ArchivesCore.bind(ArchivesCoreMessages.ErrorSavingBuildManifest, f.toString()), ioe);
+			f.delete();
+		} finally {
+			if( w != null ) {
+				try {
+					w.close();
+				} catch( IOException ioe ) {
+				}
+			}
+		}
+	}
+
+	/*
+	 * Read the saved manifest, if there is one. A manifest which
+	 * cannot be read is ignored and the next build is a full one.
+	 */
+	private synchronized void load() {
+		File f = getManifestFile();
+		if( !incrementalFullBuilds || !f.isFile() || !archivePath.toFile().exists())
+			return;
+		BufferedReader r = null;
+		try {
+			r = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8")); //$NON-NLS-1$
+			String line = r.readLine();
+			if( !HEADER.equals(line))
+				return;
+			line = r.readLine();
+			if( line == null || !line.startsWith(STRUCTURE))
+				return;
+			String s = unescape(line.substring(STRUCTURE.length()));
+			HashMap<String, Entry> read = new HashMap<String, Entry>();
+			while( (line = r.readLine()) != null ) {
+				String[] parts = line.split("\t", -1); //$NON-NLS-1$
+				if( parts.length != 6 )
+					return;
+				Entry e = new Entry();
+				e.source = unescape(parts[1]);
+				e.size = Long.parseLong(parts[2]);
+				e.mtime = Long.parseLong(parts[3]);
+				e.hash = "-".equals(parts[4]) ? null : parts[4]; //$NON-NLS-1$
+				e.fileset = unescape(parts[5]);
+				read.put(unescape(parts[0]), e);
+			}
+			entries = read;
+			structure = s;
+		} catch( IOException ioe ) {
+			// a full build will replace it
+		} catch( NumberFormatException nfe ) {
+			// a full build will replace it
+		} finally {
+			if( r != null ) {
+				try {
+					r.close();
+				} catch( IOException ioe ) {
+				}
+			}
+		}
+	}
+
+	private static String escape(String s) {
+		StringBuffer sb = new StringBuffer();
+		for( int i = 0; i < s.length(); i++ ) {
+			char c = s.charAt(i);
+			switch(c) {
+			case '\\': sb.append("\\\\"); break; //$NON-NLS-1$
+			case '\t': sb.append("\\t"); break; //$NON-NLS-1$
+			case '\n': sb.append("\\n"); break; //$NON-NLS-1$
+			case '\r': sb.append("\\r"); break; //$NON-NLS-1$
+			default: sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String unescape(String s) {
+		StringBuffer sb = new StringBuffer();
+		for( int i = 0; i < s.length(); i++ ) {
+			char c = s.charAt(i);
+			if( c == '\\' && i + 1 < s.length()) {
+				char n = s.charAt(++i);
+				sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Hash a stream's contents. The stream is closed.
+	 * @return the md5 of the contents in hex
+	 */
+	public static String hash(InputStream is) throws IOException {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			byte[] buf = new byte[8192];
+			int r;
+			while( (r = is.read(buf)) != -1 )
+				md.update(buf, 0, r);
+			byte[] digest = md.digest();
+			StringBuffer sb = new StringBuffer();
+			for( int i = 0; i < digest.length; i++ ) {
+				String s = Integer.toHexString(digest[i] & 0xff);
+				if( s.length() == 1 )
+					sb.append('0');
+				sb.append(s);
+			}
+			return sb.toString();
+		} catch( NoSuchAlgorithmException nsae ) {
+			throw new IOException(nsae.getMessage());
+		} finally {
+			try {
+				is.close();
+			} catch( IOException ioe ) {
+			}
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.util.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.eclipse.core.runtime.IPath;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchive;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModelListener;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModelRootNode;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeDelta;
+import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveNodeImpl;
+import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
+
+/**
+ * A reverse dependency index from the output file of each top level
+ * archive to the top level archives with a fileset matching it,
+ * ie the archives which must be rebuilt when it has been rebuilt.
+ *
+ * Archives which (indirectly) consume their own output are found
+ * when the index is built, so callers can refuse to cascade through
+ * a cycle rather than recursing into it.
+ *
+ * Like {@link FilesetPathIndex}, the index is dropped whenever the
+ * model fires a delta or any node changes in memory.
+ */
+public class ArchiveReferenceIndex implements IArchiveModelListener {
+
+	private static ArchiveReferenceIndex instance;
+	public static synchronized ArchiveReferenceIndex getInstance() {
+		if( instance == null )
+			instance = new ArchiveReferenceIndex();
+		return instance;
+	}
+
+	/**
+	 * The archives to rebuild after an archive, in build order
+	 */
+	public static class Cascade {
+		public IArchive[] archives;
+		/* archives of the cascade which take part in a reference cycle */
+		public IArchive[] cyclic;
+		public Cascade(IArchive[] archives, IArchive[] cyclic) {
+			this.archives = archives;
+			this.cyclic = cyclic;
+		}
+	}
+
+	private IArchiveModel model;
+	private long modificationCount = -1;
+	private boolean valid = false;
+
+	/* keyed by archive, as several archives may share an output path */
+	private HashMap<IArchive, List<IArchive>> consumers;
+	private HashSet<IArchive> cyclic;
+
+	public void modelChanged(IArchiveNodeDelta delta) {
+		invalidate();
+	}
+
+	public synchronized void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * Get the top level archives, other than the given one, which
+	 * have a fileset matching the output of the given archive.
+	 */
+	public synchronized IArchive[] getReferences(IArchive archive) {
+		List<IArchive> l = getConsumers(archive);
+		return l.toArray(new IArchive[l.size()]);
+	}
+
+	/**
+	 * Whether the archive depends on its own output through other archives
+	 */
+	public synchronized boolean isCyclic(IArchive archive) {
+		if( isIndexed(archive))
+			return cyclic.contains(archive);
+		return false;
+	}
+
+	/**
+	 * Get every archive which must be rebuilt after the given one,
+	 * directly or indirectly, each exactly once and ordered so an
+	 * archive comes after all of the archives it consumes.
+	 * Archives caught in a cycle cannot be ordered and are appended last.
+	 */
+	public synchronized Cascade getCascade(IArchive archive) {
+		LinkedHashSet<IArchive> closure = new LinkedHashSet<IArchive>();
+		ArrayList<IArchive> toVisit = new ArrayList<IArchive>();
+		toVisit.add(archive);
+		while( !toVisit.isEmpty()) {
+			IArchive a = toVisit.remove(0);
+			Iterator<IArchive> i = getConsumers(a).iterator();
+			while(i.hasNext()) {
+				IArchive c = i.next();
+				if( c != archive && closure.add(c))
+					toVisit.add(c);
+			}
+		}
+
+		// Count, for each archive of the closure, what it consumes from the closure
+		HashMap<IArchive, Integer> waitingOn = new HashMap<IArchive, Integer>();
+		Iterator<IArchive> i = closure.iterator();
+		while(i.hasNext())
+			waitingOn.put(i.next(), new Integer(0));
+		i = closure.iterator();
+		while(i.hasNext()) {
+			Iterator<IArchive> j = getConsumers(i.next()).iterator();
+			while(j.hasNext()) {
+				IArchive c = j.next();
+				if( waitingOn.containsKey(c))
+					waitingOn.put(c, new Integer(waitingOn.get(c).intValue() + 1));
+			}
+		}
+
+		ArrayList<IArchive> ordered = new ArrayList<IArchive>();
+		ArrayList<IArchive> ready = new ArrayList<IArchive>();
+		i = closure.iterator();
+		while(i.hasNext()) {
+			IArchive a = i.next();
+			if( waitingOn.get(a).intValue() == 0 )
+				ready.add(a);
+		}
+		while( !ready.isEmpty()) {
+			IArchive a = ready.remove(0);
+			ordered.add(a);
+			Iterator<IArchive> j = getConsumers(a).iterator();
+			while(j.hasNext()) {
+				IArchive c = j.next();
+				if( waitingOn.containsKey(c) && !ordered.contains(c)) {
+					int left = waitingOn.get(c).intValue() - 1;
+					waitingOn.put(c, new Integer(left));
+					if( left == 0 )
+						ready.add(c);
+				}
+			}
+		}
+
+		ArrayList<IArchive> cycle = new ArrayList<IArchive>();
+		i = closure.iterator();
+		while(i.hasNext()) {
+			IArchive a = i.next();
+			if( !ordered.contains(a)) {
+				ordered.add(a);
+				cycle.add(a);
+			}
+		}
+		if( isCyclic(archive) && !cycle.contains(archive))
+			cycle.add(0, archive);
+		return new Cascade(ordered.toArray(new IArchive[ordered.size()]),
+				cycle.toArray(new IArchive[cycle.size()]));
+	}
+
+	private List<IArchive> getConsumers(IArchive archive) {
+		if( isIndexed(archive)) {
+			List<IArchive> l = consumers.get(archive);
+			if( l != null )
+				return l;
+		}
+		// not part of the registered model, so look it up directly
+		return findConsumers(archive);
+	}
+
+	private boolean isIndexed(IArchive archive) {
+		ensureValid();
+		IArchiveModelRootNode root = archive.getModelRootNode();
+		return root != null && root.getProjectPath() != null
+			&& model.getRoot(root.getProjectPath()) == root;
+	}
+
+	private static List<IArchive> findConsumers(IArchive archive) {
+		ArrayList<IArchive> list = new ArrayList<IArchive>();
+		IPath dest = archive.getArchiveFilePath();
+		if( dest == null )
+			return list;
+		IArchiveFileSet[] filesets = ModelUtil.getMatchingFilesets(null, dest);
+		for( int i = 0; i < filesets.length; i++ ) {
+			IArchive consumer = filesets[i].getRootArchive();
+			if( consumer != null && consumer != archive && !list.contains(consumer))
+				list.add(consumer);
+		}
+		return list;
+	}
+
+	private void ensureValid() {
+		IArchiveModel current = ArchivesModel.instance();
+		long count = ArchiveNodeImpl.getModificationCount();
+		if( valid && model == current && modificationCount == count )
+			return;
+
+		if( model != current ) {
+			if( model != null )
+				model.removeModelListener(this);
+			current.addModelListener(this);
+			model = current;
+		}
+		build();
+		modificationCount = count;
+		valid = true;
+	}
+
+	private void build() {
+		consumers = new HashMap<IArchive, List<IArchive>>();
+		ArrayList<IArchive> archives = new ArrayList<IArchive>();
+		IArchiveModelRootNode[] roots = model.getModelNodes();
+		for( int i = 0; i < roots.length; i++ ) {
+			IArchiveNode[] children = roots[i].getChildren(IArchiveNode.TYPE_ARCHIVE);
+			for( int j = 0; j < children.length; j++ ) {
+				IArchive a = (IArchive)children[j];
+				archives.add(a);
+				if( a.getArchiveFilePath() != null )
+					consumers.put(a, findConsumers(a));
+			}
+		}
+		cyclic = findCycles(archives);
+	}
+
+	/*
+	 * Tarjan's strongly connected components. Every archive in
+	 * a component of more than one archive is part of a cycle.
+	 */
+	private HashSet<IArchive> findCycles(List<IArchive> archives) {
+		HashSet<IArchive> result = new HashSet<IArchive>();
+		HashMap<IArchive, int[]> state = new HashMap<IArchive, int[]>(); // {index, lowlink}
+		ArrayList<IArchive> stack = new ArrayList<IArchive>();
+		HashSet<IArchive> onStack = new HashSet<IArchive>();
+		int[] counter = new int[] {0};
+		Iterator<IArchive> i = archives.iterator();
+		while(i.hasNext()) {
+			IArchive a = i.next();
+			if( !state.containsKey(a))
+				strongConnect(a, state, stack, onStack, counter, result);
+		}
+		return result;
+	}
+
+	private void strongConnect(IArchive a, HashMap<IArchive, int[]> state, ArrayList<IArchive> stack,
+			HashSet<IArchive> onStack, int[] counter, HashSet<IArchive> result) {
+		int[] s = new int[] {counter[0], counter[0]};
+		counter[0]++;
+		state.put(a, s);
+		stack.add(a);
+		onStack.add(a);
+
+		List<IArchive> l = consumers.get(a);
+		if( l != null ) {
+			Iterator<IArchive> i = l.iterator();
+			while(i.hasNext()) {
+				IArchive c = i.next();
+				int[] cs = state.get(c);
+				if( cs == null ) {
+					if( !consumers.containsKey(c))
+						continue; // not a registered top level archive
+					strongConnect(c, state, stack, onStack, counter, result);
+					s[1] = Math.min(s[1], state.get(c)[1]);
+				} else if( onStack.contains(c)) {
+					s[1] = Math.min(s[1], cs[0]);
+				}
+			}
+		}
+
+		if( s[1] == s[0] ) {
+			ArrayList<IArchive> component = new ArrayList<IArchive>();
+			IArchive popped;
+			do {
+				popped = stack.remove(stack.size()-1);
+				onStack.remove(popped);
+				component.add(popped);
+			} while( popped != a );
+			if( component.size() > 1 )
+				result.addAll(component);
+		}
+	}
+}
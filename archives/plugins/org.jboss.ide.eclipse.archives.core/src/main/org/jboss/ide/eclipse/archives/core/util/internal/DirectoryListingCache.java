@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.util.internal;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * The listings of the folders scanned by filesets, shared by every
+ * scanner so that filesets rooted in the same tree do not each list
+ * it again. A listing holds the names of a folder's children, their
+ * locations and whether each is a file.
+ *
+ * Folders listed through the workspace are keyed by their workspace
+ * path, and others by their filesystem path. A listing is only used
+ * while its folder's modification time is the one it was listed with,
+ * which changes whenever a child is added, removed or renamed. Folders
+ * modified too recently for their time stamp to be trusted are not
+ * cached. Listings of workspace folders are also dropped when resource
+ * deltas add or remove their members, see {@link #invalidateWorkspace(IPath, boolean)}.
+ */
+public class DirectoryListingCache {
+	/**
+	 * A system property which, when "false", turns the cache off
+	 */
+	public static final String ENABLED_PROPERTY = "org.jboss.ide.eclipse.archives.core.listingCache"; //$NON-NLS-1$
+
+	/* the most folders remembered by default, least recently used dropped first */
+	private static final int MAX_FOLDERS = 20000;
+	/* folders modified less than this many ms before being listed are not cached */
+	private static final long SETTLE_TIME = 2000;
+
+	private static final String WORKSPACE = "ws:"; //$NON-NLS-1$
+	private static final String FILESYSTEM = "fs:"; //$NON-NLS-1$
+
+	/**
+	 * The children of a folder
+	 */
+	public static class Listing {
+		public final String[] names;
+		/* the absolute location of each child */
+		public final String[] locations;
+		public final boolean[] leaves;
+		private final long modified;
+
+		public Listing(String[] names, String[] locations, boolean[] leaves, long modified) {
+			this.names = names;
+			this.locations = locations;
+			this.leaves = leaves;
+			this.modified = modified;
+		}
+	}
+
+	private static DirectoryListingCache instance;
+
+	public static synchronized DirectoryListingCache getDefault() {
+		if( instance == null )
+			instance = new DirectoryListingCache(
+					!"false".equals(System.getProperty(ENABLED_PROPERTY))); //$NON-NLS-1$
+		return instance;
+	}
+
+	private boolean enabled;
+	private LinkedHashMap<String, Listing> listings;
+
+	protected DirectoryListingCache(boolean enabled) {
+		this(enabled, MAX_FOLDERS);
+	}
+
+	/**
+	 * @param maxFolders the most folders remembered, least recently used dropped first
+	 */
+	protected DirectoryListingCache(boolean enabled, final int maxFolders) {
+		this.enabled = enabled;
+		this.listings = new LinkedHashMap<String, Listing>(256, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+				return size() > maxFolders;
+			}
+		};
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Get the listing of a folder listed through the workspace
+	 * @param path the folder's workspace path
+	 * @param folder the folder on disk
+	 * @return the listing, or null if there is none or it is out of date
+	 */
+	public Listing getWorkspace(IPath path, File folder) {
+		return get(WORKSPACE + path.toString(), folder);
+	}
+
+	/**
+	 * Get the listing of a folder listed on disk
+	 * @return the listing, or null if there is none or it is out of date
+	 */
+	public Listing getFilesystem(File folder) {
+		return get(FILESYSTEM + folder.getAbsolutePath(), folder);
+	}
+
+	public void putWorkspace(IPath path, Listing listing) {
+		put(WORKSPACE + path.toString(), listing);
+	}
+
+	public void putFilesystem(File folder, Listing listing) {
+		put(FILESYSTEM + folder.getAbsolutePath(), listing);
+	}
+
+	private synchronized Listing get(String key, File folder) {
+		if( !enabled )
+			return null;
+		Listing l = listings.get(key);
+		if( l != null && l.modified != folder.lastModified()) {
+			listings.remove(key);
+			return null;
+		}
+		return l;
+	}
+
+	/*
+	 * The listing's modification time must have been read before
+	 * listing the folder, so a change made while listing shows up
+	 * as a newer time on the next lookup
+	 */
+	private synchronized void put(String key, Listing listing) {
+		if( !enabled || listing.modified == 0
+				|| listing.modified > System.currentTimeMillis() - SETTLE_TIME )
+			return;
+		listings.put(key, listing);
+	}
+
+	/**
+	 * Drop the listing of a workspace folder
+	 * @param path the folder's workspace path
+	 * @param descendants whether to drop the listings of the folders beneath it too
+	 */
+	public synchronized void invalidateWorkspace(IPath path, boolean descendants) {
+		String key = WORKSPACE + path.toString();
+		listings.remove(key);
+		if( descendants ) {
+			String prefix = key.endsWith("/") ? key : key + "/"; //$NON-NLS-1$ //$NON-NLS-2$
+			Iterator<String> i = listings.keySet().iterator();
+			while(i.hasNext())
+				if( i.next().startsWith(prefix))
+					i.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		listings.clear();
+	}
+}
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.util.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.ArchivesCore;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModelListener;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModelRootNode;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeDelta;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeVisitor;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
+import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveNodeImpl;
+import org.jboss.ide.eclipse.archives.core.util.PathUtils;
+
+/**
+ * An index from the base directory of every fileset in the model
+ * to the fileset, so that finding the filesets which may match a
+ * path only requires looking up the path's parent directories
+ * instead of asking every fileset in the model.
+ *
+ * Workspace filesets are indexed by their workspace path and all
+ * others by their filesystem path, the same paths their scanner
+ * uses in {@link org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension#couldBeIncluded(String, boolean)}.
+ * The index only narrows down the candidates; callers must still
+ * check the candidates against the path.
+ *
+ * The index is dropped whenever the model fires a delta or any
+ * node has been changed in memory, and rebuilt on the next lookup.
+ */
+public class FilesetPathIndex implements IArchiveModelListener {
+
+	private static FilesetPathIndex instance;
+	public static synchronized FilesetPathIndex getInstance() {
+		if( instance == null )
+			instance = new FilesetPathIndex();
+		return instance;
+	}
+
+	private IArchiveModel model;
+	private long modificationCount = -1;
+	private boolean valid = false;
+
+	// position of each fileset in a model visit, to keep results in model order
+	private HashMap<IArchiveFileSet, Integer> order;
+	private HashMap<IPath, List<IArchiveFileSet>> workspaceDirs;
+	private HashMap<IPath, List<IArchiveFileSet>> globalDirs;
+	// raw source path, checked by callers when a fileset cannot be scanned
+	private HashMap<IPath, List<IArchiveFileSet>> rawWorkspaceDirs;
+	private HashMap<IPath, List<IArchiveFileSet>> rawGlobalDirs;
+	// filesets with no resolvable base directory, always candidates
+	private List<IArchiveFileSet> unindexed;
+
+	public void modelChanged(IArchiveNodeDelta delta) {
+		invalidate();
+	}
+
+	public synchronized void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * Whether the given node can be answered by the index.
+	 * Nodes which are not part of the registered model cannot.
+	 */
+	public boolean covers(IArchiveNode node) {
+		if( node == null )
+			return true;
+		IArchiveModelRootNode root = node.getModelRootNode();
+		return root != null && root.getProjectPath() != null
+			&& ArchivesModel.instance().getRoot(root.getProjectPath()) == root;
+	}
+
+	/**
+	 * Get the filesets beneath the given node whose base directory
+	 * contains the given path, in model order.
+	 *
+	 * @param node the node to limit the scope to, or null for the entire model
+	 * @param path a workspace or global path
+	 * @param inWorkspace whether the path is a workspace path
+	 */
+	public synchronized IArchiveFileSet[] getCandidates(IArchiveNode node, IPath path, boolean inWorkspace) {
+		ensureValid();
+
+		IPath[] workspacePaths, globalPaths;
+		if( inWorkspace ) {
+			workspacePaths = new IPath[] { path };
+			globalPaths = new IPath[] { ArchivesCore.getInstance().getVFS().workspacePathToAbsolutePath(path) };
+		} else {
+			workspacePaths = ArchivesCore.getInstance().getVFS().absolutePathToWorkspacePath(path);
+			globalPaths = new IPath[] { path };
+		}
+
+		LinkedHashSet<IArchiveFileSet> found = new LinkedHashSet<IArchiveFileSet>();
+		addPrefixMatches(workspaceDirs, workspacePaths, found);
+		addPrefixMatches(globalDirs, globalPaths, found);
+		List<IArchiveFileSet> raw = (inWorkspace ? rawWorkspaceDirs : rawGlobalDirs).get(path);
+		if( raw != null )
+			found.addAll(raw);
+		found.addAll(unindexed);
+
+		ArrayList<IArchiveFileSet> result = new ArrayList<IArchiveFileSet>();
+		for( IArchiveFileSet fs : found )
+			if( node == null || isDescendent(node, fs))
+				result.add(fs);
+		Collections.sort(result, new Comparator<IArchiveFileSet>() {
+			public int compare(IArchiveFileSet o1, IArchiveFileSet o2) {
+				return order.get(o1).intValue() - order.get(o2).intValue();
+			}
+		});
+		return result.toArray(new IArchiveFileSet[result.size()]);
+	}
+
+	private void addPrefixMatches(HashMap<IPath, List<IArchiveFileSet>> map,
+			IPath[] paths, LinkedHashSet<IArchiveFileSet> found) {
+		if( paths == null || map.isEmpty() )
+			return;
+		for( int i = 0; i < paths.length; i++ ) {
+			if( paths[i] == null )
+				continue;
+			IPath p = paths[i];
+			while( true ) {
+				List<IArchiveFileSet> l = map.get(p);
+				if( l != null )
+					found.addAll(l);
+				if( p.segmentCount() == 0 )
+					break;
+				p = p.removeLastSegments(1);
+			}
+		}
+	}
+
+	private static boolean isDescendent(IArchiveNode node, IArchiveNode child) {
+		IArchiveNode n = child;
+		while( n != null ) {
+			if( n == node )
+				return true;
+			n = n.getParent();
+		}
+		return false;
+	}
+
+	private void ensureValid() {
+		IArchiveModel current = ArchivesModel.instance();
+		long count = ArchiveNodeImpl.getModificationCount();
+		if( valid && model == current && modificationCount == count )
+			return;
+
+		if( model != current ) {
+			if( model != null )
+				model.removeModelListener(this);
+			current.addModelListener(this);
+			model = current;
+		}
+		build();
+		modificationCount = count;
+		valid = true;
+	}
+
+	private void build() {
+		order = new HashMap<IArchiveFileSet, Integer>();
+		workspaceDirs = new HashMap<IPath, List<IArchiveFileSet>>();
+		globalDirs = new HashMap<IPath, List<IArchiveFileSet>>();
+		rawWorkspaceDirs = new HashMap<IPath, List<IArchiveFileSet>>();
+		rawGlobalDirs = new HashMap<IPath, List<IArchiveFileSet>>();
+		unindexed = new ArrayList<IArchiveFileSet>();
+		model.accept(new IArchiveNodeVisitor() {
+			public boolean visit(IArchiveNode node) {
+				if( node.getNodeType() == IArchiveNode.TYPE_ARCHIVE_FILESET
+						&& !order.containsKey(node)) {
+					IArchiveFileSet fs = (IArchiveFileSet)node;
+					order.put(fs, new Integer(order.size()));
+					index(fs);
+				}
+				return true;
+			}
+		});
+	}
+
+	private void index(IArchiveFileSet fs) {
+		if( !(fs instanceof IArchiveStandardFileSet)) {
+			unindexed.add(fs);
+			return;
+		}
+		IArchiveStandardFileSet std = (IArchiveStandardFileSet)fs;
+		String location = null;
+		try {
+			location = PathUtils.getAbsoluteLocation(fs);
+		} catch( RuntimeException re ) {
+			// unresolvable, treated below
+		}
+		if( location == null ) {
+			unindexed.add(fs);
+			return;
+		}
+		add(std.isInWorkspace() ? workspaceDirs : globalDirs, new Path(location), fs);
+		if( std.getRawSourcePath() != null )
+			add(std.isInWorkspace() ? rawWorkspaceDirs : rawGlobalDirs, new Path(std.getRawSourcePath()), fs);
+	}
+
+	private static void add(HashMap<IPath, List<IArchiveFileSet>> map, IPath key, IArchiveFileSet fs) {
+		List<IArchiveFileSet> l = map.get(key);
+		if( l == null ) {
+			l = new ArrayList<IArchiveFileSet>();
+			map.put(key, l);
+		}
+		l.add(fs);
+	}
+}
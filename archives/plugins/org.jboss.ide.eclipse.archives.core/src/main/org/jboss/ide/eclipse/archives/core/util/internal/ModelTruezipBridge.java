@@ -12,6 +12,7 @@ package org.jboss.ide.eclipse.archives.core.util.internal;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -29,8 +30,10 @@ import org.jboss.ide.eclipse.archives.core.model.IArchiveFolder;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeVisitor;
 import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension.FileWrapper;
+import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveFileSetImpl;
 import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
 import org.jboss.ide.eclipse.archives.core.util.PathUtils;
+import org.jboss.ide.eclipse.archives.core.zip.CompressionPolicy;
 
 import de.schlichtherle.io.ArchiveDetector;
 import de.schlichtherle.io.File;
@@ -59,13 +62,77 @@ public class ModelTruezipBridge {
 		}
 	}
 	public static FileWrapperStatusPair fullFilesetBuild(final IArchiveFileSet fileset, IProgressMonitor monitor, boolean sync) {
+		return fullFilesetBuild(fileset, monitor, sync, false);
+	}
+
+	/* the number of files copied at a time while a fileset is still being scanned */
+	private static final int STREAM_BATCH = 64;
+
+	public static FileWrapperStatusPair fullFilesetBuild(final IArchiveFileSet fileset, IProgressMonitor monitor, boolean sync, boolean skipUnchanged) {
+		if( canStream(fileset))
+			return streamFilesetBuild((ArchiveFileSetImpl)fileset, monitor, sync, skipUnchanged);
 		FileWrapper[] files = fileset.findMatchingPaths();
-		IStatus[] s = copyFiles(fileset, files, monitor, false, false);
+		OutputContributionMap contributions = OutputContributionMap.getMap(fileset.getRootArchive());
+		if( contributions != null )
+			contributions.beginFileset(fileset);
+		IStatus[] s = copyFiles(fileset, files, monitor, false, false, skipUnchanged);
 		if( sync )
 			TrueZipUtil.sync();
 		return new FileWrapperStatusPair( files, s );
 	}
 
+	/*
+	 * Files can be copied while the scan goes on unless the
+	 * copies land in the folder being scanned
+	 */
+	private static boolean canStream(IArchiveFileSet fileset) {
+		if( !(fileset instanceof ArchiveFileSetImpl) || fileset.getRootArchive() == null )
+			return false;
+		IPath source = PathUtils.getGlobalLocation(fileset);
+		IPath dest = fileset.getRootArchive().getArchiveFilePath();
+		return source != null && dest != null && !source.isPrefixOf(dest);
+	}
+
+	/*
+	 * Copy the fileset's files a batch at a time as the scan finds them
+	 */
+	private static FileWrapperStatusPair streamFilesetBuild(ArchiveFileSetImpl fileset, IProgressMonitor monitor,
+			boolean sync, boolean skipUnchanged) {
+		ArchiveFileSetImpl.MatchStream stream = fileset.streamMatchingPaths();
+		OutputContributionMap contributions = OutputContributionMap.getMap(fileset.getRootArchive());
+		if( contributions != null )
+			contributions.beginFileset(fileset);
+		monitor.beginTask(ArchivesCoreMessages.BuildingFilesets, IProgressMonitor.UNKNOWN);
+		ArrayList<FileWrapper> files = new ArrayList<FileWrapper>();
+		ArrayList<IStatus> errors = new ArrayList<IStatus>();
+		int copied = 0;
+		try {
+			while( stream.hasNext()) {
+				files.add(stream.next());
+				if( files.size() - copied == STREAM_BATCH ) {
+					copyBatch(fileset, files, copied, monitor, skipUnchanged, errors);
+					copied = files.size();
+				}
+			}
+			copyBatch(fileset, files, copied, monitor, skipUnchanged, errors);
+		} finally {
+			stream.close();
+		}
+		if( sync )
+			TrueZipUtil.sync();
+		monitor.done();
+		return new FileWrapperStatusPair( files.toArray(new FileWrapper[files.size()]),
+				errors.toArray(new IStatus[errors.size()]));
+	}
+
+	private static void copyBatch(IArchiveFileSet fileset, ArrayList<FileWrapper> files, int from,
+			IProgressMonitor monitor, boolean skipUnchanged, ArrayList<IStatus> errors) {
+		if( from == files.size())
+			return;
+		FileWrapper[] batch = files.subList(from, files.size()).toArray(new FileWrapper[files.size() - from]);
+		errors.addAll(Arrays.asList(copyFiles(fileset, batch, new SubProgressMonitor(monitor, 0), false, false, skipUnchanged)));
+	}
+
 	public static class FullBuildRequiredException extends RuntimeException {
 		public FullBuildRequiredException(String s, Exception cause) {
 			super(s,cause);
@@ -93,15 +160,45 @@ public class ModelTruezipBridge {
 		IProgressMonitor filesMonitor = new SubProgressMonitor(monitor, 2000);
 		filesMonitor.beginTask( ArchivesCore.bind(
 				ArchivesCoreMessages.RemovingCountFiles, new Integer(files.length).toString()), files.length * 100);
+
+		// Which other filesets share an entry is looked up in the contributions
+		// recorded while building. Only filesets missing from the record are
+		// asked whether they match each file.
+		OutputContributionMap contributions = OutputContributionMap.getMap(fileset.getRootArchive());
+		IArchiveFileSet[] unrecorded = null;
+		if( contributions != null && contributions.isRecorded(fileset))
+			unrecorded = contributions.getUnrecorded(fileset);
 		for( int i = 0; i < files.length; i++ ) {
-			if( !ModelUtil.otherFilesetMatchesPathAndOutputLocation(fileset, files[i])) {
-				// remove
-				errors.addAll(Arrays.asList(deleteFiles(fileset, new FileWrapper[] {files[i]}, new NullProgressMonitor(), false)));
+			boolean keep = false;
+			OutputContributionMap.Contribution replacement = null;
+			if( unrecorded == null ) {
+				keep = ModelUtil.otherFilesetMatchesPathAndOutputLocation(fileset, files[i]);
 			} else {
+				OutputContributionMap.Contribution other = contributions.getOther(fileset,
+						OutputContributionMap.getEntry(fileset, files[i]));
+				if( other == null )
+					keep = unrecorded.length > 0 && ModelUtil.otherFilesetMatchesPathAndOutputLocation(
+							fileset, new Path(files[i].getAbsolutePath()),
+							files[i].getRootArchiveRelative().toString(), unrecorded);
+				else if( other.source.getAbsolutePath().equals(files[i].getAbsolutePath()))
+					keep = true;
+				else
+					replacement = other;
+			}
+			if( keep ) {
 				list.remove(files[i]);
+			} else if( replacement != null ) {
+				// another fileset puts a different file there, which takes its place again
+				errors.addAll(Arrays.asList(copyFiles(replacement.fileset, new FileWrapper[] { replacement.source },
+						new NullProgressMonitor(), false, false)));
+			} else {
+				// remove
+				errors.addAll(Arrays.asList(deleteFiles(fileset, new FileWrapper[] {files[i]}, new NullProgressMonitor(), false)));
 			}
 			filesMonitor.worked(100);
 		}
+		if( contributions != null )
+			contributions.removeFileset(fileset);
 		filesMonitor.done();
 
 		// kinda ugly here.   delete all empty folders beneath
@@ -142,19 +239,60 @@ public class ModelTruezipBridge {
 	}
 
 	public static IStatus[] copyFiles(IArchiveFileSet fileset, final FileWrapper[] files, IProgressMonitor monitor, boolean updateTimestamps, boolean sync) {
+		return copyFiles(fileset, files, monitor, updateTimestamps, sync, false);
+	}
+
+	/**
+	 * Copy the files into the fileset's destination.
+	 *
+	 * @param skipUnchanged if true, files whose entry in the archive's
+	 * {@link ArchiveManifest} shows they were already copied with the same
+	 * size and modification time, or failing that the same contents, are not copied again
+	 */
+	public static IStatus[] copyFiles(IArchiveFileSet fileset, final FileWrapper[] files, IProgressMonitor monitor,
+			boolean updateTimestamps, boolean sync, boolean skipUnchanged) {
 		monitor.beginTask(ArchivesCore.bind(ArchivesCoreMessages.CopyingCountFiles,
 				new Integer(files.length).toString()), files.length * 100);
 		boolean b = true;
 		ArrayList<IStatus> list = new ArrayList<IStatus>();
 		final File[] destFiles = getFiles(files, fileset);
-		for( int i = 0; i < files.length; i++ ) {
-			b = TrueZipUtil.copyFile(files[i].getAbsolutePath(), destFiles[i], updateTimestamps);
-			if( b == false ) {
-				list.add(new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
-						ArchivesCore.bind(ArchivesCoreMessages.FileCopyFailed,
-								files[i].getAbsolutePath(), destFiles[i].toString())));
+		ArchiveManifest manifest = ArchiveManifest.getManifest(fileset.getRootArchive());
+		OutputContributionMap contributions = OutputContributionMap.getMap(fileset.getRootArchive());
+		String filesetId = ArchiveManifest.getFilesetId(fileset);
+		// tells truezip's driver how to compress the fileset's entries
+		CompressionPolicy previous = CompressionPolicy.setCurrent(CompressionPolicy.getPolicy(fileset));
+		try {
+			for( int i = 0; i < files.length; i++ ) {
+				String entry = manifest == null ? null : manifest.getEntryPath(destFiles[i]);
+				String output = contributions == null ? null : OutputContributionMap.getEntry(fileset, files[i]);
+				if( skipUnchanged && entry != null && manifest.isUnchanged(entry, files[i], destFiles[i])) {
+					if( contributions != null )
+						contributions.record(fileset, output, files[i]);
+					monitor.worked(100);
+					continue;
+				}
+				b = TrueZipUtil.copyFile(files[i].getAbsolutePath(), destFiles[i], updateTimestamps);
+				if( manifest != null ) {
+					if( b )
+						manifest.record(entry, files[i], filesetId);
+					else
+						manifest.remove(entry);
+				}
+				if( contributions != null ) {
+					if( b )
+						contributions.record(fileset, output, files[i]);
+					else
+						contributions.remove(fileset, output);
+				}
+				if( b == false ) {
+					list.add(new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
+							ArchivesCore.bind(ArchivesCoreMessages.FileCopyFailed,
+									files[i].getAbsolutePath(), destFiles[i].toString())));
+				}
+				monitor.worked(100);
 			}
-			monitor.worked(100);
+		} finally {
+			CompressionPolicy.setCurrent(previous);
 		}
 		if( sync )
 			TrueZipUtil.sync();
@@ -170,7 +308,13 @@ public class ModelTruezipBridge {
 				new Integer(files.length).toString()), files.length * 100);
 		final File[] destFiles = getFiles(files, fileset);
 		ArrayList<IStatus> list = new ArrayList<IStatus>();
+		ArchiveManifest manifest = ArchiveManifest.getManifest(fileset.getRootArchive());
+		OutputContributionMap contributions = OutputContributionMap.getMap(fileset.getRootArchive());
 		for( int i = 0; i < files.length; i++ ) {
+			if( manifest != null )
+				manifest.remove(manifest.getEntryPath(destFiles[i]));
+			if( contributions != null )
+				contributions.remove(fileset, OutputContributionMap.getEntry(fileset, files[i]));
 			if( !TrueZipUtil.deleteAll(destFiles[i]) ) {
 				IStatus e = new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
 						ArchivesCore.bind(ArchivesCoreMessages.FileDeleteFailed, destFiles[i].toString()));
@@ -187,11 +331,86 @@ public class ModelTruezipBridge {
 
 	public static boolean deleteArchive(IArchive archive) {
 		final File file = getFile(archive);
-		boolean b = file.deleteAll();
+		OutputContributionMap contributions = OutputContributionMap.getMap(archive);
+		if( archive.isTopLevel()) {
+			ArchiveManifest.discard(archive);
+			if( contributions != null )
+				contributions.clear();
+		} else if( file != null ) {
+			ArchiveManifest manifest = ArchiveManifest.getManifest(archive.getRootArchive());
+			if( manifest != null )
+				manifest.remove(manifest.getEntryPath(file));
+			if( contributions != null )
+				contributions.removeEntry(archive.getRootArchiveRelativePath().removeFirstSegments(
+						archive.getRootArchive().getRootArchiveRelativePath().segmentCount()).makeRelative().toString());
+		}
+		boolean b = TrueZipUtil.deleteAll(file);
 		TrueZipUtil.sync();
 		return b;
 	}
 
+	/**
+	 * Delete entries of a top level archive which its filesets no longer
+	 * produce, then remove any folders left empty and recreate the
+	 * archive's own folders and nested archives.
+	 *
+	 * @param archive a top level archive
+	 * @param entries entry paths relative to the archive's output file,
+	 * as kept by the {@link ArchiveManifest}
+	 */
+	public static IStatus[] deleteEntries(IArchive archive, String[] entries) {
+		if( entries.length == 0 )
+			return new IStatus[0];
+
+		// the deepest folder or nested archive holding an entry decides how to open its path
+		final HashMap<String, IArchiveNode> containers = new HashMap<String, IArchiveNode>();
+		final int root = archive.getRootArchiveRelativePath().segmentCount();
+		archive.accept(new IArchiveNodeVisitor() {
+			public boolean visit(IArchiveNode node) {
+				if( node.getNodeType() == IArchiveNode.TYPE_ARCHIVE
+						|| node.getNodeType() == IArchiveNode.TYPE_ARCHIVE_FOLDER )
+					containers.put(node.getRootArchiveRelativePath().removeFirstSegments(root).toString(), node);
+				return true;
+			}
+		});
+
+		final ArrayList<IStatus> errors = new ArrayList<IStatus>();
+		OutputContributionMap contributions = OutputContributionMap.getMap(archive);
+		for( int i = 0; i < entries.length; i++ ) {
+			if( contributions != null )
+				contributions.removeEntry(entries[i]);
+			IPath entry = new Path(entries[i]);
+			IPath container = entry.removeLastSegments(1);
+			while( !containers.containsKey(container.toString()) && container.segmentCount() > 0 )
+				container = container.removeLastSegments(1);
+			File parent = getFile(containers.get(container.toString()));
+			if( parent == null )
+				continue;
+			File f = new File(parent, entry.removeFirstSegments(container.segmentCount()).toString(), ArchiveDetector.NULL);
+			if( f.exists() && !TrueZipUtil.deleteAll(f)) {
+				errors.add(new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
+						ArchivesCore.bind(ArchivesCoreMessages.FileDeleteFailed, f.toString())));
+			}
+		}
+
+		File file = getFile(archive);
+		if( !cleanFolder(file, false) ) {
+			errors.add(new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
+					ArchivesCore.bind(ArchivesCoreMessages.ErrorEmptyingFolder, file.toString())));
+		}
+		archive.accept(new IArchiveNodeVisitor() {
+			public boolean visit(IArchiveNode node) {
+				if( (node.getNodeType() == IArchiveNode.TYPE_ARCHIVE
+						|| node.getNodeType() == IArchiveNode.TYPE_ARCHIVE_FOLDER) && !createFile(node, false)) {
+					errors.add(new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
+							ArchivesCore.bind(ArchivesCoreMessages.ErrorCreatingFile, getFile(node).toString())));
+				}
+				return true;
+			}
+		});
+		return errors.toArray(new IStatus[errors.size()]);
+	}
+
 	public static boolean cleanFolder(IArchiveFolder folder) {
 		return cleanFolder(getFile(folder), true);
 	}
@@ -215,6 +434,7 @@ public class ModelTruezipBridge {
 		File f = getFile(node);
 		if( f == null ) return false;
 		if( f.exists() ) return true;
+		TrueZipUtil.written(f);
 		boolean b = f.mkdirs();
 		if( sync )
 			TrueZipUtil.sync();
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.util.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchive;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModelListener;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModelRootNode;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeDelta;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
+import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension.FileWrapper;
+import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
+
+/**
+ * Records, for each entry of a top level archive's output, which
+ * filesets put a file there and which file each of them put there.
+ * Contributions are recorded as filesets are built, so removing a
+ * fileset only has to look up its own entries instead of asking every
+ * other fileset of the model whether it matches each file.
+ *
+ * Entries are paths relative to the top level archive, as in its
+ * {@link ArchiveManifest}, and filesets are identified by
+ * {@link ArchiveManifest#getFilesetId(IArchiveFileSet)}, so the
+ * pre-change copy of a fileset is found under the same id as
+ * the fileset it was copied from.
+ *
+ * The map only lives in memory, and is dropped when the project
+ * holding its archive is unregistered. Filesets which were not recorded
+ * since the workbench started, or which cannot be told apart by their id,
+ * are reported by {@link #getUnrecorded(IArchiveFileSet)} so that callers
+ * can fall back to checking them directly.
+ */
+public class OutputContributionMap {
+
+	/**
+	 * A file put at an entry by a fileset
+	 */
+	public static class Contribution {
+		public IArchiveFileSet fileset;
+		public FileWrapper source;
+		private Contribution(IArchiveFileSet fileset, FileWrapper source) {
+			this.fileset = fileset;
+			this.source = source;
+		}
+	}
+
+	private static HashMap<IPath, OutputContributionMap> maps = new HashMap<IPath, OutputContributionMap>();
+
+	/* drops the maps of projects which are unregistered */
+	private static IArchiveModel listening;
+	private static final IArchiveModelListener EVICTOR = new IArchiveModelListener() {
+		public void modelChanged(IArchiveNodeDelta delta) {
+			if( delta.getKind() == IArchiveNodeDelta.NODE_UNREGISTERED && delta.getPreNode() != null )
+				evict(delta.getPreNode());
+		}
+	};
+
+	/**
+	 * Get the map for the output of a top level archive
+	 * @param archive the archive, or any archive nested in it
+	 * @return the map, or null if the archive has no output location
+	 */
+	public static synchronized OutputContributionMap getMap(IArchive archive) {
+		IArchive root = archive == null ? null : archive.getRootArchive();
+		IPath path = root == null ? null : root.getArchiveFilePath();
+		if( path == null )
+			return null;
+		OutputContributionMap map = maps.get(path);
+		if( map == null ) {
+			ensureListening();
+			map = new OutputContributionMap(path);
+			maps.put(path, map);
+		}
+		return map;
+	}
+
+	private static void ensureListening() {
+		IArchiveModel model = ArchivesModel.instance();
+		if( listening != model ) {
+			if( listening != null )
+				listening.removeModelListener(EVICTOR);
+			model.addModelListener(EVICTOR);
+			listening = model;
+		}
+	}
+
+	/*
+	 * Forget the maps of the archives of a model
+	 * which is no longer registered
+	 */
+	private static synchronized void evict(IArchiveNode root) {
+		IArchiveNode[] archives = root.getChildren(IArchiveNode.TYPE_ARCHIVE);
+		for( int i = 0; i < archives.length; i++ ) {
+			IPath p = ((IArchive)archives[i]).getArchiveFilePath();
+			if( p != null )
+				maps.remove(p);
+		}
+	}
+
+	/**
+	 * The entry a fileset puts a file at, relative to its top level archive
+	 */
+	public static String getEntry(IArchiveFileSet fileset, FileWrapper file) {
+		boolean flatten = fileset instanceof IArchiveStandardFileSet
+				&& ((IArchiveStandardFileSet)fileset).isFlattened();
+		IArchive root = fileset.getRootArchive();
+		int rootSegments = root == null ? 0 : root.getRootArchiveRelativePath().segmentCount();
+		return fileset.getParent().getRootArchiveRelativePath().removeFirstSegments(rootSegments)
+			.append(flatten ? file.getOutputName() : file.getFilesetRelative()).makeRelative().toString();
+	}
+
+	private IPath archivePath;
+	/* entry -> fileset id -> source, in the order contributed */
+	private HashMap<String, LinkedHashMap<String, Contribution>> entries
+		= new HashMap<String, LinkedHashMap<String, Contribution>>();
+	/* fileset id -> the entries it contributes to */
+	private HashMap<String, HashSet<String>> byFileset = new HashMap<String, HashSet<String>>();
+
+	private OutputContributionMap(IPath archivePath) {
+		this.archivePath = archivePath;
+	}
+
+	/**
+	 * Forget what a fileset contributed before building it from scratch.
+	 * The fileset counts as recorded from now on, even if it ends up
+	 * contributing nothing.
+	 */
+	public synchronized void beginFileset(IArchiveFileSet fileset) {
+		removeFileset(fileset);
+		byFileset.put(ArchiveManifest.getFilesetId(fileset), new HashSet<String>());
+	}
+
+	/**
+	 * Record that a fileset put a file at an entry
+	 */
+	public synchronized void record(IArchiveFileSet fileset, String entry, FileWrapper source) {
+		String id = ArchiveManifest.getFilesetId(fileset);
+		LinkedHashMap<String, Contribution> c = entries.get(entry);
+		if( c == null ) {
+			c = new LinkedHashMap<String, Contribution>();
+			entries.put(entry, c);
+		}
+		// the latest contribution wins, so it goes last
+		c.remove(id);
+		c.put(id, new Contribution(fileset, source));
+		HashSet<String> set = byFileset.get(id);
+		if( set == null ) {
+			set = new HashSet<String>();
+			byFileset.put(id, set);
+		}
+		set.add(entry);
+	}
+
+	/**
+	 * Record that a fileset put each of the given files at its entry
+	 */
+	public synchronized void record(IArchiveFileSet fileset, FileWrapper[] files) {
+		for( int i = 0; i < files.length; i++ )
+			if( files[i] != null )
+				record(fileset, getEntry(fileset, files[i]), files[i]);
+	}
+
+	/**
+	 * Forget that a fileset put a file at an entry
+	 */
+	public synchronized void remove(IArchiveFileSet fileset, String entry) {
+		String id = ArchiveManifest.getFilesetId(fileset);
+		LinkedHashMap<String, Contribution> c = entries.get(entry);
+		if( c != null ) {
+			c.remove(id);
+			if( c.isEmpty())
+				entries.remove(entry);
+		}
+		HashSet<String> set = byFileset.get(id);
+		if( set != null )
+			set.remove(entry);
+	}
+
+	/**
+	 * Forget everything a fileset contributed
+	 */
+	public synchronized void removeFileset(IArchiveFileSet fileset) {
+		String id = ArchiveManifest.getFilesetId(fileset);
+		HashSet<String> set = byFileset.remove(id);
+		if( set == null )
+			return;
+		Iterator<String> i = set.iterator();
+		while(i.hasNext()) {
+			String entry = i.next();
+			LinkedHashMap<String, Contribution> c = entries.get(entry);
+			if( c != null ) {
+				c.remove(id);
+				if( c.isEmpty())
+					entries.remove(entry);
+			}
+		}
+	}
+
+	/**
+	 * Forget the given entry and any entry beneath it
+	 */
+	public synchronized void removeEntry(String entry) {
+		String prefix = entry + "/"; //$NON-NLS-1$
+		Iterator<Map.Entry<String, LinkedHashMap<String, Contribution>>> i = entries.entrySet().iterator();
+		while(i.hasNext()) {
+			Map.Entry<String, LinkedHashMap<String, Contribution>> e = i.next();
+			if( e.getKey().equals(entry) || e.getKey().startsWith(prefix)) {
+				Iterator<String> ids = e.getValue().keySet().iterator();
+				while(ids.hasNext()) {
+					String id = ids.next();
+					HashSet<String> set = byFileset.get(id);
+					if( set != null )
+						set.remove(e.getKey());
+				}
+				i.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		byFileset.clear();
+	}
+
+	/**
+	 * Whether the fileset's contributions are known
+	 */
+	public synchronized boolean isRecorded(IArchiveFileSet fileset) {
+		return byFileset.containsKey(ArchiveManifest.getFilesetId(fileset));
+	}
+
+	/**
+	 * Get the latest contribution to an entry by a fileset other than the given one
+	 * @return the contribution, or null if no other fileset is recorded for the entry
+	 */
+	public synchronized Contribution getOther(IArchiveFileSet fileset, String entry) {
+		LinkedHashMap<String, Contribution> c = entries.get(entry);
+		if( c == null )
+			return null;
+		String id = ArchiveManifest.getFilesetId(fileset);
+		Contribution other = null;
+		Iterator<Map.Entry<String, Contribution>> i = c.entrySet().iterator();
+		while(i.hasNext()) {
+			Map.Entry<String, Contribution> e = i.next();
+			if( !e.getKey().equals(id))
+				other = e.getValue();
+		}
+		return other;
+	}
+
+	/**
+	 * Get the filesets currently in the model which write to the same
+	 * output as the given fileset, but whose contributions cannot be
+	 * taken from the map: those never recorded and those sharing their
+	 * id with the given fileset or with one another.
+	 */
+	public synchronized IArchiveFileSet[] getUnrecorded(IArchiveFileSet fileset) {
+		ArrayList<IArchiveFileSet> current = new ArrayList<IArchiveFileSet>();
+		IArchiveModelRootNode[] roots = ArchivesModel.instance().getModelNodes();
+		for( int i = 0; i < roots.length; i++ ) {
+			IArchiveNode[] archives = roots[i].getChildren(IArchiveNode.TYPE_ARCHIVE);
+			for( int j = 0; j < archives.length; j++ )
+				if( archivePath.equals(((IArchive)archives[j]).getArchiveFilePath()))
+					addFilesets(current, archives[j]);
+		}
+		// the fileset's own tree may not be part of the registered model
+		if( fileset.getRootArchive() != null )
+			addFilesets(current, fileset.getRootArchive());
+
+		String id = ArchiveManifest.getFilesetId(fileset);
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		String[] ids = new String[current.size()];
+		for( int i = 0; i < ids.length; i++ ) {
+			ids[i] = ArchiveManifest.getFilesetId(current.get(i));
+			Integer n = counts.get(ids[i]);
+			counts.put(ids[i], new Integer(n == null ? 1 : n.intValue() + 1));
+		}
+		ArrayList<IArchiveFileSet> unrecorded = new ArrayList<IArchiveFileSet>();
+		for( int i = 0; i < ids.length; i++ ) {
+			if( current.get(i) == fileset )
+				continue;
+			if( !byFileset.containsKey(ids[i]) || ids[i].equals(id) || counts.get(ids[i]).intValue() > 1 )
+				unrecorded.add(current.get(i));
+		}
+		return unrecorded.toArray(new IArchiveFileSet[unrecorded.size()]);
+	}
+
+	private static void addFilesets(ArrayList<IArchiveFileSet> list, IArchiveNode node) {
+		IArchiveFileSet[] filesets = ModelUtil.findAllDescendentFilesets(node);
+		for( int i = 0; i < filesets.length; i++ )
+			if( !list.contains(filesets[i]))
+				list.add(filesets[i]);
+	}
+}
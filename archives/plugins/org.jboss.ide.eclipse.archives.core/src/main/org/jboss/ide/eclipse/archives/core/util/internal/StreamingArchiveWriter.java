@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.util.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.jboss.ide.eclipse.archives.core.ArchivesCore;
+import org.jboss.ide.eclipse.archives.core.ArchivesCoreMessages;
+import org.jboss.ide.eclipse.archives.core.model.IArchive;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeVisitor;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
+import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension.FileWrapper;
+import org.jboss.ide.eclipse.archives.core.zip.CompressionPolicy;
+import org.jboss.ide.eclipse.archives.core.zip.ParallelZipWriter;
+
+/**
+ * Writes a packed top level archive from scratch in a single pass,
+ * straight to a zip stream, rather than entry by entry through
+ * truezip's virtual file system. Entries are compressed in parallel
+ * by a {@link ParallelZipWriter}, as the {@link CompressionPolicy} of
+ * their fileset says. Nested packed archives are written by a writer of
+ * their own straight into their entry of the enclosing archive, which
+ * is deflated as it goes and ends with a data descriptor.
+ *
+ * The filesets' matches are added first, then {@link #write(IProgressMonitor)}
+ * writes the archive to a temporary file which then replaces the output.
+ * As with truezip, when several files map to the same entry, the
+ * one added last wins.
+ *
+ * When the writer is {@link ParallelZipWriter#isReproducible() reproducible},
+ * the entries of each container are written sorted by path, so that
+ * the order the filesets were scanned in does not show in the output.
+ *
+ * A canceled write leaves the previous output in place.
+ *
+ * Only useful for full builds of archives which are not exploded.
+ */
+public class StreamingArchiveWriter {
+
+	/**
+	 * Whether the archive can be written by this class
+	 */
+	public static boolean canWrite(IArchive archive) {
+		return archive.isTopLevel() && !archive.isExploded() && archive.getArchiveFilePath() != null;
+	}
+
+	private static class Source {
+		private File file;
+		private String fileset;
+		private CompressionPolicy policy;
+		private Source(File file, String fileset, CompressionPolicy policy) {
+			this.file = file;
+			this.fileset = fileset;
+			this.policy = policy;
+		}
+	}
+
+	private IArchive archive;
+	private ArchiveManifest manifest;
+	private int rootSegments;
+	/* entry path -> source file, in the order added */
+	private LinkedHashMap<IPath, Source> files = new LinkedHashMap<IPath, Source>();
+	/* paths of the nested packed archives */
+	private TreeSet<IPath> nested = new TreeSet<IPath>(new PathComparator());
+	/* paths of folders and of nested exploded archives */
+	private ArrayList<IPath> folders = new ArrayList<IPath>();
+
+	/**
+	 * @param archive a top level archive, see {@link #canWrite(IArchive)}
+	 * @param manifest the archive's build manifest to record the entries in, or null
+	 */
+	public StreamingArchiveWriter(IArchive archive, ArchiveManifest manifest) {
+		this.archive = archive;
+		this.manifest = manifest;
+		this.rootSegments = archive.getRootArchiveRelativePath().segmentCount();
+		archive.accept(new IArchiveNodeVisitor() {
+			public boolean visit(IArchiveNode node) {
+				if( node == StreamingArchiveWriter.this.archive )
+					return true;
+				if( node.getNodeType() == IArchiveNode.TYPE_ARCHIVE ) {
+					if( ((IArchive)node).isExploded())
+						folders.add(getEntryPath(node));
+					else
+						nested.add(getEntryPath(node));
+				} else if( node.getNodeType() == IArchiveNode.TYPE_ARCHIVE_FOLDER ) {
+					folders.add(getEntryPath(node));
+				}
+				return true;
+			}
+		});
+	}
+
+	private IPath getEntryPath(IArchiveNode node) {
+		return node.getRootArchiveRelativePath().removeFirstSegments(rootSegments).makeRelative();
+	}
+
+	/**
+	 * Add a fileset's matching files to the archive
+	 */
+	public void addFileset(IArchiveFileSet fileset, FileWrapper[] matches) {
+		IPath parent = getEntryPath(fileset.getParent());
+		boolean flatten = fileset instanceof IArchiveStandardFileSet
+				&& ((IArchiveStandardFileSet)fileset).isFlattened();
+		String id = ArchiveManifest.getFilesetId(fileset);
+		CompressionPolicy policy = CompressionPolicy.getPolicy(fileset);
+		for( int i = 0; i < matches.length; i++ ) {
+			if( matches[i] == null )
+				continue;
+			String relative = flatten ? matches[i].getOutputName() : matches[i].getFilesetRelative();
+			IPath entry = parent.append(relative);
+			files.remove(entry);
+			files.put(entry, new Source(matches[i], id, policy));
+		}
+	}
+
+	/**
+	 * Write the archive, replacing its output file
+	 * @return the errors, if any
+	 */
+	public IStatus[] write(IProgressMonitor monitor) {
+		ArrayList<IStatus> errors = new ArrayList<IStatus>();
+		monitor.beginTask(ArchivesCore.bind(ArchivesCoreMessages.CopyingCountFiles,
+				new Integer(files.size()).toString()), files.size() * 100 + 100);
+
+		IPath output = archive.getArchiveFilePath();
+		// let truezip write out and forget anything it still holds for the archive
+		TrueZipUtil.umount(output);
+
+		File dest = output.toFile();
+		File temp = new File(dest.getParentFile(), "." + dest.getName() + ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+		boolean written = false;
+		try {
+			writeArchive(new FileOutputStream(temp), Path.EMPTY, errors, monitor);
+			written = true;
+		} catch( IOException ioe ) {
+			errors.add(new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
+					ArchivesCore.bind(ArchivesCoreMessages.ErrorCreatingFile, dest.toString()), ioe));
+		} catch( OperationCanceledException oce ) {
+			errors.add(Status.CANCEL_STATUS);
+		}
+
+		if( written ) {
+			if( dest.isDirectory())
+				TrueZipUtil.javaIODeleteDir(dest);
+			else if( dest.exists())
+				dest.delete();
+			written = temp.renameTo(dest);
+			if( !written ) {
+				errors.add(new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
+						ArchivesCore.bind(ArchivesCoreMessages.ErrorCreatingFile, dest.toString())));
+			}
+		}
+		if( !written ) {
+			temp.delete();
+			if( manifest != null )
+				manifest.clear();
+		}
+		monitor.worked(100);
+		monitor.done();
+		return errors.toArray(new IStatus[errors.size()]);
+	}
+
+	/*
+	 * Write the top level archive to its file, or a nested packed
+	 * archive to its entry's stream, closing the stream when done
+	 */
+	private void writeArchive(OutputStream stream, IPath container, List<IStatus> errors,
+			IProgressMonitor monitor) throws IOException {
+		ParallelZipWriter out = new ParallelZipWriter(stream);
+		boolean done = false;
+		try {
+			writeContainer(out, container, errors, monitor);
+			out.close();
+			done = true;
+		} finally {
+			if( !done )
+				out.abort();
+		}
+	}
+
+	private void writeContainer(ParallelZipWriter out, IPath container,
+			List<IStatus> errors, IProgressMonitor monitor) throws IOException {
+		// the folders this container needs, parents sorting before their children
+		TreeSet<IPath> dirs = new TreeSet<IPath>(new PathComparator());
+		Iterator<IPath> i = folders.iterator();
+		while(i.hasNext()) {
+			IPath f = i.next();
+			if( isOwnedBy(f, container))
+				addDirs(dirs, f.removeFirstSegments(container.segmentCount()), true);
+		}
+		ArrayList<IPath> ownFiles = new ArrayList<IPath>();
+		i = files.keySet().iterator();
+		while(i.hasNext()) {
+			IPath f = i.next();
+			if( isOwnedBy(f, container) && !nested.contains(f)) {
+				ownFiles.add(f);
+				addDirs(dirs, f.removeFirstSegments(container.segmentCount()), false);
+			}
+		}
+		ArrayList<IPath> ownArchives = new ArrayList<IPath>();
+		i = nested.iterator();
+		while(i.hasNext()) {
+			IPath n = i.next();
+			if( !n.equals(container) && isOwnedBy(n, container)) {
+				ownArchives.add(n);
+				addDirs(dirs, n.removeFirstSegments(container.segmentCount()), false);
+			}
+		}
+
+		if( out.isReproducible())
+			Collections.sort(ownFiles, new PathComparator());
+
+		long now = out.getDefaultEntryTime();
+		i = dirs.iterator();
+		while(i.hasNext())
+			out.putDirectory(i.next().toString(), now);
+
+		i = ownFiles.iterator();
+		while(i.hasNext()) {
+			if( monitor.isCanceled())
+				throw new OperationCanceledException();
+			IPath f = i.next();
+			Source s = files.get(f);
+			if( !s.file.canRead()) {
+				// a source which cannot be read fails only its own entry
+				errors.add(new Status(IStatus.ERROR, ArchivesCore.PLUGIN_ID,
+						ArchivesCore.bind(ArchivesCoreMessages.FileCopyFailed,
+								s.file.getAbsolutePath(), f.toString())));
+			} else {
+				out.putFile(f.removeFirstSegments(container.segmentCount()).toString(),
+						s.file, s.file.lastModified(), s.policy);
+				if( manifest != null )
+					manifest.record(f.toString(), s.file, s.fileset);
+			}
+			monitor.worked(100);
+		}
+
+		i = ownArchives.iterator();
+		while(i.hasNext()) {
+			IPath n = i.next();
+			writeArchive(out.putStream(n.removeFirstSegments(container.segmentCount()).toString(), now),
+					n, errors, monitor);
+		}
+	}
+
+	/*
+	 * Whether the path lies in the container and not in a packed archive nested in it
+	 */
+	private boolean isOwnedBy(IPath path, IPath container) {
+		if( !container.isPrefixOf(path) || path.equals(container))
+			return false;
+		for( int i = path.segmentCount() - 1; i > container.segmentCount(); i-- )
+			if( nested.contains(path.uptoSegment(i)))
+				return false;
+		return true;
+	}
+
+	private static void addDirs(TreeSet<IPath> dirs, IPath relative, boolean includeSelf) {
+		IPath p = includeSelf ? relative : relative.removeLastSegments(1);
+		while( p.segmentCount() > 0 ) {
+			dirs.add(p);
+			p = p.removeLastSegments(1);
+		}
+	}
+
+	private static class PathComparator implements java.util.Comparator<IPath> {
+		public int compare(IPath o1, IPath o2) {
+			return o1.toString().compareTo(o2.toString());
+		}
+	}
+}
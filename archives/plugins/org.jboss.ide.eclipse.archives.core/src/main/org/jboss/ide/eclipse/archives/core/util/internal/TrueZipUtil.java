@@ -10,15 +10,24 @@
  ******************************************************************************/
 package org.jboss.ide.eclipse.archives.core.util.internal;
 
+import java.io.CharConversionException;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.ZipEntry;
 
 import org.eclipse.core.runtime.IPath;
+import org.jboss.ide.eclipse.archives.core.zip.CompressionPolicy;
 
 import de.schlichtherle.io.AbstractArchiveDetector;
 import de.schlichtherle.io.ArchiveDetector;
 import de.schlichtherle.io.ArchiveException;
+import de.schlichtherle.io.archive.Archive;
 import de.schlichtherle.io.archive.spi.ArchiveDriver;
+import de.schlichtherle.io.archive.spi.ArchiveEntry;
+import de.schlichtherle.io.archive.spi.RfsEntry;
 import de.schlichtherle.io.archive.zip.Zip32Driver;
+import de.schlichtherle.io.archive.zip.Zip32Entry;
 
 /**
  * Accesses raw files with the truezip filesystem
@@ -56,6 +65,7 @@ public class TrueZipUtil {
 	}
 
 	public static boolean copyFile(String source, de.schlichtherle.io.File file, boolean updateTimestamps) {
+		written(file);
 		file.getParentFile().mkdirs();
 		boolean b = new de.schlichtherle.io.File(source, ArchiveDetector.NULL).archiveCopyAllTo(file);
 		return  b && (updateTimestamps ? updateParentTimestamps(file) : true);
@@ -63,6 +73,7 @@ public class TrueZipUtil {
 
 	public static boolean touchFile(IPath path) {
 		de.schlichtherle.io.File f = getFile(path);
+		written(f);
 		boolean b = f.setLastModified(System.currentTimeMillis());
 	    return b && updateParentTimestamps(path);
 	}
@@ -76,10 +87,12 @@ public class TrueZipUtil {
 		return deleteAll(getFile(path));
 	}
 	public static boolean deleteAll(de.schlichtherle.io.File file) {
+		written(file);
 		return file.deleteAll();
 	}
 
 	public static boolean deleteEmptyChildren(java.io.File file) {
+		written(file);
 		boolean b = true;
 		if( file.isDirectory() ) {
 			java.io.File[] children = file.listFiles();
@@ -102,14 +115,18 @@ public class TrueZipUtil {
 
 
 	public static boolean createFolder(IPath parent, String folderName) {
-		boolean b = new de.schlichtherle.io.File(getFile(parent, ArchiveDetector.DEFAULT), folderName, ArchiveDetector.NULL).mkdirs();
+		de.schlichtherle.io.File folder = new de.schlichtherle.io.File(getFile(parent, ArchiveDetector.DEFAULT), folderName, ArchiveDetector.NULL);
+		written(folder);
+		boolean b = folder.mkdirs();
 		return b && updateParentTimestamps(parent.append(folderName));
 	}
 	public static boolean createFolder(IPath path) {
 		return createFolder(path.removeLastSegments(1), path.lastSegment());
 	}
 	public static boolean createArchive(IPath parent, String folderName) {
-		boolean b = new de.schlichtherle.io.File(getFile(parent, ArchiveDetector.DEFAULT), folderName, getJarArchiveDetector()).mkdirs();
+		de.schlichtherle.io.File archive = new de.schlichtherle.io.File(getFile(parent, ArchiveDetector.DEFAULT), folderName, getJarArchiveDetector());
+		written(archive);
+		boolean b = archive.mkdirs();
 	    return b && updateParentTimestamps(parent.append(folderName));
 	}
 	public static boolean createArchive(IPath path) {
@@ -128,6 +145,7 @@ public class TrueZipUtil {
 	 */
 	public static boolean createArchive(java.io.File parentFile, IPath relative) {
 		de.schlichtherle.io.File archive = getRelativeArchiveFile(parentFile, relative);
+		written(archive);
 		boolean b = archive.mkdirs();
 	    return b && updateParentTimestamps(archive);
 	}
@@ -162,6 +180,25 @@ public class TrueZipUtil {
 		}
 	}
 
+	/**
+	 * Umount a single top level archive, writing out any changes
+	 * truezip still holds for it. Use this before the archive's
+	 * file is replaced without going through truezip.
+	 * @param archive the archive's file system path
+	 */
+	public static void umount(IPath archive) {
+		de.schlichtherle.io.File f = new de.schlichtherle.io.File(archive.toOSString(), getJarArchiveDetector());
+		BuildTransaction t = transaction.get();
+		if( t != null )
+			t.archives.remove(f.getAbsolutePath());
+		try {
+			de.schlichtherle.io.File.umount(f);
+		} catch( ArchiveException ae ) {
+		} catch( IllegalArgumentException iae ) {
+			// not an archive
+		}
+	}
+
 	/**
 	 * Sync's with file system after executing a runnable
 	 * @param run Runnable or null
@@ -171,13 +208,113 @@ public class TrueZipUtil {
 			if( run != null )
 				run.run();
 		} catch (Exception e ) {}
-		umount();
+		// inside a transaction, the archives are umounted on commit
+		if( transaction.get() == null )
+			umount();
 	}
 
+	/**
+	 * Sync with the file system. Inside a build transaction 
+	 * the sync is deferred until the transaction commits.
+	 */
 	public static void sync() {
 		syncExec(null);
 	}
 
+	/*
+	 * Build transactions. 
+	 * 
+	 * Every sync is a global umount which rewrites every archive
+	 * touched since the last one. While a transaction is open on the 
+	 * current thread, syncs are deferred and the top level archives 
+	 * written to are remembered. Committing the outermost transaction 
+	 * umounts each of them exactly once. As only the thread's own 
+	 * archives are umounted, transactions on different threads 
+	 * do not disturb each other.
+	 */
+	private static class BuildTransaction {
+		private int depth = 0;
+		private LinkedHashMap<String, de.schlichtherle.io.File> archives = 
+			new LinkedHashMap<String, de.schlichtherle.io.File>();
+	}
+
+	private static ThreadLocal<BuildTransaction> transaction = new ThreadLocal<BuildTransaction>();
+
+	/**
+	 * Open a build transaction on the current thread.
+	 * Transactions nest; only the outermost commit syncs.
+	 * Every call must be matched by a call to {@link #commitTransaction()}, 
+	 * preferably in a finally block. 
+	 */
+	public static void beginTransaction() {
+		BuildTransaction t = transaction.get();
+		if( t == null ) {
+			t = new BuildTransaction();
+			transaction.set(t);
+		}
+		t.depth++;
+	}
+
+	/**
+	 * Close a build transaction. If it is the outermost one,
+	 * every top level archive written to during it is umounted.
+	 */
+	public static void commitTransaction() {
+		BuildTransaction t = transaction.get();
+		if( t == null )
+			return;
+		t.depth--;
+		if( t.depth <= 0 ) {
+			transaction.set(null);
+			umount(t);
+		}
+	}
+
+	public static boolean isInTransaction() {
+		return transaction.get() != null;
+	}
+
+	/**
+	 * Write the archives changed so far to the file system, even when 
+	 * in a transaction. Use this before reading an archive that was 
+	 * just built, for example to copy it into another archive. 
+	 */
+	public static void flush() {
+		BuildTransaction t = transaction.get();
+		if( t == null ) {
+			umount();
+		} else {
+			umount(t);
+			t.archives.clear();
+		}
+	}
+
+	/**
+	 * Remember the top level archive of this file, if any, 
+	 * as written to in the current transaction. 
+	 * @param file the file about to be written, created or deleted
+	 */
+	public static void written(java.io.File file) {
+		BuildTransaction t = transaction.get();
+		if( t == null || !(file instanceof de.schlichtherle.io.File))
+			return;
+		de.schlichtherle.io.File top = ((de.schlichtherle.io.File)file).getTopLevelArchive();
+		if( top != null && !t.archives.containsKey(top.getAbsolutePath()))
+			t.archives.put(top.getAbsolutePath(), top);
+	}
+
+	private static void umount(BuildTransaction t) {
+		Iterator<de.schlichtherle.io.File> i = t.archives.values().iterator();
+		while(i.hasNext()) {
+			try {
+				de.schlichtherle.io.File.umount(i.next());
+			} catch( ArchiveException ae ) {
+			} catch( IllegalArgumentException iae ) {
+				// no longer a top level archive
+			}
+		}
+	}
+
 	public static boolean updateParentTimestamps(IPath path) {
 		return updateParentTimestamps(getFile(path));
 	}
@@ -205,10 +342,30 @@ public class TrueZipUtil {
 
 	public static class JarArchiveDetector extends AbstractArchiveDetector {
 		public ArchiveDriver getArchiveDriver(String arg0) {
-			return new Zip32Driver();
+			return new PolicyZip32Driver();
 		}
 
 	}
+
+	/**
+	 * Stores rather than deflates the new entries which the current
+	 * thread's {@link CompressionPolicy} says are already compressed.
+	 * Truezip works out the checksum of stored entries itself.
+	 * Entries copied from another archive keep their method.
+	 */
+	public static class PolicyZip32Driver extends Zip32Driver {
+		private static final long serialVersionUID = 1L;
+		public ArchiveEntry createArchiveEntry(Archive archive, String name, ArchiveEntry template)
+				throws CharConversionException {
+			ArchiveEntry entry = super.createArchiveEntry(archive, name, template);
+			if( entry instanceof Zip32Entry && !entry.isDirectory() && !(template instanceof Zip32Entry)) {
+				java.io.File source = template instanceof RfsEntry ? ((RfsEntry)template).getFile() : null;
+				if( CompressionPolicy.getCurrent().getMethod(name, source, ZipEntry.DEFLATED) == ZipEntry.STORED )
+					((Zip32Entry)entry).setMethod(ZipEntry.STORED);
+			}
+			return entry;
+		}
+	}
 	
 	
 	public static boolean javaIODeleteDir(java.io.File dir) {
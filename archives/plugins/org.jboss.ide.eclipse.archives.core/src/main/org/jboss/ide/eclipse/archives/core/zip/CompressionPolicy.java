@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.zip;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.zip.ZipEntry;
+
+import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
+
+/**
+ * Decides whether an archive entry is deflated or stored as is.
+ *
+ * Deflating content which is already compressed, such as nested
+ * archives or images, costs time for little or no gain, so entries
+ * with one of a set of extensions are stored. Optionally, the first
+ * {@link #SAMPLE_SIZE} bytes of other entries are sampled, and entries
+ * whose sample looks random are stored as well.
+ *
+ * The default policy is read from the {@link #STORED_EXTENSIONS_PROPERTY}
+ * and {@link #ENTROPY_CHECK_PROPERTY} system properties. A fileset can
+ * override it with its {@link IArchiveFileSet#COMPRESSION_PROPERTY}.
+ */
+public class CompressionPolicy {
+	/**
+	 * A system property with the comma separated extensions of
+	 * entries to store. Defaults to {@link #DEFAULT_STORED_EXTENSIONS}.
+	 */
+	public static final String STORED_EXTENSIONS_PROPERTY = "org.jboss.ide.eclipse.archives.core.storedExtensions"; //$NON-NLS-1$
+
+	/**
+	 * A system property which, when "true", turns on sampling entries
+	 * whose extension does not decide the method
+	 */
+	public static final String ENTROPY_CHECK_PROPERTY = "org.jboss.ide.eclipse.archives.core.entropyCheck"; //$NON-NLS-1$
+
+	public static final String DEFAULT_STORED_EXTENSIONS =
+		"jar,war,ear,rar,sar,zip,gz,tgz,bz2,xz,7z,png,gif,jpg,jpeg,mp3,mp4"; //$NON-NLS-1$
+
+	/**
+	 * The number of bytes sampled by the entropy check
+	 */
+	public static final int SAMPLE_SIZE = 8192;
+
+	/* samples smaller than this are always deflated */
+	private static final int MIN_SAMPLE = 512;
+	/* bits per byte above which a sample is considered incompressible */
+	private static final double ENTROPY_THRESHOLD = 7.5;
+
+	/**
+	 * Deflates every entry
+	 */
+	public static final CompressionPolicy DEFLATE_ALL = new CompressionPolicy(ZipEntry.DEFLATED);
+
+	/**
+	 * Stores every entry
+	 */
+	public static final CompressionPolicy STORE_ALL = new CompressionPolicy(ZipEntry.STORED);
+
+	private static CompressionPolicy defaultPolicy;
+	private static ThreadLocal<CompressionPolicy> current = new ThreadLocal<CompressionPolicy>();
+
+	/**
+	 * The policy configured by system properties
+	 */
+	public static synchronized CompressionPolicy getDefault() {
+		if( defaultPolicy == null ) {
+			String extensions = System.getProperty(STORED_EXTENSIONS_PROPERTY, DEFAULT_STORED_EXTENSIONS);
+			boolean check = Boolean.valueOf(System.getProperty(ENTROPY_CHECK_PROPERTY)).booleanValue();
+			defaultPolicy = new CompressionPolicy(extensions.split(","), check); //$NON-NLS-1$
+		}
+		return defaultPolicy;
+	}
+
+	/**
+	 * The policy for the files of a fileset: the default policy
+	 * unless the fileset's compression property says otherwise
+	 */
+	public static CompressionPolicy getPolicy(IArchiveFileSet fileset) {
+		String value = fileset == null ? null : fileset.getProperty(IArchiveFileSet.COMPRESSION_PROPERTY);
+		if( IArchiveFileSet.COMPRESSION_STORED.equals(value))
+			return STORE_ALL;
+		if( IArchiveFileSet.COMPRESSION_DEFLATED.equals(value))
+			return DEFLATE_ALL;
+		return getDefault();
+	}
+
+	/**
+	 * The policy for entries written by the current thread through truezip,
+	 * which only tells its driver the name of an entry
+	 */
+	public static CompressionPolicy getCurrent() {
+		CompressionPolicy p = current.get();
+		return p == null ? getDefault() : p;
+	}
+
+	/**
+	 * Set the policy returned by {@link #getCurrent()} for this thread
+	 * @param policy the policy, or null for the default one
+	 * @return the policy which was set before, or null
+	 */
+	public static CompressionPolicy setCurrent(CompressionPolicy policy) {
+		CompressionPolicy previous = current.get();
+		current.set(policy);
+		return previous;
+	}
+
+	private HashSet<String> storedExtensions = new HashSet<String>();
+	private boolean entropyCheck;
+	private int forced = -1;
+
+	/**
+	 * @param storedExtensions the extensions of entries to store, without the dot
+	 * @param entropyCheck whether to sample other entries
+	 */
+	public CompressionPolicy(String[] storedExtensions, boolean entropyCheck) {
+		for( int i = 0; i < storedExtensions.length; i++ ) {
+			String ext = storedExtensions[i].trim().toLowerCase();
+			if( ext.startsWith(".")) //$NON-NLS-1$
+				ext = ext.substring(1);
+			if( ext.length() > 0 )
+				this.storedExtensions.add(ext);
+		}
+		this.entropyCheck = entropyCheck;
+	}
+
+	private CompressionPolicy(int method) {
+		this.forced = method;
+	}
+
+	public boolean isEntropyCheck() {
+		return entropyCheck;
+	}
+
+	/**
+	 * The method for an entry, as far as its name tells
+	 * @param name the entry name
+	 * @param method the method used when the policy has no preference
+	 */
+	public int getMethod(String name, int method) {
+		if( forced != -1 )
+			return forced;
+		int slash = name.lastIndexOf('/');
+		int dot = name.lastIndexOf('.');
+		if( dot > slash && storedExtensions.contains(name.substring(dot + 1).toLowerCase()))
+			return ZipEntry.STORED;
+		return method;
+	}
+
+	/**
+	 * Whether an entry of this name, otherwise written with the given
+	 * method, should have its contents sampled before being deflated
+	 */
+	public boolean shouldSample(String name, int method) {
+		return entropyCheck && forced == -1 && getMethod(name, method) == ZipEntry.DEFLATED;
+	}
+
+	/**
+	 * The method for an entry, sampling the source file if need be
+	 * @param name the entry name
+	 * @param source the file with the entry's contents, or null
+	 * @param method the method used when the policy has no preference
+	 */
+	public int getMethod(String name, File source, int method) {
+		method = getMethod(name, method);
+		if( source != null && shouldSample(name, method) && isIncompressible(source))
+			return ZipEntry.STORED;
+		return method;
+	}
+
+	/**
+	 * Whether the first bytes of a file look incompressible
+	 * @see #isIncompressible(byte[], int)
+	 */
+	public static boolean isIncompressible(File source) {
+		byte[] sample = new byte[SAMPLE_SIZE];
+		try {
+			InputStream in = new FileInputStream(source);
+			try {
+				return isIncompressible(sample, readSample(in, sample));
+			} finally {
+				in.close();
+			}
+		} catch( IOException ioe ) {
+			// leave it to whoever reads the file to report it
+			return false;
+		}
+	}
+
+	/**
+	 * Fill as much of the buffer as the stream allows
+	 * @return the number of bytes read, or -1 if the stream was empty
+	 */
+	public static int readSample(InputStream in, byte[] buf) throws IOException {
+		int n = 0;
+		while( n < buf.length ) {
+			int r = in.read(buf, n, buf.length - n);
+			if( r == -1 )
+				break;
+			n += r;
+		}
+		return n == 0 && buf.length > 0 ? -1 : n;
+	}
+
+	/**
+	 * Whether a sample is too close to random data for deflating it to pay off,
+	 * based on the entropy of its byte distribution
+	 */
+	public static boolean isIncompressible(byte[] sample, int length) {
+		if( length < MIN_SAMPLE )
+			return false;
+		int[] counts = new int[256];
+		for( int i = 0; i < length; i++ )
+			counts[sample[i] & 0xff]++;
+		double entropy = 0;
+		for( int i = 0; i < counts.length; i++ ) {
+			if( counts[i] > 0 ) {
+				double p = (double)counts[i] / length;
+				entropy -= p * Math.log(p);
+			}
+		}
+		return entropy / Math.log(2) > ENTROPY_THRESHOLD;
+	}
+}
@@ -0,0 +1,840 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.core.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file, compressing its entries on a pool of worker threads.
+ *
+ * Entries are handed to the pool as they are added. Each worker reads
+ * and deflates one entry into memory, and the calling thread writes the
+ * compressed entries out strictly in the order they were added, so the
+ * resulting file, central directory included, is the same whatever the
+ * number of threads. Only a bounded amount of work is queued at once.
+ * Entries larger than {@link #LARGE_ENTRY} are compressed on the calling
+ * thread straight to the output instead of being held in memory, as are
+ * entries written through {@link #putStream(String, long)}.
+ *
+ * Unless told otherwise, whether an entry is deflated or stored is decided
+ * by a {@link CompressionPolicy}. Its entropy sampling, when turned on,
+ * also happens on the workers.
+ *
+ * Entry names are written as UTF-8. The zip64 extensions are only
+ * written where they are needed: for entries or offsets past 4GB,
+ * and for archives of more than 65534 entries.
+ *
+ * A reproducible writer gives the same bytes for the same entries
+ * added in the same order, whenever and wherever it runs: entry times
+ * are replaced by a fixed time, see {@link #REPRODUCIBLE_PROPERTY}, and
+ * are converted to the zip's local time format in UTC rather than in
+ * the default time zone. Permissions are never written, the entries
+ * only tell directories from files, so they need no normalizing.
+ * Callers adding entries in an order which may change from one run
+ * to the next should sort them when {@link #isReproducible()}.
+ */
+public class ParallelZipWriter {
+	/**
+	 * A system property with the number of threads to compress on.
+	 * Defaults to the number of processors; 1 compresses on the calling thread.
+	 */
+	public static final String THREADS_PROPERTY = "org.jboss.ide.eclipse.archives.core.deflateThreads"; //$NON-NLS-1$
+
+	/**
+	 * A system property which makes writers reproducible by default.
+	 * "true" gives every entry the fixed time. {@link #REPRODUCIBLE_SOURCE}
+	 * keeps the time given for each file entry, usually the source file's
+	 * modification time, and gives the fixed time to directories only.
+	 * @since 3.5
+	 */
+	public static final String REPRODUCIBLE_PROPERTY = "org.jboss.ide.eclipse.archives.core.reproducible"; //$NON-NLS-1$
+	/**
+	 * @since 3.5
+	 */
+	public static final String REPRODUCIBLE_SOURCE = "source"; //$NON-NLS-1$
+
+	/**
+	 * The environment variable with the fixed time of reproducible
+	 * writers, in seconds since 1970, as other build tools read it.
+	 * Defaults to {@link #DEFAULT_FIXED_TIME}.
+	 * @since 3.5
+	 */
+	public static final String SOURCE_DATE_EPOCH = "SOURCE_DATE_EPOCH"; //$NON-NLS-1$
+
+	/**
+	 * 1980-01-01 00:00:00 UTC, the earliest time a zip entry can hold
+	 * @since 3.5
+	 */
+	public static final long DEFAULT_FIXED_TIME = 315532800000L;
+
+	/* entries above this size are not queued, but streamed by the calling thread */
+	public static final long LARGE_ENTRY = 4 * 1024 * 1024;
+	/* the most uncompressed bytes queued for the workers at once */
+	private static final long MAX_QUEUED_BYTES = 32 * 1024 * 1024;
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int DATA_DESCRIPTOR = 0x08074b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL = 0x06064b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+	private static final int ZIP64_EXTRA = 0x0001;
+	/* sizes and offsets from this one on are held in zip64 fields */
+	private static final long ZIP64_MAGIC = 0xffffffffL;
+	private static final int ZIP64_MAGIC_COUNT = 0xffff;
+	private static final int FLAG_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+
+	private static ThreadPoolExecutor pool;
+
+	/**
+	 * The default number of compression threads
+	 */
+	public static int getDefaultThreads() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String prop = System.getProperty(THREADS_PROPERTY);
+		if( prop != null ) {
+			try {
+				threads = Integer.parseInt(prop.trim());
+			} catch( NumberFormatException nfe ) {
+				// keep the default
+			}
+		}
+		return Math.max(1, threads);
+	}
+
+	/**
+	 * Whether writers are reproducible unless told otherwise
+	 * @since 3.5
+	 */
+	public static boolean isReproducibleByDefault() {
+		String prop = System.getProperty(REPRODUCIBLE_PROPERTY);
+		return "true".equalsIgnoreCase(prop) || REPRODUCIBLE_SOURCE.equalsIgnoreCase(prop); //$NON-NLS-1$
+	}
+
+	/**
+	 * The time reproducible writers give their entries by default
+	 * @since 3.5
+	 */
+	public static long getDefaultFixedTime() {
+		String epoch = System.getenv(SOURCE_DATE_EPOCH);
+		if( epoch != null ) {
+			try {
+				return Math.max(DEFAULT_FIXED_TIME, Long.parseLong(epoch.trim()) * 1000);
+			} catch( NumberFormatException nfe ) {
+				// keep the default
+			}
+		}
+		return DEFAULT_FIXED_TIME;
+	}
+
+	/*
+	 * One pool of daemon threads is shared by every writer, so nested
+	 * or concurrent writers do not multiply the number of threads.
+	 * A writer wanting more threads grows the pool in place, as
+	 * other writers may still be submitting to it.
+	 */
+	private static synchronized ExecutorService getPool(int threads) {
+		if( pool == null ) {
+			final AtomicInteger count = new AtomicInteger();
+			pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Archives Deflate " + count.incrementAndGet()); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		} else if( pool.getMaximumPoolSize() < threads ) {
+			// the maximum may never be below the core size
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		}
+		return pool;
+	}
+
+	/* An entry whose data is ready to be written */
+	private static class Compressed {
+		private int method;
+		private long crc;
+		private long size;
+		private byte[] data;
+		private int length;
+	}
+
+	/* An entry as listed in the central directory */
+	private static class Written {
+		private byte[] name;
+		private int flags;
+		private int method;
+		private long dosTime;
+		private long crc;
+		private long compressedSize;
+		private long size;
+		private long offset;
+		private boolean directory;
+	}
+
+	private static class Pending {
+		private Written entry;
+		private Future<Compressed> result;
+		private long bytes;
+	}
+
+	private CountingOutputStream out;
+	private int threads;
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	private int method = ZipEntry.DEFLATED;
+	private CompressionPolicy policy = CompressionPolicy.getDefault();
+	private LinkedList<Pending> pending = new LinkedList<Pending>();
+	private long queuedBytes = 0;
+	private ArrayList<Written> written = new ArrayList<Written>();
+	private boolean finished = false;
+	/* the entry being streamed on the calling thread, if any */
+	private EntryOutputStream open = null;
+	private boolean reproducible = isReproducibleByDefault();
+	private boolean sourceTimes = REPRODUCIBLE_SOURCE.equalsIgnoreCase(System.getProperty(REPRODUCIBLE_PROPERTY));
+	private long fixedTime = getDefaultFixedTime();
+
+	public ParallelZipWriter(OutputStream out) {
+		this(out, getDefaultThreads());
+	}
+
+	/**
+	 * @param out the stream to write the zip to
+	 * @param threads the number of threads to compress on, 1 to compress on the calling thread
+	 */
+	public ParallelZipWriter(OutputStream out, int threads) {
+		this.out = new CountingOutputStream(new BufferedOutputStream(out, 65536));
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param level the deflate level, from {@link Deflater}
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * @param method the default method of entries,
+	 * {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}
+	 */
+	public void setMethod(int method) {
+		this.method = method;
+	}
+
+	/**
+	 * @param policy the policy for entries added without a method,
+	 * or null to use the default method for all of them
+	 */
+	public void setPolicy(CompressionPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Set whether the output is reproducible
+	 * @param reproducible whether entries get a fixed time
+	 * @param sourceTimes whether file entries keep the time they are added with
+	 * @since 3.5
+	 */
+	public void setReproducible(boolean reproducible, boolean sourceTimes) {
+		this.reproducible = reproducible;
+		this.sourceTimes = sourceTimes;
+	}
+
+	/**
+	 * @since 3.5
+	 */
+	public boolean isReproducible() {
+		return reproducible;
+	}
+
+	/**
+	 * @param time the time reproducible output gives its entries, in ms since 1970
+	 * @since 3.5
+	 */
+	public void setFixedTime(long time) {
+		this.fixedTime = time;
+	}
+
+	/**
+	 * The time of entries which have none of their own, such as
+	 * directories: the fixed time when reproducible, or now
+	 * @since 3.5
+	 */
+	public long getDefaultEntryTime() {
+		return reproducible ? fixedTime : System.currentTimeMillis();
+	}
+
+	public void putDirectory(String name, long time) throws IOException {
+		if( !name.endsWith("/")) //$NON-NLS-1$
+			name = name + "/"; //$NON-NLS-1$
+		Written w = newEntry(name, time, ZipEntry.STORED, true);
+		Compressed c = new Compressed();
+		c.method = ZipEntry.STORED;
+		c.data = new byte[0];
+		enqueue(w, new Done(c), 0);
+	}
+
+	/**
+	 * Add an entry with the contents of a file, compressed as the writer's policy says
+	 */
+	public void putFile(String name, File source, long time) throws IOException {
+		putFile(name, source, time, policy);
+	}
+
+	/**
+	 * Add an entry with the contents of a file, compressed as the given policy says
+	 * @param policy the policy, or null to use the default method
+	 */
+	public void putFile(String name, File source, long time, CompressionPolicy policy) throws IOException {
+		int m = policy == null ? method : policy.getMethod(name, method);
+		putFile(name, source, time, m, policy != null && policy.shouldSample(name, m));
+	}
+
+	/**
+	 * Add an entry with the contents of a file
+	 * @param method {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}
+	 */
+	public void putFile(String name, File source, long time, int method) throws IOException {
+		putFile(name, source, time, method, false);
+	}
+
+	private void putFile(String name, final File source, long time, int method, final boolean sample) throws IOException {
+		long length = source.length();
+		if( length > LARGE_ENTRY ) {
+			if( sample && CompressionPolicy.isIncompressible(source))
+				method = ZipEntry.STORED;
+			Written w = newEntry(name, time, method, false);
+			drain(0);
+			writeLarge(w, source, method);
+			return;
+		}
+		Written w = newEntry(name, time, method, false);
+		final int m = method;
+		final int level = this.level;
+		enqueue(w, new Callable<Compressed>() {
+			public Compressed call() throws IOException {
+				return compress(new FileInputStream(source), m, level, sample);
+			}
+		}, length);
+	}
+
+	/**
+	 * Add an entry with the given contents, compressed as the writer's policy says
+	 */
+	public void putBytes(String name, byte[] data, long time) throws IOException {
+		int m = policy == null ? method : policy.getMethod(name, method);
+		putBytes(name, data, time, m, policy != null && policy.shouldSample(name, m));
+	}
+
+	/**
+	 * Add an entry with the given contents
+	 * @param method {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}
+	 */
+	public void putBytes(String name, byte[] data, long time, int method) throws IOException {
+		putBytes(name, data, time, method, false);
+	}
+
+	private void putBytes(String name, final byte[] data, long time, final int method, final boolean sample) throws IOException {
+		Written w = newEntry(name, time, method, false);
+		final int level = this.level;
+		enqueue(w, new Callable<Compressed>() {
+			public Compressed call() throws IOException {
+				return compress(new java.io.ByteArrayInputStream(data), method, level, sample);
+			}
+		}, data.length);
+	}
+
+	/**
+	 * Add an entry whose contents are written to the returned stream.
+	 * They are deflated on the calling thread straight to the output and
+	 * followed by a data descriptor, so a nested zip, for example, can be
+	 * written by another writer into its entry without a temporary file.
+	 * Closing the stream ends the entry; no other entry may be added before.
+	 * @since 3.5
+	 */
+	public OutputStream putStream(String name, long time) throws IOException {
+		Written w = newEntry(name, time, ZipEntry.DEFLATED, false);
+		drain(0);
+		w.flags |= FLAG_DESCRIPTOR;
+		w.offset = out.count;
+		writeLocalHeader(w);
+		open = new EntryOutputStream(w);
+		return open;
+	}
+
+	/**
+	 * Write everything still queued and the central directory,
+	 * without closing the underlying stream
+	 */
+	public void finish() throws IOException {
+		if( finished )
+			return;
+		if( open != null )
+			throw new IOException("An entry is still being written"); //$NON-NLS-1$
+		drain(0);
+		long start = out.count;
+		for( int i = 0; i < written.size(); i++ )
+			writeCentralHeader(written.get(i));
+		long size = out.count - start;
+		int entries = written.size();
+		if( entries >= ZIP64_MAGIC_COUNT || size >= ZIP64_MAGIC || start >= ZIP64_MAGIC ) {
+			long end = out.count;
+			writeInt(ZIP64_END_OF_CENTRAL);
+			writeLong(44);
+			writeShort(45);
+			writeShort(45);
+			writeInt(0);
+			writeInt(0);
+			writeLong(entries);
+			writeLong(entries);
+			writeLong(size);
+			writeLong(start);
+			writeInt(ZIP64_LOCATOR);
+			writeInt(0);
+			writeLong(end);
+			writeInt(1);
+		}
+		writeInt(END_OF_CENTRAL);
+		writeShort(0);
+		writeShort(0);
+		writeShort(Math.min(entries, ZIP64_MAGIC_COUNT));
+		writeShort(Math.min(entries, ZIP64_MAGIC_COUNT));
+		writeInt(Math.min(size, ZIP64_MAGIC));
+		writeInt(Math.min(start, ZIP64_MAGIC));
+		writeShort(0);
+		out.flush();
+		finished = true;
+	}
+
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			cancel();
+			out.close();
+		}
+	}
+
+	/**
+	 * Give up writing, for example after an error. Queued
+	 * work is dropped and the underlying stream closed.
+	 */
+	public void abort() {
+		cancel();
+		finished = true;
+		try {
+			out.close();
+		} catch( IOException ioe ) {
+		}
+	}
+
+	/*
+	 * Stop any queued work
+	 */
+	private void cancel() {
+		while( !pending.isEmpty())
+			pending.removeFirst().result.cancel(true);
+		if( open != null ) {
+			open.deflater.end();
+			open = null;
+		}
+	}
+
+	private Written newEntry(String name, long time, int method, boolean directory) throws IOException {
+		if( finished )
+			throw new IOException("The zip file is already finished"); //$NON-NLS-1$
+		if( open != null )
+			throw new IOException("An entry is still being written"); //$NON-NLS-1$
+		Written w = new Written();
+		try {
+			w.name = name.getBytes("UTF-8"); //$NON-NLS-1$
+		} catch( UnsupportedEncodingException uee ) {
+			throw new IOException(uee.getMessage());
+		}
+		if( w.name.length > 0xffff )
+			throw new ZipException("Entry name too long: " + name); //$NON-NLS-1$
+		w.method = method;
+		w.directory = directory;
+		if( reproducible && (directory || !sourceTimes))
+			time = fixedTime;
+		w.dosTime = toDosTime(time, reproducible);
+		w.flags = FLAG_UTF8;
+		return w;
+	}
+
+	private void enqueue(Written w, Callable<Compressed> task, long bytes) throws IOException {
+		Pending p = new Pending();
+		p.entry = w;
+		p.bytes = bytes;
+		if( threads <= 1 ) {
+			FutureTask<Compressed> f = new FutureTask<Compressed>(task);
+			f.run();
+			p.result = f;
+		} else {
+			p.result = getPool(threads).submit(task);
+		}
+		pending.addLast(p);
+		queuedBytes += bytes;
+		drain(threads * 4);
+	}
+
+	/*
+	 * Write queued entries, in order, until at most max are left queued
+	 */
+	private void drain(int max) throws IOException {
+		while( !pending.isEmpty() && (pending.size() > max || queuedBytes > MAX_QUEUED_BYTES)) {
+			Pending p = pending.removeFirst();
+			queuedBytes -= p.bytes;
+			Compressed c;
+			try {
+				c = p.result.get();
+			} catch( InterruptedException ie ) {
+				Thread.currentThread().interrupt();
+				cancel();
+				throw new IOException("Interrupted while compressing " + new String(p.entry.name, "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+			} catch( ExecutionException ee ) {
+				cancel();
+				if( ee.getCause() instanceof IOException )
+					throw (IOException)ee.getCause();
+				IOException ioe = new IOException(String.valueOf(ee.getCause()));
+				ioe.initCause(ee.getCause());
+				throw ioe;
+			}
+			Written w = p.entry;
+			w.method = c.method;
+			w.crc = c.crc;
+			w.size = c.size;
+			w.compressedSize = c.length;
+			w.offset = out.count;
+			writeLocalHeader(w);
+			out.write(c.data, 0, c.length);
+			written.add(w);
+		}
+	}
+
+	/*
+	 * Compress a stream into memory, closing it. When sampling, a deflated
+	 * entry whose first bytes look incompressible is stored instead.
+	 */
+	private static Compressed compress(InputStream in, int method, int level, boolean sample) throws IOException {
+		Compressed c = new Compressed();
+		CRC32 crc = new CRC32();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = null;
+		byte[] buf = new byte[CompressionPolicy.SAMPLE_SIZE];
+		byte[] deflated = null;
+		try {
+			int r = sample ? CompressionPolicy.readSample(in, buf) : in.read(buf);
+			if( sample && r != -1 && CompressionPolicy.isIncompressible(buf, r))
+				method = ZipEntry.STORED;
+			c.method = method;
+			if( method == ZipEntry.DEFLATED ) {
+				deflater = new Deflater(level, true);
+				deflated = new byte[8192];
+			}
+			for( ; r != -1; r = in.read(buf) ) {
+				crc.update(buf, 0, r);
+				c.size += r;
+				if( deflater == null ) {
+					bytes.write(buf, 0, r);
+				} else {
+					deflater.setInput(buf, 0, r);
+					while( !deflater.needsInput()) {
+						int d = deflater.deflate(deflated, 0, deflated.length);
+						bytes.write(deflated, 0, d);
+					}
+				}
+			}
+			if( deflater != null ) {
+				deflater.finish();
+				while( !deflater.finished()) {
+					int d = deflater.deflate(deflated, 0, deflated.length);
+					bytes.write(deflated, 0, d);
+				}
+			}
+		} finally {
+			if( deflater != null )
+				deflater.end();
+			in.close();
+		}
+		c.crc = crc.getValue();
+		c.data = bytes.toByteArray();
+		c.length = c.data.length;
+		return c;
+	}
+
+	/*
+	 * Write a large file on the calling thread without holding it in memory.
+	 * Deflated entries are followed by a data descriptor, while stored ones
+	 * need their checksum up front and so are read twice.
+	 */
+	private void writeLarge(Written w, File source, int method) throws IOException {
+		w.offset = out.count;
+		byte[] buf = new byte[65536];
+		if( method == ZipEntry.STORED ) {
+			CRC32 crc = new CRC32();
+			InputStream in = new FileInputStream(source);
+			try {
+				int r;
+				while( (r = in.read(buf)) != -1 ) {
+					crc.update(buf, 0, r);
+					w.size += r;
+				}
+			} finally {
+				in.close();
+			}
+			w.crc = crc.getValue();
+			w.compressedSize = w.size;
+			writeLocalHeader(w);
+			in = new FileInputStream(source);
+			try {
+				long left = w.size;
+				int r;
+				while( left > 0 && (r = in.read(buf, 0, (int)Math.min(buf.length, left))) != -1 ) {
+					out.write(buf, 0, r);
+					left -= r;
+				}
+				if( left != 0 )
+					throw new IOException("File changed while being written: " + source); //$NON-NLS-1$
+			} finally {
+				in.close();
+			}
+			written.add(w);
+		} else {
+			w.flags |= FLAG_DESCRIPTOR;
+			writeLocalHeader(w);
+			open = new EntryOutputStream(w);
+			InputStream in = new FileInputStream(source);
+			try {
+				int r;
+				while( (r = in.read(buf)) != -1 )
+					open.write(buf, 0, r);
+			} finally {
+				in.close();
+			}
+			open.close();
+		}
+	}
+
+	/*
+	 * Entries with a data descriptor get their sizes there, so only large
+	 * stored entries need a zip64 extra field in their local header
+	 */
+	private void writeLocalHeader(Written w) throws IOException {
+		boolean descriptor = (w.flags & FLAG_DESCRIPTOR) != 0;
+		boolean zip64 = !descriptor && (w.size >= ZIP64_MAGIC || w.compressedSize >= ZIP64_MAGIC);
+		writeInt(LOCAL_HEADER);
+		writeShort(zip64 ? 45 : w.method == ZipEntry.STORED && !descriptor ? 10 : 20);
+		writeShort(w.flags);
+		writeShort(w.method);
+		writeInt(w.dosTime);
+		writeInt(descriptor ? 0 : w.crc);
+		writeInt(descriptor ? 0 : zip64 ? ZIP64_MAGIC : w.compressedSize);
+		writeInt(descriptor ? 0 : zip64 ? ZIP64_MAGIC : w.size);
+		writeShort(w.name.length);
+		writeShort(zip64 ? 20 : 0);
+		out.write(w.name);
+		if( zip64 ) {
+			writeShort(ZIP64_EXTRA);
+			writeShort(16);
+			writeLong(w.size);
+			writeLong(w.compressedSize);
+		}
+	}
+
+	/*
+	 * The sizes are 8 bytes long when either is too large for 4
+	 */
+	private void writeDataDescriptor(Written w) throws IOException {
+		writeInt(DATA_DESCRIPTOR);
+		writeInt(w.crc);
+		if( w.compressedSize >= ZIP64_MAGIC || w.size >= ZIP64_MAGIC ) {
+			writeLong(w.compressedSize);
+			writeLong(w.size);
+		} else {
+			writeInt(w.compressedSize);
+			writeInt(w.size);
+		}
+	}
+
+	/*
+	 * Whatever does not fit in its field is moved to a zip64 extra field
+	 */
+	private void writeCentralHeader(Written w) throws IOException {
+		boolean largeSize = w.size >= ZIP64_MAGIC;
+		boolean largeCompressed = w.compressedSize >= ZIP64_MAGIC;
+		boolean largeOffset = w.offset >= ZIP64_MAGIC;
+		int extra = (largeSize ? 8 : 0) + (largeCompressed ? 8 : 0) + (largeOffset ? 8 : 0);
+		int version = extra > 0 ? 45
+				: w.method == ZipEntry.STORED && (w.flags & FLAG_DESCRIPTOR) == 0 ? 10 : 20;
+		writeInt(CENTRAL_HEADER);
+		writeShort(version);
+		writeShort(version);
+		writeShort(w.flags);
+		writeShort(w.method);
+		writeInt(w.dosTime);
+		writeInt(w.crc);
+		writeInt(largeCompressed ? ZIP64_MAGIC : w.compressedSize);
+		writeInt(largeSize ? ZIP64_MAGIC : w.size);
+		writeShort(w.name.length);
+		writeShort(extra > 0 ? extra + 4 : 0);
+		writeShort(0);
+		writeShort(0);
+		writeShort(0);
+		writeInt(w.directory ? 0x10 : 0);
+		writeInt(largeOffset ? ZIP64_MAGIC : w.offset);
+		out.write(w.name);
+		if( extra > 0 ) {
+			writeShort(ZIP64_EXTRA);
+			writeShort(extra);
+			if( largeSize )
+				writeLong(w.size);
+			if( largeCompressed )
+				writeLong(w.compressedSize);
+			if( largeOffset )
+				writeLong(w.offset);
+		}
+	}
+
+	private void writeShort(int v) throws IOException {
+		out.write(v & 0xff);
+		out.write((v >>> 8) & 0xff);
+	}
+
+	private void writeInt(long v) throws IOException {
+		if( v > 0xffffffffL || v < 0 )
+			throw new ZipException("Value too large for a 4 byte field: " + v); //$NON-NLS-1$
+		out.write((int)(v & 0xff));
+		out.write((int)((v >>> 8) & 0xff));
+		out.write((int)((v >>> 16) & 0xff));
+		out.write((int)((v >>> 24) & 0xff));
+	}
+
+	private void writeLong(long v) throws IOException {
+		writeInt(v & 0xffffffffL);
+		writeInt(v >>> 32);
+	}
+
+	private static long toDosTime(long time, boolean utc) {
+		Calendar c = utc ? Calendar.getInstance(TimeZone.getTimeZone("UTC")) : Calendar.getInstance(); //$NON-NLS-1$
+		c.setTimeInMillis(time);
+		int year = c.get(Calendar.YEAR);
+		if( year < 1980 )
+			return (1 << 21) | (1 << 16);
+		return ((long)(year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21)
+			| (c.get(Calendar.DAY_OF_MONTH) << 16) | (c.get(Calendar.HOUR_OF_DAY) << 11)
+			| (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+	}
+
+	/*
+	 * Deflates an entry's contents straight to the output, and
+	 * ends it with its data descriptor once closed
+	 */
+	private class EntryOutputStream extends OutputStream {
+		private Written entry;
+		private long start = out.count;
+		private CRC32 crc = new CRC32();
+		private Deflater deflater = new Deflater(level, true);
+		private byte[] deflated = new byte[65536];
+		private EntryOutputStream(Written entry) {
+			this.entry = entry;
+		}
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			if( open != this )
+				throw new IOException("The entry is already closed"); //$NON-NLS-1$
+			crc.update(b, off, len);
+			entry.size += len;
+			deflater.setInput(b, off, len);
+			while( !deflater.needsInput())
+				out.write(deflated, 0, deflater.deflate(deflated, 0, deflated.length));
+		}
+		public void close() throws IOException {
+			if( open != this )
+				return;
+			open = null;
+			try {
+				deflater.finish();
+				while( !deflater.finished())
+					out.write(deflated, 0, deflater.deflate(deflated, 0, deflated.length));
+			} finally {
+				deflater.end();
+			}
+			entry.crc = crc.getValue();
+			entry.compressedSize = out.count - start;
+			writeDataDescriptor(entry);
+			written.add(entry);
+		}
+	}
+
+	/* A task which is already done */
+	private static class Done implements Callable<Compressed> {
+		private Compressed c;
+		private Done(Compressed c) {
+			this.c = c;
+		}
+		public Compressed call() {
+			return c;
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		private OutputStream delegate;
+		private long count = 0;
+		private CountingOutputStream(OutputStream delegate) {
+			this.delegate = delegate;
+		}
+		public void write(int b) throws IOException {
+			delegate.write(b);
+			count++;
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			delegate.write(b, off, len);
+			count += len;
+		}
+		public void flush() throws IOException {
+			delegate.flush();
+		}
+		public void close() throws IOException {
+			delegate.close();
+		}
+	}
+}
@@ -296,6 +296,21 @@ public abstract class AbstractScanner<T> implements Scanner <T> {
         return excludesPatterns.matches( name, tokenizedName, isCaseSensitive );
     }
 
+    /**
+     * Tests whether everything beneath a directory is excluded, because
+     * an exclude pattern is the directory's name followed by '**', such
+     * as "**&#47;target/**" for "a/target".
+     *
+     * @param name The name of the directory. Must not be <code>null</code>.
+     * @param tokenizedName The segments of the name
+     * @return <code>true</code> when no file or directory beneath the
+     *         directory can be included
+     */
+    protected boolean contentsExcluded( String name, String[] tokenizedName )
+    {
+        return excludesPatterns.matchesContents( name, tokenizedName, isCaseSensitive );
+    }
+
     /**
      * Adds default exclusions to the current exclusions set.
      */
@@ -22,6 +22,10 @@ import org.jboss.tools.archives.scanner.internal.TreeNodeFile;
 public class FilesystemDirectoryScanner extends VirtualDirectoryScanner<TreeNodeFile> {
     private boolean followSymlinks = true;
     
+    public FilesystemDirectoryScanner() {
+        setParallel( true );
+    }
+
     public void setBasedir( File basedir ) {
     	super.setBasedir(new TreeNodeFile(basedir));
     }
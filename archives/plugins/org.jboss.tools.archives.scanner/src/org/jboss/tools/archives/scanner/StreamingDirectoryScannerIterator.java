@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.tools.archives.scanner;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An iterator over the matches of a scan running on another thread.
+ *
+ * Where a {@link DirectoryScannerIterator} scans on the caller's thread
+ * whenever it runs out of matches, this one is fed by a scan which runs
+ * to the end on its own, so the caller can work on each match while the
+ * scan goes on. At most a fixed number of matches wait to be taken:
+ * beyond that, the scan waits for the caller.
+ *
+ * A caller which stops before the end must {@link #close()} the iterator
+ * so that the scan stops as well. An error of the scan is thrown
+ * by {@link #hasNext()}.
+ *
+ * @see VirtualDirectoryScanner#streamingIterator()
+ */
+public class StreamingDirectoryScannerIterator<T> implements Iterator<T> {
+	/**
+	 * The number of matches which may wait for the caller by default
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/* marks the end of the scan in the queue */
+	private static final Object END = new Object();
+
+	private BlockingQueue<Object> queue;
+	private volatile boolean closed = false;
+	private Throwable error;
+	private boolean done = false;
+	private T next;
+
+	public StreamingDirectoryScannerIterator(int capacity) {
+		this.queue = new ArrayBlockingQueue<Object>(Math.max(1, capacity));
+	}
+
+
+	/**
+	 * Hand a match to the caller, waiting while too many are waiting already.
+	 * Called on the scanning thread.
+	 *
+	 * @throws CancellationException if the iterator was closed
+	 */
+	public void addMatch(T file, String vpath) {
+		put(file);
+	}
+
+	/**
+	 * Mark the end of the scan. Called on the scanning thread.
+	 *
+	 * @param t the error the scan ended with, or null
+	 */
+	public void finish(Throwable t) {
+		error = t;
+		try {
+			put(END);
+		} catch( CancellationException ce ) {
+			// nobody is waiting any more
+		}
+	}
+
+	private void put(Object o) {
+		try {
+			while( !queue.offer(o, 100, TimeUnit.MILLISECONDS)) {
+				if( closed )
+					throw new CancellationException();
+			}
+		} catch( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException();
+		}
+		if( closed && o != END )
+			throw new CancellationException();
+	}
+
+	/**
+	 * Stop the scan and drop the matches not taken yet
+	 */
+	public void close() {
+		closed = true;
+		done = true;
+		next = null;
+		queue.clear();
+	}
+
+	/**
+	 * Whether the iterator was closed before the end of the scan
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Wait for the next match, or for the end of the scan
+	 */
+	public boolean hasNext() {
+		if( next != null )
+			return true;
+		if( done )
+			return false;
+		Object o;
+		try {
+			o = queue.take();
+		} catch( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new CancellationException();
+		}
+		if( o == END ) {
+			done = true;
+			if( error instanceof RuntimeException )
+				throw (RuntimeException)error;
+			if( error instanceof Error )
+				throw (Error)error;
+			if( error != null )
+				throw new RuntimeException(error);
+			return false;
+		}
+		// only matches and END are ever queued
+		@SuppressWarnings("unchecked")
+		T match = (T)o;
+		next = match;
+		return true;
+	}
+
+	public T next() {
+		if( !hasNext())
+			throw new NoSuchElementException();
+		T ret = next;
+		next = null;
+		return ret;
+	}
+
+	/**
+	 * Unsupported remove
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
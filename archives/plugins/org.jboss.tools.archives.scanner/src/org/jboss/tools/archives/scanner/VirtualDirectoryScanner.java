@@ -56,9 +56,15 @@ package org.jboss.tools.archives.scanner;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+import org.jboss.tools.archives.scanner.internal.ListingExecutor;
 import org.jboss.tools.archives.scanner.internal.MatchPattern;
 
 /**
@@ -254,6 +260,32 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
     
     protected IDirectoryScannerIterator<T> iterator = null;
 
+    /**
+     * The iterator fed by a streaming scan, or null.
+     * A streaming scan records none of the lists of names.
+     */
+    protected StreamingDirectoryScannerIterator<T> stream = null;
+
+    /**
+     * Whether the directories a scan is about to descend into
+     * are listed ahead of time on other threads.
+     */
+    protected boolean parallel = false;
+
+    /*
+     * Listings started ahead of the walk, by the path of their directory.
+     * Only ever touched by the scanning thread.
+     */
+    private Map<String, FutureTask<Listing>> pending = new HashMap<String, FutureTask<Listing>>();
+
+    /*
+     * The children of a directory, and which of them are directories
+     */
+    private static class Listing {
+        private ITreeNode[] children;
+        private boolean[] dirs;
+    }
+
     /**
      * Patterns which should be excluded by default.
      *
@@ -334,6 +366,27 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
         this.basedir = basedir;
     }
 
+    /**
+     * Sets whether subdirectories are listed in parallel. Only listing
+     * directories and telling which children are directories moves to
+     * other threads: matching and recording the results stays on the
+     * scanning thread, in the same order as a sequential scan, so the
+     * results are the same either way. Subclasses turning this on must
+     * make {@link #listChildren(ITreeNode)} and {@link #isDirectory(ITreeNode)}
+     * safe to call from several threads. Iterating through the results
+     * never scans in parallel.
+     *
+     * @param parallel whether to list subdirectories in parallel
+     * @see ListingExecutor#THREADS_PROPERTY
+     */
+    public void setParallel( boolean parallel ) {
+        this.parallel = parallel && ListingExecutor.getThreads() > 1;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
     /**
      * Returns the base directory to be scanned.
      * This is the directory which is scanned recursively.
@@ -365,8 +418,14 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
      *                               or isn't a directory).
      */
     public void scan() throws IllegalStateException {
+    	// neither an earlier iterator() nor streamingIterator() collects this scan
+    	iterator = null;
     	scanPrepare();
-        scandirWrap( basedir, "", true );//$NON-NLS-1$
+    	try {
+    		scandirWrap( basedir, "", true );//$NON-NLS-1$
+    	} finally {
+    		cancelPending();
+    	}
     }
 
     /*
@@ -374,6 +433,7 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
      * from the beginning of the actual scanning. Mostly just readability. 
      */
     protected void scanPrepare() throws IllegalStateException {
+        stream = null;
         if ( basedir == null ) {
             throw new IllegalStateException( "No basedir set" ); //$NON-NLS-1$
         }
@@ -430,16 +490,20 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
         String[] notIncl = new String[dirsNotIncluded.size()];
         dirsNotIncluded.copyInto( notIncl );
 
-        for ( String anExcl : excl ) {
-            if ( !couldHoldIncluded( anExcl ) ) {
-                scandir( getChild(basedir, anExcl ), anExcl + File.separator, false );
+        try {
+            for ( String anExcl : excl ) {
+                if ( !couldHoldIncluded( anExcl ) ) {
+                    scandir( getChild(basedir, anExcl ), anExcl + File.separator, false );
+                }
             }
-        }
 
-        for ( String aNotIncl : notIncl ) {
-            if ( !couldHoldIncluded( aNotIncl ) ) {
-                scandir( getChild( basedir, aNotIncl ), aNotIncl + File.separator, false );
+            for ( String aNotIncl : notIncl ) {
+                if ( !couldHoldIncluded( aNotIncl ) ) {
+                    scandir( getChild( basedir, aNotIncl ), aNotIncl + File.separator, false );
+                }
             }
+        } finally {
+            cancelPending();
         }
 
         haveSlowResults = true;
@@ -466,7 +530,8 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
      */
     protected void scandir( ITreeNode dir, String vpath, boolean fast ) {
     	 // LINE MODIFIED FOR JBOSS TOOLS;  was  dir.list();
-    	ITreeNode[] newfiles = listChildren(dir);
+    	Listing listing = takeListing( dir, vpath );
+    	ITreeNode[] newfiles = listing.children;
         
         if ( newfiles == null )
         {
@@ -497,18 +562,39 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
 
         trimInapplicableEntries(newfiles, dir, vpath);
 
+        String[] names = new String[newfiles.length];
+        for ( int i = 0; i < newfiles.length; i++ ) {
+            names[i] = vpath + getName(newfiles[i]);
+        }
+
+        String[][] tokenizedNames = new String[newfiles.length][];
+        for ( int i = 0; i < newfiles.length; i++ ) {
+            tokenizedNames[i] = MatchPattern.tokenizePathToString( names[i], File.separator );
+        }
+
+        if ( parallel && iterator == null ) {
+            // start listing the subdirectories the walk below will descend into
+            for ( int i = 0; i < newfiles.length; i++ ) {
+                if ( listing.dirs[i] && ( !fast || mayHoldIncluded( names[i], tokenizedNames[i] ) ) ) {
+                    startListing( newfiles[i], names[i] + File.separator );
+                }
+            }
+        }
+
         // Run scanner on files to track (excluding symlinks if we are ignoring symlinks)
-        for ( ITreeNode newfile : newfiles ) {
-            String name = vpath + getName(newfile);
-            String[] tokenizedName =  MatchPattern.tokenizePathToString( name, File.separator );
-            ITreeNode file = newfile;
-            if ( isDirectory(file) ) {
+        for ( int i = 0; i < newfiles.length; i++ ) {
+            String name = names[i];
+            String[] tokenizedName = tokenizedNames[i];
+            ITreeNode file = newfiles[i];
+            if ( listing.dirs[i] ) {
                 if ( isIncluded( name, tokenizedName ) ) {
-                	accountForIncludedDir(name, (T)file, fast);
+                	accountForIncludedDir(name, tokenizedName, (T)file, fast);
                 } else {
                     everythingIncluded = false;
-                    dirsNotIncluded.addElement( name );
-                    if ( fast && couldHoldIncluded( name ) ) {
+                    if ( stream == null ) {
+                        dirsNotIncluded.addElement( name );
+                    }
+                    if ( fast && mayHoldIncluded( name, tokenizedName ) ) {
                         scandirWrap( (T)file, name + File.separator, fast );
                     }
                 }
@@ -522,12 +608,78 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
                     accountForIncludedFile(name, (T)file);
                 } else {
                     everythingIncluded = false;
-                    filesNotIncluded.addElement( name );
+                    if ( stream == null ) {
+                        filesNotIncluded.addElement( name );
+                    }
                 }
             }
         }
     }
 
+    /*
+     * List a directory, and tell which of its children are directories
+     */
+    private Listing list( ITreeNode dir ) {
+        Listing listing = new Listing();
+        listing.children = listChildren( dir );
+        if ( listing.children != null ) {
+            listing.dirs = new boolean[listing.children.length];
+            for ( int i = 0; i < listing.children.length; i++ ) {
+                listing.dirs[i] = isDirectory( listing.children[i] );
+            }
+        }
+        return listing;
+    }
+
+    private void startListing( final ITreeNode dir, String vpath ) {
+        FutureTask<Listing> task = new FutureTask<Listing>( new Callable<Listing>() {
+            public Listing call() {
+                return list( dir );
+            }
+        } );
+        pending.put( vpath, task );
+        ListingExecutor.execute( task );
+    }
+
+    /*
+     * Get the listing of a directory, either the one started
+     * ahead of time or a new one
+     */
+    private Listing takeListing( ITreeNode dir, String vpath ) {
+        FutureTask<Listing> task = pending.remove( vpath );
+        if ( task == null ) {
+            return list( dir );
+        }
+        // does nothing if a pool thread got to it first
+        task.run();
+        try {
+            return task.get();
+        } catch ( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            return list( dir );
+        } catch ( ExecutionException ee ) {
+            Throwable cause = ee.getCause();
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException( cause );
+        }
+    }
+
+    /*
+     * Drop the listings a finished or failed scan did not get to
+     */
+    private void cancelPending() {
+        Iterator<FutureTask<Listing>> i = pending.values().iterator();
+        while ( i.hasNext() ) {
+            i.next().cancel( false );
+        }
+        pending.clear();
+    }
+
     /**
      * "Selectors are not used in this api, but this code is unmodified
      * from the plexus-utils version. Theoretically, subclasses
@@ -747,12 +899,25 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
      * @param file directory as File.
      * @param fast whether to perform fast scans.
      */
-    private void accountForIncludedDir(String name, T file, boolean fast) {
+    private void accountForIncludedDir(String name, String[] tokenizedName, T file, boolean fast) {
         processIncluded(name, file, dirsIncluded, dirsExcluded, dirsDeselected);
-        if (couldHoldIncluded(name)) {
+        if (fast ? mayHoldIncluded(name, tokenizedName) : couldHoldIncluded(name)) {
             scandirWrap(file, name + File.separator, fast);
         }
     }
+
+    /**
+     * Whether a fast scan must descend into a directory: some include
+     * pattern may match beneath it, and the excludes do not rule out
+     * everything beneath it. A directory such as "a/.svn" under an
+     * exclude of "**&#47;.svn/**" is then never listed at all.
+     *
+     * @param name path of the directory relative to the base directory
+     * @param tokenizedName the segments of the path
+     */
+    protected boolean mayHoldIncluded(String name, String[] tokenizedName) {
+        return couldHoldIncluded(name) && !contentsExcluded(name, tokenizedName);
+    }
     
     /**
      * Process included file.
@@ -777,17 +942,19 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
      * @param des
      */
     protected void processIncluded(String name, T file, Vector<String> inc, Vector<String> exc, Vector<String> des) {
-        if (inc.contains(name) || exc.contains(name) || des.contains(name)) { return; }
+        // a streaming scan visits each name once, and keeps no lists
+        boolean record = stream == null;
+        if (record && (inc.contains(name) || exc.contains(name) || des.contains(name))) { return; }
         boolean included = false;
         if (isExcluded(name)) {
-            exc.add(name);
+            if (record) exc.add(name);
             postExclude(file, name);
         } else if (isSelected(name, file)) {
             included = true;
-            inc.add(name);
+            if (record) inc.add(name);
             postInclude(file, name);
         } else {
-            des.add(name);
+            if (record) des.add(name);
         }
         everythingIncluded &= included;
     }
@@ -801,6 +968,8 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
     protected void postInclude(T f, String name) {
     	if( iterator != null ) {
     		iterator.addMatch(f, name);
+    	} else if( stream != null ) {
+    		stream.addMatch(f, name);
     	}
     }
 
@@ -822,6 +991,48 @@ public class VirtualDirectoryScanner<T extends ITreeNode> extends AbstractScanne
     	return iterator;
     }
 
+    /**
+     * Scan on another thread, handing back the included files and
+     * directories as they are found instead of once the scan is over.
+     *
+     * @see #streamingIterator(int)
+     */
+    public StreamingDirectoryScannerIterator<T> streamingIterator() {
+        return streamingIterator( StreamingDirectoryScannerIterator.DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Scan on another thread, handing back the included files and
+     * directories as they are found instead of once the scan is over.
+     * The scan does not keep the names it finds, so the getters for
+     * included, excluded and not included names return nothing after it.
+     * Scans run on a bounded pool, see {@link ListingExecutor#executeScan(Runnable)},
+     * so an iterator the caller stops taking matches from must be closed.
+     *
+     * @param capacity the most matches to hold waiting for the caller
+     * @throws IllegalStateException if the base directory was set incorrectly
+     */
+    public StreamingDirectoryScannerIterator<T> streamingIterator( int capacity ) {
+        final StreamingDirectoryScannerIterator<T> s = new StreamingDirectoryScannerIterator<T>( capacity );
+        scanPrepare();
+        stream = s;
+        ListingExecutor.executeScan( new Runnable() {
+            public void run() {
+                Throwable error = null;
+                try {
+                    scandir( basedir, "", true );//$NON-NLS-1$
+                } catch ( Throwable th ) {
+                    error = th;
+                } finally {
+                    cancelPending();
+                }
+                // closing the iterator stops the scan with a CancellationException
+                s.finish( s.isClosed() ? null : error );
+            }
+        } );
+        return s;
+    }
+
 
     /**
      * Get a list of child files from this file. 
@@ -0,0 +1,391 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.tools.archives.scanner.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A set of patterns compiled into one automaton over path segments,
+ * so that a path is checked against every pattern in a single pass
+ * rather than once per pattern.
+ * <p/>
+ * The ant style patterns are merged into a trie of their segments, last
+ * segment first, since patterns tell each other apart by the file name
+ * ("**\*.xml", "**\*.properties") far more often than by the
+ * first directory. Patterns ending with the same segments share nodes.
+ * A '**' segment leads to a node which may consume any number of
+ * segments. Matching a path walks the trie with the set of nodes
+ * reachable so far, one segment at a time from the file name up.
+ * <p/>
+ * Literal segments are looked up by name, and "*suffix" segments
+ * by the extension of their suffix, so that only the wildcards which
+ * may match are tried. Wildcard segments of the common "prefix*",
+ * "*suffix" and "*" shapes are compared without the general matcher.
+ * <p/>
+ * Regular expression patterns cannot be split into segments, and
+ * are checked against the whole path after the trie.
+ *
+ * @noinstantiate This class is not intended to be instantiated by clients.
+ */
+public final class CompiledPatterns
+{
+    private static final int ANY = 0;
+    private static final int PREFIX = 1;
+    private static final int SUFFIX = 2;
+    private static final int PREFIX_SUFFIX = 3;
+    private static final int GENERAL = 4;
+
+    /*
+     * A wildcard segment and the node it leads to
+     */
+    private static class Segment
+    {
+        private final String source;
+        private final char[] chars;
+        private final int kind;
+        private final String prefix;
+        private final String suffix;
+        private final Node next = new Node();
+
+        private Segment( String source )
+        {
+            this.source = source;
+            this.chars = source.toCharArray();
+            int first = source.indexOf( '*' );
+            int last = source.lastIndexOf( '*' );
+            boolean stars = first != -1 && source.indexOf( '?' ) == -1;
+            if ( stars && source.replace( "*", "" ).length() == 0 ) //$NON-NLS-1$ //$NON-NLS-2$
+            {
+                kind = ANY;
+            }
+            else if ( stars && first == last )
+            {
+                prefix = source.substring( 0, first );
+                suffix = source.substring( first + 1 );
+                kind = prefix.length() == 0 ? SUFFIX : suffix.length() == 0 ? PREFIX : PREFIX_SUFFIX;
+                return;
+            }
+            else
+            {
+                kind = GENERAL;
+            }
+            prefix = null;
+            suffix = null;
+        }
+
+        private boolean matches( String segment, boolean isCaseSensitive )
+        {
+            switch ( kind )
+            {
+                case ANY:
+                    return true;
+                case PREFIX:
+                    return segment.regionMatches( !isCaseSensitive, 0, prefix, 0, prefix.length() );
+                case SUFFIX:
+                    return segment.regionMatches( !isCaseSensitive, segment.length() - suffix.length(),
+                                                  suffix, 0, suffix.length() );
+                case PREFIX_SUFFIX:
+                    return segment.length() >= prefix.length() + suffix.length()
+                        && segment.regionMatches( !isCaseSensitive, 0, prefix, 0, prefix.length() )
+                        && segment.regionMatches( !isCaseSensitive, segment.length() - suffix.length(),
+                                                  suffix, 0, suffix.length() );
+                default:
+                    return SelectorUtils.match( chars, segment.toCharArray(), isCaseSensitive );
+            }
+        }
+    }
+
+    private static class Node
+    {
+        /* children reached by a segment without wildcards, by name */
+        private HashMap<String, Node> literals;
+        /* the same children, by name folded to one case */
+        private HashMap<String, ArrayList<Node>> folded;
+        /* children reached by "*suffix" segments, by the folded extension of the suffix */
+        private HashMap<String, ArrayList<Segment>> byExtension;
+        /* children reached by other wildcard segments */
+        private ArrayList<Segment> wildcards;
+        /* the node after a '**' following this one */
+        private Node doubleStar;
+        /* whether this node follows a '**', and so may consume any segment */
+        private boolean loops;
+        /* whether a pattern ends here */
+        private boolean accepts;
+    }
+
+    private final Node root = new Node();
+
+    private final Pattern[] regexes;
+
+    /**
+     * @param patterns the patterns to compile
+     */
+    public CompiledPatterns( MatchPattern[] patterns )
+    {
+        ArrayList<Pattern> regexList = new ArrayList<Pattern>();
+        for ( MatchPattern pattern : patterns )
+        {
+            if ( pattern.getRegexPattern() != null )
+            {
+                regexList.add( Pattern.compile( pattern.getRegexPattern() ) );
+            }
+            else
+            {
+                add( pattern.getTokenizedPathString() );
+            }
+        }
+        regexes = regexList.toArray( new Pattern[regexList.size()] );
+    }
+
+    private void add( String[] segments )
+    {
+        Node node = root;
+        for ( int i = segments.length - 1; i >= 0; i-- )
+        {
+            String segment = segments[i];
+            if ( segment.equals( "**" ) ) //$NON-NLS-1$
+            {
+                if ( !node.loops )
+                {
+                    if ( node.doubleStar == null )
+                    {
+                        node.doubleStar = new Node();
+                        node.doubleStar.loops = true;
+                    }
+                    node = node.doubleStar;
+                }
+            }
+            else if ( segment.indexOf( '*' ) == -1 && segment.indexOf( '?' ) == -1 )
+            {
+                if ( node.literals == null )
+                {
+                    node.literals = new HashMap<String, Node>();
+                    node.folded = new HashMap<String, ArrayList<Node>>();
+                }
+                Node next = node.literals.get( segment );
+                if ( next == null )
+                {
+                    next = new Node();
+                    node.literals.put( segment, next );
+                    ArrayList<Node> sameName = node.folded.get( fold( segment ) );
+                    if ( sameName == null )
+                    {
+                        sameName = new ArrayList<Node>( 1 );
+                        node.folded.put( fold( segment ), sameName );
+                    }
+                    sameName.add( next );
+                }
+                node = next;
+            }
+            else
+            {
+                String extension = getExtension( segment );
+                ArrayList<Segment> list;
+                if ( extension != null && segment.lastIndexOf( '*' ) == 0 && segment.indexOf( '?' ) == -1 )
+                {
+                    if ( node.byExtension == null )
+                    {
+                        node.byExtension = new HashMap<String, ArrayList<Segment>>();
+                    }
+                    list = node.byExtension.get( fold( extension ) );
+                    if ( list == null )
+                    {
+                        list = new ArrayList<Segment>( 1 );
+                        node.byExtension.put( fold( extension ), list );
+                    }
+                }
+                else
+                {
+                    if ( node.wildcards == null )
+                    {
+                        node.wildcards = new ArrayList<Segment>();
+                    }
+                    list = node.wildcards;
+                }
+                Segment next = null;
+                for ( Segment s : list )
+                {
+                    if ( s.source.equals( segment ) )
+                    {
+                        next = s;
+                        break;
+                    }
+                }
+                if ( next == null )
+                {
+                    next = new Segment( segment );
+                    list.add( next );
+                }
+                node = next.next;
+            }
+        }
+        node.accepts = true;
+    }
+
+    /*
+     * The text after the last '.' of a name, or null if it has none
+     */
+    private static String getExtension( String name )
+    {
+        int dot = name.lastIndexOf( '.' );
+        return dot == -1 ? null : name.substring( dot + 1 );
+    }
+
+    /*
+     * Fold a name to one case, the way String.equalsIgnoreCase compares characters
+     */
+    private static String fold( String s )
+    {
+        char[] chars = s.toCharArray();
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            chars[i] = Character.toLowerCase( Character.toUpperCase( chars[i] ) );
+        }
+        return new String( chars );
+    }
+
+    /**
+     * Whether any of the patterns matches a path
+     *
+     * @param name the path
+     * @param tokenizedName the segments of the path
+     * @param isCaseSensitive whether names are compared case sensitively
+     */
+    public boolean matches( String name, String[] tokenizedName, boolean isCaseSensitive )
+    {
+        if ( matchesTrie( tokenizedName, isCaseSensitive ) )
+        {
+            return true;
+        }
+        for ( Pattern regex : regexes )
+        {
+            if ( regex.matcher( name ).matches() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesTrie( String[] segments, boolean isCaseSensitive )
+    {
+        ArrayList<Node> active = new ArrayList<Node>();
+        addReachable( active, root );
+        ArrayList<Node> next = new ArrayList<Node>();
+        for ( int s = segments.length - 1; s >= 0; s-- )
+        {
+            String segment = segments[s];
+            String folded = null;
+            String extension = null;
+            for ( int i = 0; i < active.size(); i++ )
+            {
+                Node node = active.get( i );
+                if ( node.loops )
+                {
+                    if ( node.accepts )
+                    {
+                        // ends with '**', so matches whatever remains
+                        return true;
+                    }
+                    addReachable( next, node );
+                }
+                if ( node.literals != null )
+                {
+                    if ( isCaseSensitive )
+                    {
+                        Node child = node.literals.get( segment );
+                        if ( child != null )
+                        {
+                            addReachable( next, child );
+                        }
+                    }
+                    else
+                    {
+                        if ( folded == null )
+                        {
+                            folded = fold( segment );
+                        }
+                        ArrayList<Node> children = node.folded.get( folded );
+                        if ( children != null )
+                        {
+                            for ( Node child : children )
+                            {
+                                addReachable( next, child );
+                            }
+                        }
+                    }
+                }
+                if ( node.byExtension != null )
+                {
+                    if ( extension == null )
+                    {
+                        extension = getExtension( segment );
+                        extension = extension == null ? "" : fold( extension ); //$NON-NLS-1$
+                    }
+                    // the suffixes all hold a '.', so a name without one matches none
+                    ArrayList<Segment> candidates = segment.indexOf( '.' ) == -1
+                        ? null : node.byExtension.get( extension );
+                    if ( candidates != null )
+                    {
+                        addMatching( next, candidates, segment, isCaseSensitive );
+                    }
+                }
+                if ( node.wildcards != null )
+                {
+                    addMatching( next, node.wildcards, segment, isCaseSensitive );
+                }
+            }
+            if ( next.isEmpty() )
+            {
+                return false;
+            }
+            ArrayList<Node> tmp = active;
+            active = next;
+            next = tmp;
+            next.clear();
+        }
+        for ( Node node : active )
+        {
+            if ( node.accepts )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addMatching( ArrayList<Node> nodes, ArrayList<Segment> segments, String segment,
+                                     boolean isCaseSensitive )
+    {
+        for ( int i = 0; i < segments.size(); i++ )
+        {
+            Segment s = segments.get( i );
+            if ( s.matches( segment, isCaseSensitive ) )
+            {
+                addReachable( nodes, s.next );
+            }
+        }
+    }
+
+    /*
+     * Add a node, and the nodes a '**' matching no segment leads to from it
+     */
+    private static void addReachable( ArrayList<Node> nodes, Node node )
+    {
+        while ( node != null && !nodes.contains( node ) )
+        {
+            nodes.add( node );
+            node = node.doubleStar;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.tools.archives.scanner.internal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads directories are listed on during a parallel scan,
+ * and the threads streaming scans run on. One pool of daemon threads
+ * for each is shared by every scanner, so concurrent scans do not
+ * multiply the number of threads.
+ *
+ * @noinstantiate This class is not intended to be instantiated by clients.
+ */
+public class ListingExecutor {
+    /**
+     * A system property with the number of threads to list directories on.
+     * Defaults to the number of processors, and never less than 2;
+     * 1 turns parallel scanning off.
+     */
+    public static final String THREADS_PROPERTY = "org.jboss.tools.archives.scanner.threads"; //$NON-NLS-1$
+
+    private static ExecutorService pool;
+    private static ExecutorService scanPool;
+
+    private ListingExecutor() {
+    }
+
+    public static int getThreads() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        String prop = System.getProperty(THREADS_PROPERTY);
+        if ( prop != null ) {
+            try {
+                threads = Integer.parseInt(prop.trim());
+            } catch ( NumberFormatException nfe ) {
+                // keep the default
+            }
+        }
+        return Math.max(1, threads);
+    }
+
+    public static synchronized void execute(Runnable r) {
+        if ( pool == null ) {
+            pool = createPool("Archives Scanner "); //$NON-NLS-1$
+        }
+        pool.execute(r);
+    }
+
+    /**
+     * Run a whole scan on another thread. Scans have a pool of their
+     * own, as a streaming scan waits for its caller to take its matches
+     * and must not hold up the listings of other scans meanwhile.
+     * At most {@link #getThreads()} scans run at once; the others
+     * start as soon as one of them ends or is closed.
+     */
+    public static synchronized void executeScan(Runnable r) {
+        if ( scanPool == null ) {
+            scanPool = createPool("Archives Scanner Stream "); //$NON-NLS-1$
+        }
+        scanPool.execute(r);
+    }
+
+    private static ExecutorService createPool(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(getThreads(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+}
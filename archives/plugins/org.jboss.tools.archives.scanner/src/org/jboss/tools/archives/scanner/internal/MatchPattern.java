@@ -87,6 +87,14 @@ public class MatchPattern
         }
     }
 
+    /**
+     * The regular expression, if this is a %regex[] pattern
+     */
+    String getRegexPattern()
+    {
+        return regexPattern;
+    }
+
     public String[] getTokenizedPathString()
     {
         return tokenized;
@@ -16,6 +16,7 @@
 package org.jboss.tools.archives.scanner.internal;
 
 import java.io.File;
+import java.util.ArrayList;
 
 /**
  * A list of patterns to be matched
@@ -31,9 +32,49 @@ public class MatchPatterns
 {
     private final MatchPattern[] patterns;
 
+    private final CompiledPatterns compiled;
+
+    /* the patterns ending with '**', without it */
+    private final CompiledPatterns contents;
+
     private MatchPatterns( MatchPattern[] patterns )
     {
         this.patterns = patterns;
+        this.compiled = new CompiledPatterns( patterns );
+        this.contents = new CompiledPatterns( getContentsPatterns( patterns ) );
+    }
+
+    /*
+     * "a/b/**" matches everything beneath a folder matching "a/b",
+     * so a folder matching "a/b" holds nothing but matches
+     */
+    private static MatchPattern[] getContentsPatterns( MatchPattern[] patterns )
+    {
+        ArrayList<MatchPattern> result = new ArrayList<MatchPattern>();
+        for ( MatchPattern pattern : patterns )
+        {
+            if ( pattern.getRegexPattern() != null )
+            {
+                continue;
+            }
+            String[] segments = pattern.getTokenizedPathString();
+            int end = segments.length;
+            while ( end > 0 && segments[end - 1].equals( "**" ) ) //$NON-NLS-1$
+            {
+                end--;
+            }
+            if ( end == segments.length || end == 0 )
+            {
+                continue;
+            }
+            StringBuilder folder = new StringBuilder( segments[0] );
+            for ( int i = 1; i < end; i++ )
+            {
+                folder.append( File.separatorChar ).append( segments[i] );
+            }
+            result.add( MatchPattern.fromString( folder.toString() ) );
+        }
+        return result.toArray( new MatchPattern[result.size()] );
     }
 
     /**
@@ -53,18 +94,22 @@ public class MatchPatterns
 
     public boolean matches( String name, String[] tokenizedName, boolean isCaseSensitive )
     {
-        char[][] tokenizedNameChar = new char[tokenizedName.length][];
-        for(int i = 0;  i < tokenizedName.length; i++){
-        tokenizedNameChar[i] = tokenizedName[i].toCharArray();
-        }
-        for ( MatchPattern pattern : patterns )
-        {
-            if ( pattern.matchPath( name, tokenizedNameChar, isCaseSensitive ) )
-            {
-                return true;
-            }
-        }
-        return false;
+        // every pattern at once, see CompiledPatterns
+        return compiled.matches( name, tokenizedName, isCaseSensitive );
+    }
+
+    /**
+     * Checks whether everything beneath a folder matches, because
+     * one of these patterns is the folder's path followed by '**'.
+     *
+     * @param name            The path of the folder
+     * @param tokenizedName   The segments of the path
+     * @param isCaseSensitive If the comparison is case sensitive
+     * @return true if every path beneath the folder matches
+     */
+    public boolean matchesContents( String name, String[] tokenizedName, boolean isCaseSensitive )
+    {
+        return contents.matches( name, tokenizedName, isCaseSensitive );
     }
 
     public boolean matchesPatternStart( String name, boolean isCaseSensitive )
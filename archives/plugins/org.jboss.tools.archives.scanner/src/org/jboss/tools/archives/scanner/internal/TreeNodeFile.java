@@ -24,6 +24,9 @@ public class TreeNodeFile extends java.io.File implements ITreeNode {
 
 	private static final long serialVersionUID = 60592058953093602L;
 
+	// a scan asks for the type of each node several times, so it is read once
+	private transient Boolean leaf;
+
 	public TreeNodeFile(File parent) {
 		super(parent.getAbsolutePath());
 	}
@@ -33,7 +36,9 @@ public class TreeNodeFile extends java.io.File implements ITreeNode {
 	}
 
 	public boolean isLeaf() {
-		return !isDirectory();
+		if( leaf == null )
+			leaf = Boolean.valueOf(!isDirectory());
+		return leaf.booleanValue();
 	}
 
 	public ITreeNode getChild(String name) {
@@ -42,6 +47,8 @@ public class TreeNodeFile extends java.io.File implements ITreeNode {
 
 	public ITreeNode[] listChildren() {
 		String[] children = list();
+		if( children == null )
+			return null;
 		TreeNodeFile[] ret = new TreeNodeFile[children.length];
 		for( int i = 0; i < children.length; i++ ) {
 			ret[i] = new TreeNodeFile(this, children[i]);
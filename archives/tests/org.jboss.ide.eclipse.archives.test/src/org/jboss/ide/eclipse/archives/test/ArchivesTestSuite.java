@@ -15,13 +15,16 @@ import junit.framework.TestSuite;
 
 import org.jboss.ide.eclipse.archives.test.core.ArchivesCoreTest;
 import org.jboss.ide.eclipse.archives.test.core.ant.SimpleAntTest;
+import org.jboss.ide.eclipse.archives.test.model.BuildListenerTest;
 import org.jboss.ide.eclipse.archives.test.model.DirectoryScannerModelTest;
 import org.jboss.ide.eclipse.archives.test.model.DirectoryScannerRegexTest;
 import org.jboss.ide.eclipse.archives.test.model.DirectoryScannerTest;
+import org.jboss.ide.eclipse.archives.test.model.ExternalFilesetWatcherTest;
 import org.jboss.ide.eclipse.archives.test.model.FilesetMatchesPathTest;
 import org.jboss.ide.eclipse.archives.test.model.ModelCreationTest;
 import org.jboss.ide.eclipse.archives.test.model.ModelTruezipBridgeTest;
 import org.jboss.ide.eclipse.archives.test.model.ModelUtilTest;
+import org.jboss.ide.eclipse.archives.test.model.ParallelBuildTest;
 import org.jboss.ide.eclipse.archives.test.model.ReadWriteTest;
 import org.jboss.ide.eclipse.archives.test.model.XBMarshallTest;
 import org.jboss.ide.eclipse.archives.test.model.XBUnmarshallTest;
@@ -33,6 +36,10 @@ import org.jboss.ide.eclipse.archives.test.projects.JBIDE2311Test;
 import org.jboss.ide.eclipse.archives.test.projects.JBIDE2315Test;
 import org.jboss.ide.eclipse.archives.test.projects.JBIDE2439Test;
 import org.jboss.ide.eclipse.archives.test.ui.BuildActionTest;
+import org.jboss.ide.eclipse.archives.test.util.DirectoryListingCacheTest;
+import org.jboss.ide.eclipse.archives.test.util.OutputContributionMapTest;
+import org.jboss.ide.eclipse.archives.test.util.ParallelZipWriterTest;
+import org.jboss.ide.eclipse.archives.test.util.StreamingArchiveWriterTest;
 import org.jboss.ide.eclipse.archives.test.util.TruezipUtilTest;
 
 public class ArchivesTestSuite extends TestSuite {
@@ -51,6 +58,13 @@ public class ArchivesTestSuite extends TestSuite {
         suite.addTestSuite(ModelTruezipBridgeTest.class);
         suite.addTestSuite(SimpleAntTest.class);
         suite.addTestSuite(FilesetMatchesPathTest.class);
+        suite.addTestSuite(ParallelBuildTest.class);
+        suite.addTestSuite(ExternalFilesetWatcherTest.class);
+        suite.addTestSuite(BuildListenerTest.class);
+        suite.addTestSuite(DirectoryListingCacheTest.class);
+        suite.addTestSuite(ParallelZipWriterTest.class);
+        suite.addTestSuite(StreamingArchiveWriterTest.class);
+        suite.addTestSuite(OutputContributionMapTest.class);
         
         // jiras
         suite.addTestSuite(JBIDE1406Test.class);
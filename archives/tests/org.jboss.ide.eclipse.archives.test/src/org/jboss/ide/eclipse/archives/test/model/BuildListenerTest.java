@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.test.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.model.AbstractBuildListener;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.model.EventManager;
+import org.jboss.ide.eclipse.archives.core.model.IArchive;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveBuildListener;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveBuildListener2;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
+import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveModelNode;
+import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbPackages;
+
+/**
+ * Fires the batched file events and checks what listeners
+ * of either build listener interface receive
+ */
+public class BuildListenerTest extends ModelTest {
+	private IArchive archive;
+	private IArchiveStandardFileSet fs1, fs2;
+	private PlainListener plain;
+	private BatchListener batch;
+	private PerFileListener perFile;
+
+	/*
+	 * A listener written against IArchiveBuildListener alone
+	 */
+	private static class PlainListener implements IArchiveBuildListener {
+		protected List<String> events = new ArrayList<String>();
+		public void startedBuild(IPath project) {
+		}
+		public void finishedBuild(IPath project) {
+		}
+		public void cleanProject(IPath project) {
+		}
+		public void startedBuildingArchive(IArchive pkg) {
+		}
+		public void finishedBuildingArchive(IArchive pkg) {
+		}
+		public void cleanArchive(IArchive pkg) {
+		}
+		public void startedCollectingFileSet(IArchiveFileSet fileset) {
+		}
+		public void finishedCollectingFileSet(IArchiveFileSet fileset) {
+		}
+		public void buildFailed(IArchive pkg, IStatus status) {
+		}
+		public void fileUpdated(IArchive topLevelArchive, IArchiveFileSet fileset, IPath filePath) {
+			events.add("updated " + pattern(fileset) + " " + filePath);
+		}
+		public void fileRemoved(IArchive topLevelArchive, IArchiveFileSet fileset, IPath filePath) {
+			events.add("removed " + pattern(fileset) + " " + filePath);
+		}
+		public void error(IArchiveNode node, IStatus[] multi) {
+		}
+	}
+
+	/*
+	 * A listener taking the batches, which must
+	 * not be told of the same files one at a time
+	 */
+	private static class BatchListener extends PlainListener implements IArchiveBuildListener2 {
+		private IArchive archive;
+		public void fileUpdated(IArchive topLevelArchive, IArchiveFileSet fileset, IPath filePath) {
+			fail("per file event sent to a batch listener");
+		}
+		public void fileRemoved(IArchive topLevelArchive, IArchiveFileSet fileset, IPath filePath) {
+			fail("per file event sent to a batch listener");
+		}
+		public void filesUpdated(IArchive topLevelArchive, IArchiveFileSet fileset, IPath[] filePaths) {
+			archive = topLevelArchive;
+			events.add("updated " + pattern(fileset) + " " + Arrays.asList(filePaths));
+		}
+		public void filesRemoved(IArchive topLevelArchive, IArchiveFileSet fileset, IPath[] filePaths) {
+			archive = topLevelArchive;
+			events.add("removed " + pattern(fileset) + " " + Arrays.asList(filePaths));
+		}
+	}
+
+	/*
+	 * A listener only overriding the per file
+	 * events of AbstractBuildListener
+	 */
+	private static class PerFileListener extends AbstractBuildListener {
+		private List<String> events = new ArrayList<String>();
+		public void fileUpdated(IArchive topLevelArchive, IArchiveFileSet fileset, IPath filePath) {
+			events.add("updated " + pattern(fileset) + " " + filePath);
+		}
+		public void fileRemoved(IArchive topLevelArchive, IArchiveFileSet fileset, IPath filePath) {
+			events.add("removed " + pattern(fileset) + " " + filePath);
+		}
+	}
+
+	/*
+	 * A listener which keeps the build thread
+	 * finishing an archive until it is released
+	 */
+	private static class SlowListener extends AbstractBuildListener {
+		private CountDownLatch entered = new CountDownLatch(1);
+		private CountDownLatch release = new CountDownLatch(1);
+		public void finishedBuildingArchive(IArchive pkg) {
+			entered.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch( InterruptedException ie ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	protected void setUp() throws Exception {
+		ArchiveModelNode root = new ArchiveModelNode(new Path("/buildListener"), new XbPackages(), ArchivesModel.instance());
+		archive = createArchive("out.jar", "/buildListener/out");
+		archive.setInWorkspace(false);
+		root.addChild(archive);
+		fs1 = createFileSet("*.txt", "/buildListener/src");
+		fs2 = createFileSet("*.xml", "/buildListener/src");
+		fs1.setInWorkspace(false);
+		fs2.setInWorkspace(false);
+		archive.addChild(fs1);
+		archive.addChild(fs2);
+
+		plain = new PlainListener();
+		batch = new BatchListener();
+		perFile = new PerFileListener();
+		ArchivesModel.instance().addBuildListener(plain);
+		ArchivesModel.instance().addBuildListener(batch);
+		ArchivesModel.instance().addBuildListener(perFile);
+	}
+
+	protected void tearDown() throws Exception {
+		ArchivesModel.instance().removeBuildListener(plain);
+		ArchivesModel.instance().removeBuildListener(batch);
+		ArchivesModel.instance().removeBuildListener(perFile);
+	}
+
+	public void testFilesUpdated() {
+		EventManager.filesUpdated(archive, fs1, paths("a.txt", "b.txt"));
+		assertEquals(Arrays.asList(new String[] {
+				"updated *.txt /src/a.txt", "updated *.txt /src/b.txt" }), plain.events);
+		assertEquals(plain.events, perFile.events);
+		assertEquals(Arrays.asList(new String[] {
+				"updated *.txt [/src/a.txt, /src/b.txt]" }), batch.events);
+		assertSame(archive, batch.archive);
+	}
+
+	public void testFilesRemoved() {
+		// the archive is that of the fileset
+		EventManager.filesRemoved(paths("a.txt", "b.txt"), fs1);
+		assertEquals(Arrays.asList(new String[] {
+				"removed *.txt /src/a.txt", "removed *.txt /src/b.txt" }), plain.events);
+		assertEquals(plain.events, perFile.events);
+		assertEquals(Arrays.asList(new String[] {
+				"removed *.txt [/src/a.txt, /src/b.txt]" }), batch.events);
+		assertSame(archive, batch.archive);
+	}
+
+	public void testOneBatchPerFileset() {
+		Map<IArchiveFileSet, List<IPath>> matches = new LinkedHashMap<IArchiveFileSet, List<IPath>>();
+		matches.put(fs1, Arrays.asList(paths("a.txt")));
+		matches.put(fs2, Arrays.asList(paths("b.xml", "c.xml")));
+		EventManager.filesUpdated(matches);
+		assertEquals(Arrays.asList(new String[] {
+				"updated *.txt /src/a.txt", "updated *.xml /src/b.xml",
+				"updated *.xml /src/c.xml" }), plain.events);
+		assertEquals(plain.events, perFile.events);
+		assertEquals(Arrays.asList(new String[] {
+				"updated *.txt [/src/a.txt]", "updated *.xml [/src/b.xml, /src/c.xml]" }), batch.events);
+
+		plain.events.clear();
+		batch.events.clear();
+		perFile.events.clear();
+		EventManager.filesRemoved(matches);
+		assertEquals(3, plain.events.size());
+		assertEquals(plain.events, perFile.events);
+		assertEquals(Arrays.asList(new String[] {
+				"removed *.txt [/src/a.txt]", "removed *.xml [/src/b.xml, /src/c.xml]" }), batch.events);
+	}
+
+	public void testNoEventsWithoutFiles() {
+		EventManager.filesUpdated(archive, fs1, new IPath[0]);
+		EventManager.filesRemoved(new IPath[0], fs1);
+		assertTrue(plain.events.isEmpty());
+		assertTrue(batch.events.isEmpty());
+		assertTrue(perFile.events.isEmpty());
+	}
+
+	public void testSlowListenerDoesNotBlockOthers() throws Exception {
+		final SlowListener slow = new SlowListener();
+		ArchivesModel.instance().addBuildListener(slow);
+		Thread finishing = new Thread() {
+			public void run() {
+				EventManager.finishedBuildingArchive(archive);
+			}
+		};
+		Thread updating = new Thread() {
+			public void run() {
+				EventManager.fileUpdated(archive, fs1, paths("a.txt")[0]);
+			}
+		};
+		try {
+			finishing.start();
+			assertTrue(slow.entered.await(10, TimeUnit.SECONDS));
+			// another build thread still reaches the listeners ahead of the slow one
+			updating.start();
+			long end = System.currentTimeMillis() + 10000;
+			boolean told = false;
+			while( !told && System.currentTimeMillis() < end ) {
+				synchronized( plain ) {
+					told = plain.events.size() == 1;
+				}
+				if( !told )
+					Thread.sleep(10);
+			}
+			assertTrue(told);
+		} finally {
+			slow.release.countDown();
+			finishing.join();
+			updating.join();
+			ArchivesModel.instance().removeBuildListener(slow);
+		}
+	}
+
+	private static String pattern(IArchiveFileSet fileset) {
+		return ((IArchiveStandardFileSet)fileset).getIncludesPattern();
+	}
+
+	private static IPath[] paths(String... names) {
+		IPath[] paths = new IPath[names.length];
+		for( int i = 0; i < names.length; i++ )
+			paths[i] = new Path("/src").append(names[i]);
+		return paths;
+	}
+}
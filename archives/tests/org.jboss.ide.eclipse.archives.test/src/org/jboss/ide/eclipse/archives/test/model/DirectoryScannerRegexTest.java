@@ -17,6 +17,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
 
 import junit.framework.TestCase;
 
@@ -24,6 +27,8 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.jboss.ide.eclipse.archives.test.ArchivesTest;
 import org.jboss.tools.archives.scanner.FilesystemDirectoryScanner;
+import org.jboss.tools.archives.scanner.ITreeNode;
+import org.jboss.tools.archives.scanner.StreamingDirectoryScannerIterator;
 
 public class DirectoryScannerRegexTest extends TestCase {
 	protected void setUp() throws Exception {
@@ -86,6 +91,118 @@ public class DirectoryScannerRegexTest extends TestCase {
 		assertEquals(results2.length, 2);
 	}
 	
+	public void testParallelScan() {
+		IPath p = ArchivesTest.getDefault().getStateLocation().append("ds_regex");
+		FilesystemDirectoryScanner scanner = new FilesystemDirectoryScanner();
+		scanner.setBasedir(p.toFile());
+		scanner.setParallel(false);
+		scanner.setIncludes("**/f2");
+		scanner.scan();
+
+		FilesystemDirectoryScanner scanner2 = new FilesystemDirectoryScanner();
+		scanner2.setBasedir(p.toFile());
+		scanner2.setParallel(true);
+		scanner2.setIncludes("**/f2");
+		scanner2.scan();
+		assertEquals(2, scanner2.getIncludedFiles().length);
+		assertTrue(Arrays.equals(scanner.getIncludedFiles(), scanner2.getIncludedFiles()));
+		assertTrue(Arrays.equals(scanner.getIncludedDirectories(), scanner2.getIncludedDirectories()));
+		assertTrue(Arrays.equals(scanner.getNotIncludedFiles(), scanner2.getNotIncludedFiles()));
+	}
+	
+	public void testManyPatterns() {
+		IPath p = ArchivesTest.getDefault().getStateLocation().append("ds_regex");
+		FilesystemDirectoryScanner scanner = new FilesystemDirectoryScanner();
+		scanner.setBasedir(p.toFile());
+		scanner.setIncludes(new String[] { "**/f1", "a/f?", "*/f3", "%regex[b/f2]", "c/**" });
+		scanner.setExcludes(new String[] { "**/x", "b/f1" });
+		scanner.scan();
+		String[] results = scanner.getIncludedFiles();
+		assertTrue(Arrays.equals(new String[] { "a/f1", "a/f2", "a/f3", "b/f2", "b/f3" }, results));
+	}
+	
+	public void testStreamingScan() {
+		IPath p = ArchivesTest.getDefault().getStateLocation().append("ds_regex");
+		FilesystemDirectoryScanner scanner = new FilesystemDirectoryScanner();
+		scanner.setBasedir(p.toFile());
+		scanner.setIncludes("**/f2");
+		// room for one match at a time, so the scan has to wait for us
+		StreamingDirectoryScannerIterator<?> i = scanner.streamingIterator(1);
+		int count = 0;
+		while( i.hasNext()) {
+			assertEquals("f2", ((ITreeNode)i.next()).getName());
+			count++;
+		}
+		assertEquals(2, count);
+		try {
+			i.next();
+			fail("next() returned past the end of the scan");
+		} catch( NoSuchElementException nsee ) {
+		}
+	}
+	
+	public void testScanAfterStreamingScan() {
+		IPath p = ArchivesTest.getDefault().getStateLocation().append("ds_regex");
+		FilesystemDirectoryScanner scanner = new FilesystemDirectoryScanner();
+		scanner.setBasedir(p.toFile());
+		scanner.setIncludes("**/f2");
+		StreamingDirectoryScannerIterator<?> i = scanner.streamingIterator(1);
+		while( i.hasNext())
+			i.next();
+		// the finished stream no longer takes the matches
+		scanner.scan();
+		assertTrue(Arrays.equals(new String[] { "a/f2", "b/f2" }, scanner.getIncludedFiles()));
+		assertFalse(i.hasNext());
+
+		scanner.iterator();
+		scanner.scan();
+		assertEquals(2, scanner.getIncludedFiles().length);
+	}
+	
+	public void testMoreStreamingScansThanThreads() {
+		IPath p = ArchivesTest.getDefault().getStateLocation().append("ds_regex");
+		// more scans than the pool has threads by default, so
+		// the last ones wait for the first to end or be closed
+		int scans = Math.max(2, Runtime.getRuntime().availableProcessors()) + 2;
+		ArrayList<StreamingDirectoryScannerIterator<?>> closed = new ArrayList<StreamingDirectoryScannerIterator<?>>();
+		ArrayList<StreamingDirectoryScannerIterator<?>> read = new ArrayList<StreamingDirectoryScannerIterator<?>>();
+		for( int i = 0; i < scans * 2; i++ ) {
+			FilesystemDirectoryScanner scanner = new FilesystemDirectoryScanner();
+			scanner.setBasedir(p.toFile());
+			scanner.setIncludes("**/f*");
+			(i < scans ? closed : read).add(scanner.streamingIterator(1));
+		}
+		for( int i = 0; i < closed.size(); i++ )
+			closed.get(i).close();
+		for( int i = 0; i < read.size(); i++ ) {
+			int count = 0;
+			while( read.get(i).hasNext()) {
+				read.get(i).next();
+				count++;
+			}
+			assertEquals(6, count);
+		}
+	}
+	
+	public void testExcludedFolderNotListed() {
+		IPath p = ArchivesTest.getDefault().getStateLocation().append("ds_regex");
+		final ArrayList<String> listed = new ArrayList<String>();
+		FilesystemDirectoryScanner scanner = new FilesystemDirectoryScanner() {
+			protected ITreeNode[] listChildren(ITreeNode node) {
+				synchronized(listed) {
+					listed.add(node.getName());
+				}
+				return super.listChildren(node);
+			}
+		};
+		scanner.setBasedir(p.toFile());
+		scanner.setExcludes(new String[] { "**/b/**" });
+		scanner.scan();
+		assertTrue(Arrays.equals(new String[] { "a/f1", "a/f2", "a/f3" }, scanner.getIncludedFiles()));
+		assertTrue(listed.contains("a"));
+		assertFalse(listed.contains("b"));
+	}
+	
 	public static void setContents(File file, String contents) throws IOException, CoreException {
 		byte[] buffer = new byte[65536];
 		InputStream in = new ByteArrayInputStream(contents.getBytes());
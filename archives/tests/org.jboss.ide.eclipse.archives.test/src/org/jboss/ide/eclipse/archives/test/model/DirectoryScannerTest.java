@@ -10,10 +10,13 @@
  ******************************************************************************/
 package org.jboss.ide.eclipse.archives.test.model;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Vector;
 
 import junit.framework.TestCase;
 
@@ -23,10 +26,12 @@ import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.asf.DirectoryScanner;
 import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory;
 import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension;
 import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension.FileWrapper;
 import org.jboss.ide.eclipse.archives.test.ArchivesTest;
+import org.jboss.ide.eclipse.archives.test.util.FileIOUtil;
 import org.jboss.tools.test.util.JobUtils;
 import org.jboss.tools.test.util.ResourcesUtils;
 import org.osgi.framework.Bundle;
@@ -104,4 +109,191 @@ public class DirectoryScannerTest extends TestCase {
 		FileWrapper[] results2 = scanner2.getMatchedArray();
 		assertTrue(results2 != null && results2.length == 1);
 	}
+
+	public void testWrapperPaths() {
+		IPath root = new Path("out.jar/lib");
+		DirectoryScannerExtension global =
+			DirectoryScannerFactory.createDirectoryScanner(
+					proj.getLocation().toOSString(), root,
+					"**/*.gif", "", null, 
+					false, 1.2, true);
+		DirectoryScannerExtension workspace =
+			DirectoryScannerFactory.createDirectoryScanner(
+					proj.getFullPath().toString(), root,
+					"**/*.gif", "", proj.getName(), 
+					true, 1.2, true);
+		FileWrapper[] results = global.getMatchedArray();
+		assertTrue(results.length > 0);
+		assertEquals(results.length, workspace.getMatchedArray().length);
+		for( int i = 0; i < results.length; i++ ) {
+			String relative = results[i].getFilesetRelative();
+			assertEquals(new Path(results[i].getAbsolutePath()), results[i].getWrapperPath());
+			assertEquals(root.append(relative), results[i].getRootArchiveRelative());
+			assertEquals(results[i].getName(), results[i].getOutputName());
+			FileWrapper parent = results[i].getParentFile();
+			assertEquals(results[i].getParent(), parent.getPath());
+			assertEquals(new Path(relative).removeLastSegments(1).toString(), parent.getFilesetRelative());
+		}
+		results = workspace.getMatchedArray();
+		for( int i = 0; i < results.length; i++ ) {
+			String relative = results[i].getFilesetRelative();
+			assertEquals(proj.getFullPath().append(relative), results[i].getWrapperPath());
+			assertEquals(root.append(relative), results[i].getRootArchiveRelative());
+			assertEquals(proj.getLocation().append(relative).toOSString(), results[i].getAbsolutePath());
+		}
+	}
+
+	/*
+	 * A legacy scanner showing the files and
+	 * folders which were found but not included
+	 */
+	private static class ResultScanner extends DirectoryScanner {
+		public String[] getExcludedFiles() {
+			return sorted(filesExcluded);
+		}
+		public String[] getExcludedDirectories() {
+			return sorted(dirsExcluded);
+		}
+		public String[] getNotIncludedFiles() {
+			return sorted(filesNotIncluded);
+		}
+		private static String[] sorted(Vector<String> names) {
+			String[] ret = names.toArray(new String[names.size()]);
+			Arrays.sort(ret);
+			return ret;
+		}
+	}
+
+	private File createTree() throws IOException {
+		File dir = FileIOUtil.createTempDir("asfScanner");
+		String[] files = new String[] { "top.java", "a/x.txt", "a/b/c.txt",
+				"a/b/Upper.TXT", "a/b/c.txt~", "a/CVS/e.txt" };
+		for( int i = 0; i < files.length; i++ )
+			FileIOUtil.setFileContents(new File(dir, files[i]), files[i]);
+		return dir;
+	}
+
+	public void testAsfIncludesAndExcludes() throws IOException {
+		File dir = createTree();
+		try {
+			ResultScanner scanner = new ResultScanner();
+			scanner.setBasedir(dir);
+			scanner.setIncludes(new String[] { "**/*.txt" });
+			scanner.setExcludes(new String[] { "a/b/*.txt" });
+			scanner.scan();
+			assertEquals(names("a/CVS/e.txt", "a/x.txt"), scanner.getIncludedFiles());
+			assertEquals(names("a/b/c.txt"), scanner.getExcludedFiles());
+			assertEquals(names("a/b/Upper.TXT", "a/b/c.txt~", "top.java"), scanner.getNotIncludedFiles());
+			assertEquals(0, scanner.getIncludedDirsCount());
+			assertFalse(scanner.isEverythingIncluded());
+
+			// folders are matched like files, and the scanner may be run again;
+			// a folder whose contents are all excluded is not listed
+			scanner.setIncludes(new String[] { "a/**" });
+			scanner.setExcludes(new String[] { "**/CVS/**" });
+			scanner.scan();
+			assertEquals(names("a/b/Upper.TXT", "a/b/c.txt", "a/b/c.txt~", "a/x.txt"), scanner.getIncludedFiles());
+			assertEquals(names("a", "a/b"), scanner.getIncludedDirectories());
+			assertEquals(0, scanner.getExcludedFiles().length);
+			assertEquals(names("a/CVS"), scanner.getExcludedDirectories());
+
+			// the scanner not subclassed walks the folders on its own, to the same results
+			DirectoryScanner plain = new DirectoryScanner();
+			plain.setBasedir(dir);
+			plain.setIncludes(new String[] { "a/**" });
+			plain.setExcludes(new String[] { "**/CVS/**" });
+			plain.scan();
+			assertEquals(scanner.getIncludedFiles(), plain.getIncludedFiles());
+			assertEquals(scanner.getIncludedDirectories(), plain.getIncludedDirectories());
+
+			// include patterns without wildcards are looked up directly
+			plain.setIncludes(new String[] { "a/x.txt", "a/b/c.txt", "missing.txt" });
+			plain.setExcludes(null);
+			plain.scan();
+			assertEquals(names("a/b/c.txt", "a/x.txt"), plain.getIncludedFiles());
+		} finally {
+			FileIOUtil.deleteDir(dir);
+		}
+	}
+
+	public void testAsfNullBasedir() throws IOException {
+		File dir = createTree();
+		try {
+			// without a basedir only absolute include patterns are scanned
+			DirectoryScanner scanner = new DirectoryScanner();
+			scanner.setIncludes(new String[] { "a/**/*.txt" });
+			scanner.scan();
+			assertEquals(0, scanner.getIncludedFilesCount());
+			assertFalse(scanner.isEverythingIncluded());
+
+			String base = dir.getAbsolutePath();
+			scanner.setIncludes(new String[] { base + "/a/**/*.txt", base + "/top.java" });
+			scanner.scan();
+			String[] expected = new String[] {
+					new File(dir, "a/CVS/e.txt").getAbsolutePath(),
+					new File(dir, "a/b/c.txt").getAbsolutePath(),
+					new File(dir, "a/x.txt").getAbsolutePath(),
+					new File(dir, "top.java").getAbsolutePath() };
+			Arrays.sort(expected);
+			assertEquals(expected, scanner.getIncludedFiles());
+		} finally {
+			FileIOUtil.deleteDir(dir);
+		}
+	}
+
+	public void testAsfDefaultExcludes() throws IOException {
+		File dir = createTree();
+		try {
+			ResultScanner scanner = new ResultScanner();
+			scanner.setBasedir(dir);
+			scanner.scan();
+			assertEquals(6, scanner.getIncludedFilesCount());
+			assertTrue(scanner.isEverythingIncluded());
+
+			scanner.addDefaultExcludes();
+			scanner.scan();
+			assertEquals(names("a/b/Upper.TXT", "a/b/c.txt", "a/x.txt", "top.java"), scanner.getIncludedFiles());
+			assertEquals(names("a/b/c.txt~"), scanner.getExcludedFiles());
+			assertEquals(names("a/CVS"), scanner.getExcludedDirectories());
+			assertFalse(scanner.isEverythingIncluded());
+		} finally {
+			FileIOUtil.deleteDir(dir);
+		}
+	}
+
+	public void testAsfCaseSensitivity() throws IOException {
+		File dir = createTree();
+		try {
+			DirectoryScanner scanner = new DirectoryScanner();
+			scanner.setBasedir(dir);
+			scanner.setIncludes(new String[] { "**/*.txt" });
+			scanner.scan();
+			assertEquals(names("a/CVS/e.txt", "a/b/c.txt", "a/x.txt"), scanner.getIncludedFiles());
+
+			scanner.setCaseSensitive(false);
+			scanner.scan();
+			assertEquals(names("a/CVS/e.txt", "a/b/Upper.TXT", "a/b/c.txt", "a/x.txt"), scanner.getIncludedFiles());
+
+			// the names found are those on disk, not those of the pattern
+			scanner.setIncludes(new String[] { "A/B/UPPER.txt" });
+			scanner.scan();
+			assertEquals(names("a/b/Upper.TXT"), scanner.getIncludedFiles());
+			scanner.setCaseSensitive(true);
+			scanner.scan();
+			assertEquals(0, scanner.getIncludedFilesCount());
+		} finally {
+			FileIOUtil.deleteDir(dir);
+		}
+	}
+
+	private static String[] names(String... names) {
+		String[] ret = new String[names.length];
+		for( int i = 0; i < names.length; i++ )
+			ret[i] = names[i].replace('/', File.separatorChar);
+		return ret;
+	}
+
+	private static void assertEquals(String[] expected, String[] actual) {
+		assertEquals(Arrays.asList(expected), Arrays.asList(actual));
+	}
 }
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.test.model;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.build.ExternalFilesetWatcher;
+import org.jboss.ide.eclipse.archives.core.model.IArchive;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
+import org.jboss.ide.eclipse.archives.test.util.FileIOUtil;
+
+/**
+ * Polls a fileset outside the workspace without building,
+ * recording what the watcher would build instead
+ */
+public class ExternalFilesetWatcherTest extends ModelTest {
+	private File dir;
+	private IArchiveStandardFileSet fileset;
+
+	private class Recorder extends ExternalFilesetWatcher {
+		private Set<IPath> addedChanged = new HashSet<IPath>();
+		private Set<IPath> removed = new HashSet<IPath>();
+		private volatile int polls = 0;
+		private Recorder(long interval) {
+			super(interval);
+		}
+		protected IArchiveStandardFileSet[] getWatchedFilesets() {
+			polls++;
+			return new IArchiveStandardFileSet[] { fileset };
+		}
+		protected synchronized void changed(Set<IPath> addedChanged, Set<IPath> removed) {
+			this.addedChanged.addAll(addedChanged);
+			this.removed.addAll(removed);
+		}
+	}
+
+	protected void setUp() throws Exception {
+		dir = FileIOUtil.createTempDir("externalWatcher");
+		FileIOUtil.setFileContents(new File(dir, "one.txt"), "one");
+		FileIOUtil.setFileContents(new File(dir, "a/two.txt"), "two");
+		// a fileset is only scanned within its archive
+		IArchive archive = createArchive("out.jar", new File(dir, "out").getAbsolutePath());
+		archive.setInWorkspace(false);
+		fileset = createFileSet("**/*.txt", dir.getAbsolutePath());
+		fileset.setInWorkspace(false);
+		archive.addChild(fileset);
+	}
+
+	protected void tearDown() throws Exception {
+		FileIOUtil.deleteDir(dir);
+	}
+
+	public void testOffByDefault() {
+		String old = System.getProperty(ExternalFilesetWatcher.INTERVAL_PROPERTY);
+		try {
+			System.clearProperty(ExternalFilesetWatcher.INTERVAL_PROPERTY);
+			assertEquals(0, ExternalFilesetWatcher.getDefaultInterval());
+			System.setProperty(ExternalFilesetWatcher.INTERVAL_PROPERTY, "2000");
+			assertEquals(2000, ExternalFilesetWatcher.getDefaultInterval());
+		} finally {
+			if( old == null )
+				System.clearProperty(ExternalFilesetWatcher.INTERVAL_PROPERTY);
+			else
+				System.setProperty(ExternalFilesetWatcher.INTERVAL_PROPERTY, old);
+		}
+
+		Recorder watcher = new Recorder(0);
+		watcher.start();
+		assertNull(findWatcherThread());
+		watcher.stop();
+	}
+
+	public void testPollFindsChanges() throws Exception {
+		Recorder watcher = new Recorder(0);
+		// the first poll only records the files
+		watcher.poll();
+		assertTrue(watcher.addedChanged.isEmpty());
+
+		File one = new File(dir, "one.txt");
+		FileIOUtil.setFileContents(one, "one, changed");
+		one.setLastModified(one.lastModified() - 10000);
+		FileIOUtil.setFileContents(new File(dir, "a/three.txt"), "three");
+		assertTrue(new File(dir, "a/two.txt").delete());
+		watcher.poll();
+		assertEquals(2, watcher.addedChanged.size());
+		assertTrue(watcher.addedChanged.contains(new Path(one.getAbsolutePath())));
+		assertTrue(watcher.addedChanged.contains(new Path(new File(dir, "a/three.txt").getAbsolutePath())));
+		assertEquals(1, watcher.removed.size());
+		assertTrue(watcher.removed.contains(new Path(new File(dir, "a/two.txt").getAbsolutePath())));
+
+		// nothing changed since
+		watcher.addedChanged.clear();
+		watcher.removed.clear();
+		watcher.poll();
+		assertTrue(watcher.addedChanged.isEmpty());
+		assertTrue(watcher.removed.isEmpty());
+	}
+
+	public void testStopEndsPolling() throws Exception {
+		Recorder watcher = new Recorder(20);
+		watcher.start();
+		assertNotNull(findWatcherThread());
+		for( int i = 0; i < 100 && watcher.polls < 2; i++ )
+			Thread.sleep(20);
+		assertTrue(watcher.polls >= 2);
+
+		watcher.stop();
+		assertTrue(watcher.isStopped());
+		assertNull(findWatcherThread());
+		int polls = watcher.polls;
+		Thread.sleep(100);
+		assertEquals(polls, watcher.polls);
+
+		// a stopped watcher builds nothing
+		FileIOUtil.setFileContents(new File(dir, "four.txt"), "four");
+		watcher.poll();
+		assertTrue(watcher.addedChanged.isEmpty());
+	}
+
+	private static Thread findWatcherThread() {
+		Thread[] threads = new Thread[Thread.activeCount() + 10];
+		int count = Thread.enumerate(threads);
+		for( int i = 0; i < count; i++ )
+			if( threads[i].getName().equals("Archives External Fileset Watcher") && threads[i].isAlive())
+				return threads[i];
+		return null;
+	}
+}
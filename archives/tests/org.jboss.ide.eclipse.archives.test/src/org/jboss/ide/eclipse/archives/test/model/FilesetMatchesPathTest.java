@@ -10,6 +10,9 @@
  ******************************************************************************/
 package org.jboss.ide.eclipse.archives.test.model;
 
+import java.io.File;
+import java.util.NoSuchElementException;
+
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
@@ -22,9 +25,11 @@ import org.jboss.ide.eclipse.archives.core.model.IArchive;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveModel;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
 import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension.FileWrapper;
+import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveFileSetImpl;
 import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveModelNode;
 import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbPackages;
 import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
+import org.jboss.ide.eclipse.archives.test.util.FileIOUtil;
 import org.jboss.tools.test.util.ResourcesUtils;
 
 
@@ -69,4 +74,33 @@ public class FilesetMatchesPathTest extends ModelTest {
 			} catch( CoreException ce ) {fail();}
 		}
 	}
+
+	public void testStreamMatchingPaths() throws Exception {
+		File dir = FileIOUtil.createTempDir("matchStream");
+		try {
+			FileIOUtil.setFileContents(new File(dir, "src/one.txt"), "one");
+			FileIOUtil.setFileContents(new File(dir, "src/a/two.txt"), "two");
+			IArchive archive = createArchive("someName.jar", new File(dir, "out").getAbsolutePath());
+			archive.setInWorkspace(false);
+			IArchiveStandardFileSet fs = createFileSet("**", new File(dir, "src").getAbsolutePath());
+			fs.setInWorkspace(false);
+			archive.addChild(fs);
+
+			// only files are streamed, not the folders the scan includes
+			ArchiveFileSetImpl.MatchStream matches = ((ArchiveFileSetImpl)fs).streamMatchingPaths();
+			int count = 0;
+			while( matches.hasNext()) {
+				assertTrue(matches.next().isFile());
+				count++;
+			}
+			assertEquals(2, count);
+			try {
+				matches.next();
+				fail("next() returned past the last match");
+			} catch( NoSuchElementException nsee ) {
+			}
+		} finally {
+			FileIOUtil.deleteDir(dir);
+		}
+	}
 }
@@ -14,6 +14,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Enumeration;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
@@ -31,10 +32,13 @@ import org.jboss.ide.eclipse.archives.core.model.IArchive;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
+import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension.FileWrapper;
 import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveNodeImpl;
 import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbPackageNodeWithProperties;
 import org.jboss.ide.eclipse.archives.core.util.PathUtils;
+import org.jboss.ide.eclipse.archives.core.util.internal.ArchiveManifest;
 import org.jboss.ide.eclipse.archives.core.util.internal.ModelTruezipBridge;
+import org.jboss.ide.eclipse.archives.core.util.internal.OutputContributionMap;
 import org.jboss.ide.eclipse.archives.core.util.internal.TrueZipUtil;
 import org.jboss.ide.eclipse.archives.test.ArchivesTest;
 import org.jboss.tools.test.util.JobUtils;
@@ -229,6 +233,162 @@ public class ModelTruezipBridgeTest extends ModelTest {
 		assertEquals(19, countEntries(zippedF));
 	}
 
+	public void testSkipUnchanged() {
+		IArchive zipped = createArchive("zipped.war", new Path(proj.getName()).append("outputs").makeAbsolute().toString());
+		zipped.setInWorkspace(true);
+		zipped.setExploded(false);
+		ModelTruezipBridge.createFile(zipped);
+		File zippedF = proj.getLocation().append("outputs").append("zipped.war").toFile();
+
+		IArchiveStandardFileSet fs = createFileSet("**/*.gif", new Path(proj.getName()).makeAbsolute().toString());
+		fs.setInWorkspace(true);
+		zipped.addChild(fs);
+		ArchiveManifest manifest = ArchiveManifest.getManifest(zipped);
+		manifest.clear();
+		FileWrapper[] files = ModelTruezipBridge.fullFilesetBuild(fs, new NullProgressMonitor(), true).f;
+		assertTrue(files.length > 0);
+
+		assertEquals(files.length, manifest.getEntries().size());
+		String entry = files[0].getFilesetRelative();
+		assertNotNull(manifest.get(entry));
+		assertNull(manifest.get(entry).hash);
+
+		// same contents, newer timestamp: found unchanged by comparing contents
+		long newTime = files[0].lastModified() + 10000;
+		assertTrue(files[0].setLastModified(newTime));
+		ModelTruezipBridge.copyFiles(fs, new FileWrapper[] { files[0] },
+				new NullProgressMonitor(), true, true, true);
+		assertEquals(newTime, manifest.get(entry).mtime);
+		assertNotNull(manifest.get(entry).hash);
+		assertEquals(19, countEntries(zippedF));
+
+		ModelTruezipBridge.deleteFiles(fs, new FileWrapper[] { files[0] }, new NullProgressMonitor(), true);
+		assertNull(manifest.get(entry));
+		ModelTruezipBridge.deleteArchive(zipped);
+		assertTrue(manifest.getEntries().isEmpty());
+	}
+
+	public void testBuildManifest() {
+		IArchive zipped = createArchive("zipped.war", new Path(proj.getName()).append("outputs").makeAbsolute().toString());
+		zipped.setInWorkspace(true);
+		zipped.setExploded(false);
+		ModelTruezipBridge.createFile(zipped);
+		File zippedF = proj.getLocation().append("outputs").append("zipped.war").toFile();
+
+		IArchiveStandardFileSet fs = createFileSet("**/*.gif", new Path(proj.getName()).makeAbsolute().toString());
+		fs.setInWorkspace(true);
+		zipped.addChild(fs);
+		ArchiveManifest.setIncrementalFullBuilds(true);
+		try {
+			ArchiveManifest manifest = ArchiveManifest.getManifest(zipped);
+			String structure = ArchiveManifest.getStructure(zipped);
+			manifest.clear();
+			manifest.beginBuild(structure);
+			FileWrapper[] files = ModelTruezipBridge.fullFilesetBuild(fs, new NullProgressMonitor(), true).f;
+			assertEquals(0, manifest.endBuild().length);
+			manifest.save();
+			assertTrue(manifest.getManifestFile().exists());
+			assertTrue(manifest.canDiff(structure));
+
+			// a build producing one file less finds the other one stale
+			manifest.beginBuild(structure);
+			ModelTruezipBridge.copyFiles(fs, new FileWrapper[] { files[0] },
+					new NullProgressMonitor(), false, true, true);
+			String[] stale = manifest.endBuild();
+			assertEquals(files.length - 1, stale.length);
+			assertEquals(0, ModelTruezipBridge.deleteEntries(zipped, stale).length);
+			TrueZipUtil.umount();
+			assertTrue(countEntries(zippedF) < 19);
+
+			ModelTruezipBridge.deleteArchive(zipped);
+			assertFalse(manifest.getManifestFile().exists());
+		} finally {
+			ArchiveManifest.setIncrementalFullBuilds(false);
+		}
+	}
+
+	public void testFullBuildsStartFromScratch() {
+		IArchive zipped = createArchive("zipped.war", new Path(proj.getName()).append("outputs").makeAbsolute().toString());
+		zipped.setInWorkspace(true);
+		zipped.setExploded(false);
+		ModelTruezipBridge.createFile(zipped);
+
+		IArchiveStandardFileSet fs = createFileSet("**/*.gif", new Path(proj.getName()).makeAbsolute().toString());
+		fs.setInWorkspace(true);
+		zipped.addChild(fs);
+		ArchiveManifest manifest = ArchiveManifest.getManifest(zipped);
+		String structure = ArchiveManifest.getStructure(zipped);
+		manifest.clear();
+		manifest.beginBuild(structure);
+		ModelTruezipBridge.fullFilesetBuild(fs, new NullProgressMonitor(), true);
+		manifest.endBuild();
+		manifest.save();
+		// incremental full builds are off: nothing is saved next to the output
+		assertFalse(manifest.getManifestFile().exists());
+		assertFalse(manifest.canDiff(structure));
+		assertFalse(manifest.getEntries().isEmpty());
+	}
+
+	public void testCompressionPolicy() {
+		IArchive zipped = createArchive("zipped.war", new Path(proj.getName()).append("outputs").makeAbsolute().toString());
+		zipped.setInWorkspace(true);
+		zipped.setExploded(false);
+		ModelTruezipBridge.createFile(zipped);
+		File zippedF = proj.getLocation().append("outputs").append("zipped.war").toFile();
+
+		// gifs are already compressed, so stored by default
+		IArchiveStandardFileSet fs = createFileSet("**/*.gif", new Path(proj.getName()).makeAbsolute().toString());
+		fs.setInWorkspace(true);
+		zipped.addChild(fs);
+		ModelTruezipBridge.fullFilesetBuild(fs, new NullProgressMonitor(), true);
+		assertFileEntryMethod(zippedF, ZipEntry.STORED);
+
+		// unless the fileset says otherwise
+		ModelTruezipBridge.deleteArchive(zipped);
+		ModelTruezipBridge.createFile(zipped);
+		fs.setProperty(IArchiveFileSet.COMPRESSION_PROPERTY, IArchiveFileSet.COMPRESSION_DEFLATED);
+		ModelTruezipBridge.fullFilesetBuild(fs, new NullProgressMonitor(), true);
+		assertFileEntryMethod(zippedF, ZipEntry.DEFLATED);
+	}
+
+	public void testRemoveSharedFileset() {
+		IArchive zipped = createArchive("zipped.war", new Path(proj.getName()).append("outputs").makeAbsolute().toString());
+		zipped.setInWorkspace(true);
+		zipped.setExploded(false);
+		ModelTruezipBridge.createFile(zipped);
+		File zippedF = proj.getLocation().append("outputs").append("zipped.war").toFile();
+
+		// two filesets putting the same files at the same entries
+		IArchiveStandardFileSet fs = createFileSet("**/*.gif", new Path(proj.getName()).makeAbsolute().toString());
+		fs.setInWorkspace(true);
+		zipped.addChild(fs);
+		IArchiveStandardFileSet fs2 = createFileSet("**/*.gif", new Path(proj.getName()).makeAbsolute().toString());
+		fs2.setExcludesPattern("**/*.txt");
+		fs2.setInWorkspace(true);
+		zipped.addChild(fs2);
+		OutputContributionMap contributions = OutputContributionMap.getMap(zipped);
+		contributions.clear();
+		ModelTruezipBridge.fullFilesetBuild(fs, new NullProgressMonitor(), true);
+		FileWrapper[] files = ModelTruezipBridge.fullFilesetBuild(fs2, new NullProgressMonitor(), true).f;
+		assertTrue(contributions.isRecorded(fs));
+		assertTrue(contributions.isRecorded(fs2));
+		assertEquals(19, countEntries(zippedF));
+
+		// removing one of them leaves the entries the other one still provides
+		ModelTruezipBridge.fullFilesetRemove(fs, new NullProgressMonitor(), true);
+		zipped.removeChild(fs);
+		assertFalse(contributions.isRecorded(fs));
+		String entry = OutputContributionMap.getEntry(fs2, files[0]);
+		assertNotNull(contributions.getOther(fs, entry));
+		assertEquals(19, countEntries(zippedF));
+
+		// removing the other one removes them
+		ModelTruezipBridge.fullFilesetRemove(fs2, new NullProgressMonitor(), true);
+		zipped.removeChild(fs2);
+		assertNull(contributions.getOther(fs, entry));
+		assertTrue(countEntries(zippedF) < 19);
+	}
+
 	public void testFlattenedFileset() {
 		IArchive zipped = createArchive("zipped.war", new Path(proj.getName()).append("outputs").makeAbsolute().toString());
 		zipped.setInWorkspace(true);
@@ -293,6 +453,24 @@ public class ModelTruezipBridgeTest extends ModelTest {
 	 * Utility
 	 */
 
+	protected void assertFileEntryMethod(File zipF, int method) {
+		try {
+			ZipFile zf = new ZipFile(zipF);
+			try {
+				Enumeration<? extends ZipEntry> entries = zf.entries();
+				while(entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if( !entry.isDirectory())
+						assertEquals(entry.getName(), method, entry.getMethod());
+				}
+			} finally {
+				zf.close();
+			}
+		} catch( IOException ioe ) {
+			fail(ioe.getMessage());
+		}
+	}
+
 	protected int countEntries(File zipF) {
 
 		ZipFile zf = null;
@@ -17,8 +17,10 @@ import junit.framework.TestCase;
 
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
 import org.jboss.ide.eclipse.archives.core.ArchivesCore;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
 import org.jboss.ide.eclipse.archives.core.model.ArchivesModelException;
 import org.jboss.ide.eclipse.archives.core.model.IArchive;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
@@ -27,8 +29,12 @@ import org.jboss.ide.eclipse.archives.core.model.IArchiveFolder;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveNode;
 import org.jboss.ide.eclipse.archives.core.model.IArchiveNodeFactory;
 import org.jboss.ide.eclipse.archives.core.model.DirectoryScannerFactory.DirectoryScannerExtension.FileWrapper;
+import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveModelNode;
 import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveNodeImpl;
+import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbPackages;
 import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
+import org.jboss.ide.eclipse.archives.core.util.internal.ArchiveReferenceIndex;
+import org.jboss.ide.eclipse.archives.core.util.internal.ArchiveReferenceIndex.Cascade;
 import org.jboss.ide.eclipse.archives.test.ArchivesTest;
 import org.osgi.framework.Bundle;
 
@@ -142,6 +148,78 @@ public class ModelUtilTest extends TestCase {
 		
 	}
 	
+	public void testGetMatchingFileSetsRegistered() throws ArchivesModelException {
+		IPath misc = inputs.append("fileTrees").append("misc");
+		IPath xml = misc.append("rug.xml");
+		IPath html = misc.append("someHtml.html");
+		IPath project = new Path("modelUtilTest");
+		ArchiveModelNode root = new ArchiveModelNode(project, new XbPackages(), ArchivesModel.instance());
+		root.addChild(rootArchive);
+		ArchivesModel.instance().registerProject(root, new NullProgressMonitor());
+		try {
+			// registered nodes are answered by the path index
+			assertEquals(2, ModelUtil.getMatchingFilesets(rootArchive, xml).length);
+			assertEquals(1, ModelUtil.getMatchingFilesets(null, html).length);
+			assertEquals(0, ModelUtil.getMatchingFilesets(null, inputs.append("nowhere.xml")).length);
+
+			// an in-memory change must be seen without a save
+			IArchiveStandardFileSet fs = (IArchiveStandardFileSet)ModelUtil.getMatchingFilesets(null, html)[0];
+			fs.setRawSourcePath(inputs.append("fileTrees").append("nowhere").toString());
+			assertEquals(0, ModelUtil.getMatchingFilesets(null, html).length);
+			fs.setRawSourcePath(misc.toString());
+			assertEquals(1, ModelUtil.getMatchingFilesets(null, html).length);
+		} finally {
+			ArchivesModel.instance().unregisterProject(root, new NullProgressMonitor());
+		}
+	}
+	
+	public void testArchiveReferenceCycle() throws ArchivesModelException {
+		// the filesets scan the output folder
+		outputs.toFile().mkdirs();
+		IArchive a = createConsumingArchive("a.jar", "b.jar");
+		IArchive b = createConsumingArchive("b.jar", "a.jar");
+		IArchive c = createConsumingArchive("c.jar", "a.jar");
+		ArchiveModelNode root = new ArchiveModelNode(new Path("referenceTest"), new XbPackages(), ArchivesModel.instance());
+		root.addChild(a);
+		root.addChild(b);
+		root.addChild(c);
+		ArchivesModel.instance().registerProject(root, new NullProgressMonitor());
+		try {
+			ArchiveReferenceIndex index = ArchiveReferenceIndex.getInstance();
+			assertEquals(2, index.getReferences(a).length);
+			assertEquals(1, index.getReferences(b).length);
+			assertEquals(0, index.getReferences(c).length);
+			assertTrue(index.isCyclic(a));
+			assertTrue(index.isCyclic(b));
+			assertFalse(index.isCyclic(c));
+
+			// b and c are rebuilt once each, a is not rebuilt again
+			Cascade cascade = index.getCascade(b);
+			assertEquals(2, cascade.archives.length);
+			assertEquals(a, cascade.archives[0]);
+			assertEquals(c, cascade.archives[1]);
+			assertTrue(cascade.cyclic.length > 0);
+			assertEquals(0, index.getCascade(c).archives.length);
+		} finally {
+			ArchivesModel.instance().unregisterProject(root, new NullProgressMonitor());
+		}
+	}
+
+	private IArchive createConsumingArchive(String name, String consumes) throws ArchivesModelException {
+		IArchive archive = getFactory().createArchive();
+		archive.setArchiveType("jar");
+		archive.setDestinationPath(outputs);
+		archive.setName(name);
+		archive.setExploded(false);
+		archive.setInWorkspace(false);
+		IArchiveStandardFileSet fs = getFactory().createFileset();
+		fs.setInWorkspace(false);
+		fs.setRawSourcePath(outputs.toString());
+		fs.setIncludesPattern(consumes);
+		archive.addChild(fs);
+		return archive;
+	}
+
 	public void testOtherFilesetMatchesPath() throws ArchivesModelException {
 		IPath xml = inputs.append("fileTrees").append("misc").append("rug.xml");
 		IArchiveFileSet[] xmlFS = ModelUtil.getMatchingFilesets(rootArchive, xml);
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.test.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.build.ArchiveBuildDelegate;
+import org.jboss.ide.eclipse.archives.core.model.AbstractBuildListener;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchive;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
+import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveModelNode;
+import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbPackages;
+import org.jboss.ide.eclipse.archives.test.util.FileIOUtil;
+
+/**
+ * Builds a project of archives with more than one thread
+ * and checks archives wait for the archives they consume.
+ */
+public class ParallelBuildTest extends ModelTest {
+	private File dir;
+	private IPath project;
+	private ArchiveModelNode root;
+	private IArchive a, b, c;
+	private Recorder recorder;
+
+	/*
+	 * Records the archive events and the threads they were fired on
+	 */
+	private static class Recorder extends AbstractBuildListener {
+		private List<String> events = new ArrayList<String>();
+		private List<Thread> threads = new ArrayList<Thread>();
+		private AtomicInteger active = new AtomicInteger();
+		private volatile boolean overlapped = false;
+		private synchronized void record(String event) {
+			events.add(event);
+			threads.add(Thread.currentThread());
+		}
+		public void startedBuildingArchive(IArchive pkg) {
+			if( active.incrementAndGet() > 1 )
+				overlapped = true;
+			record("start " + pkg.getName());
+			active.decrementAndGet();
+		}
+		public void finishedBuildingArchive(IArchive pkg) {
+			if( active.incrementAndGet() > 1 )
+				overlapped = true;
+			record("end " + pkg.getName());
+			active.decrementAndGet();
+		}
+	}
+
+	protected void setUp() throws Exception {
+		dir = FileIOUtil.createTempDir("parallelBuild");
+		FileIOUtil.setFileContents(new File(dir, "src/one.txt"), "one");
+		FileIOUtil.setFileContents(new File(dir, "src/a/two.txt"), "two");
+		project = new Path(dir.getAbsolutePath());
+		String out = project.append("out").toString();
+		// filesets only match within folders which exist
+		new File(dir, "out").mkdirs();
+
+		root = new ArchiveModelNode(project, new XbPackages(), ArchivesModel.instance());
+		a = createArchive("a.jar", out);
+		b = createArchive("b.jar", out);
+		c = createArchive("c.war", out);
+		IArchive[] archives = new IArchive[] { c, a, b };
+		for( int i = 0; i < archives.length; i++ ) {
+			archives[i].setInWorkspace(false);
+			root.addChild(archives[i]);
+		}
+		a.addChild(createExternalFileSet("**/*.txt", project.append("src").toString()));
+		b.addChild(createExternalFileSet("a/**", project.append("src").toString()));
+		// c.war holds a.jar, so it must wait for it
+		c.addChild(createExternalFileSet("a.jar", out));
+		ArchivesModel.instance().registerProject(root, new NullProgressMonitor());
+
+		recorder = new Recorder();
+		ArchivesModel.instance().addBuildListener(recorder);
+	}
+
+	protected void tearDown() throws Exception {
+		ArchivesModel.instance().removeBuildListener(recorder);
+		ArchivesModel.instance().unregisterProject(root, new NullProgressMonitor());
+		FileIOUtil.deleteDir(dir);
+	}
+
+	public void testParallelBuildOrder() throws Exception {
+		ArchiveBuildDelegate delegate = new ArchiveBuildDelegate(3);
+		IStatus s = delegate.fullProjectBuild(project, new NullProgressMonitor());
+		assertTrue(s.isOK());
+		List<String> events = recorder.events;
+		assertEquals(6, events.size());
+		assertTrue(events.indexOf("end a.jar") < events.indexOf("start c.war"));
+		assertTrue(events.contains("end b.jar"));
+		assertFalse(recorder.overlapped);
+		for( int i = 0; i < recorder.threads.size(); i++ )
+			assertNotSame(Thread.currentThread(), recorder.threads.get(i));
+		assertContains(c, "a.jar");
+	}
+
+	public void testSerialWithOneThread() throws Exception {
+		ArchiveBuildDelegate delegate = new ArchiveBuildDelegate(1);
+		IStatus s = delegate.fullProjectBuild(project, new NullProgressMonitor());
+		assertTrue(s.isOK());
+		assertBuiltOnCallingThread();
+		// c.war comes first in the model, and is built again as part of a.jar's build
+		assertTrue(recorder.events.lastIndexOf("start c.war") > recorder.events.indexOf("start a.jar"));
+		assertContains(c, "a.jar");
+	}
+
+	public void testSerialFallbackOnCycle() throws Exception {
+		// a.jar now holds c.war as well, so neither can be ordered first
+		a.addChild(createExternalFileSet("c.war", project.append("out").toString()));
+		ArchiveBuildDelegate delegate = new ArchiveBuildDelegate(3);
+		delegate.fullProjectBuild(project, new NullProgressMonitor());
+		assertBuiltOnCallingThread();
+		assertTrue(recorder.events.contains("end b.jar"));
+	}
+
+	private static IArchiveStandardFileSet createExternalFileSet(String includes, String path) {
+		IArchiveStandardFileSet fs = createFileSet(includes, path);
+		fs.setInWorkspace(false);
+		return fs;
+	}
+
+	private void assertBuiltOnCallingThread() {
+		assertTrue(recorder.events.size() >= 6);
+		for( int i = 0; i < recorder.threads.size(); i++ )
+			assertSame(Thread.currentThread(), recorder.threads.get(i));
+	}
+
+	private void assertContains(IArchive archive, String entry) throws Exception {
+		ZipFile zf = new ZipFile(archive.getArchiveFilePath().toFile());
+		try {
+			assertNotNull(zf.getEntry(entry));
+		} finally {
+			zf.close();
+		}
+	}
+}
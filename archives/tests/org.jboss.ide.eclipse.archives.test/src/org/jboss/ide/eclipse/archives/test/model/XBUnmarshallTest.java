@@ -164,6 +164,17 @@ public class XBUnmarshallTest extends TestCase {
 		assertFalse(fs.isFlattened());
 	}
 
+	public void testFilesetProperties() {
+		XbPackages packs = parseFromString("<packages><package name=\"a.jar\">"
+				+ "<fileset dir=\"src\" includes=\"**\"><properties>"
+				+ "<property name=\"defaultExcludes\" value=\"true\"/>"
+				+ "</properties></fileset></package></packages>", true, shouldParse("fileset properties"));
+		XbPackage pack = (XbPackage)packs.getAllChildren().get(0);
+		XbFileSet fs = (XbFileSet)pack.getChildren(XbFileSet.class).get(0);
+		assertNotNull(fs.getProperties());
+		assertEquals("true", fs.getProperties().getProperties().getProperty("defaultExcludes"));
+	}
+
 	/* 
 	 * Actions have never been implemented with any UI or true functionality 
 	 * and have only been here as a possible future feature. 
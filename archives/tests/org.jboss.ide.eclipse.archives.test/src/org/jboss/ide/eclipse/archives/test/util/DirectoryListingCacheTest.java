@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.test.util;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.util.internal.DirectoryListingCache;
+import org.jboss.ide.eclipse.archives.core.util.internal.DirectoryListingCache.Listing;
+
+public class DirectoryListingCacheTest extends TestCase {
+	private File dir;
+	private long settled;
+
+	protected void setUp() throws Exception {
+		dir = FileIOUtil.createTempDir("listingCache");
+		// whole seconds, as some file systems keep no more
+		settled = (System.currentTimeMillis() - 60000) / 1000 * 1000;
+		assertTrue(dir.setLastModified(settled));
+	}
+
+	protected void tearDown() throws Exception {
+		FileIOUtil.deleteDir(dir);
+	}
+
+	public void testListingKeptUntilFolderChanges() {
+		DirectoryListingCache cache = new DirectoryListingCache(true) {};
+		Listing l = createListing(dir.lastModified());
+		cache.putFilesystem(dir, l);
+		assertSame(l, cache.getFilesystem(dir));
+
+		// a child added, removed or renamed changes the folder's time
+		assertTrue(dir.setLastModified(settled + 1000));
+		assertNull(cache.getFilesystem(dir));
+		assertTrue(dir.setLastModified(settled));
+		assertNull(cache.getFilesystem(dir));
+	}
+
+	public void testRecentFoldersNotCached() {
+		DirectoryListingCache cache = new DirectoryListingCache(true) {};
+		cache.putFilesystem(dir, createListing(System.currentTimeMillis()));
+		assertNull(cache.getFilesystem(dir));
+		cache.putFilesystem(dir, createListing(0));
+		assertNull(cache.getFilesystem(dir));
+	}
+
+	public void testDisabled() {
+		DirectoryListingCache cache = new DirectoryListingCache(false) {};
+		assertFalse(cache.isEnabled());
+		cache.putFilesystem(dir, createListing(dir.lastModified()));
+		assertNull(cache.getFilesystem(dir));
+	}
+
+	public void testWorkspaceAndFilesystemKeptApart() {
+		DirectoryListingCache cache = new DirectoryListingCache(true) {};
+		Listing ws = createListing(dir.lastModified());
+		Listing fs = createListing(dir.lastModified());
+		cache.putWorkspace(new Path(dir.getAbsolutePath()), ws);
+		cache.putFilesystem(dir, fs);
+		assertSame(ws, cache.getWorkspace(new Path(dir.getAbsolutePath()), dir));
+		assertSame(fs, cache.getFilesystem(dir));
+	}
+
+	public void testInvalidateWorkspace() {
+		DirectoryListingCache cache = new DirectoryListingCache(true) {};
+		String[] paths = new String[] { "/p/a", "/p/a/b", "/p/a/b/c", "/p/ab" };
+		for( int i = 0; i < paths.length; i++ )
+			cache.putWorkspace(new Path(paths[i]), createListing(dir.lastModified()));
+
+		cache.invalidateWorkspace(new Path("/p/a/b"), false);
+		assertNull(cache.getWorkspace(new Path("/p/a/b"), dir));
+		assertNotNull(cache.getWorkspace(new Path("/p/a/b/c"), dir));
+
+		cache.invalidateWorkspace(new Path("/p/a"), true);
+		assertNull(cache.getWorkspace(new Path("/p/a"), dir));
+		assertNull(cache.getWorkspace(new Path("/p/a/b/c"), dir));
+		// a sibling sharing the name's prefix is not beneath it
+		assertNotNull(cache.getWorkspace(new Path("/p/ab"), dir));
+
+		cache.clear();
+		assertNull(cache.getWorkspace(new Path("/p/ab"), dir));
+	}
+
+	public void testLeastRecentlyUsedDropped() {
+		DirectoryListingCache cache = new DirectoryListingCache(true, 3) {};
+		for( int i = 0; i < 3; i++ )
+			cache.putWorkspace(new Path("/p/" + i), createListing(dir.lastModified()));
+		// using the first makes the second the least recently used
+		assertNotNull(cache.getWorkspace(new Path("/p/0"), dir));
+		cache.putWorkspace(new Path("/p/3"), createListing(dir.lastModified()));
+		assertNotNull(cache.getWorkspace(new Path("/p/0"), dir));
+		assertNull(cache.getWorkspace(new Path("/p/1"), dir));
+		assertNotNull(cache.getWorkspace(new Path("/p/2"), dir));
+		assertNotNull(cache.getWorkspace(new Path("/p/3"), dir));
+	}
+
+	private static Listing createListing(long modified) {
+		return new Listing(new String[] { "a.txt" }, new String[] { "/a.txt" },
+				new boolean[] { true }, modified);
+	}
+}
@@ -13,6 +13,7 @@ package org.jboss.ide.eclipse.archives.test.util;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 
 public class FileIOUtil {
@@ -26,6 +27,30 @@ public class FileIOUtil {
 		}
 	}
 
+	public static File createTempDir(String prefix) throws IOException {
+		File f = File.createTempFile(prefix, "");
+		f.delete();
+		f.mkdirs();
+		return f;
+	}
+
+	public static void deleteDir(File dir) {
+		File[] children = dir.listFiles();
+		if( children != null )
+			clearFolder(children);
+		dir.delete();
+	}
+
+	public static void setFileContents(File f, String contents) throws IOException {
+		f.getParentFile().mkdirs();
+		FileWriter w = new FileWriter(f);
+		try {
+			w.write(contents);
+		} finally {
+			w.close();
+		}
+	}
+
 	public static String getFileContents(File f) {
 		try {
 			BufferedReader r = new BufferedReader(new FileReader(f));
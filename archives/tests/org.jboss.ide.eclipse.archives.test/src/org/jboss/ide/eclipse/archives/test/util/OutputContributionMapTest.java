@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.test.util;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchive;
+import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveModelNode;
+import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbPackages;
+import org.jboss.ide.eclipse.archives.core.util.internal.OutputContributionMap;
+import org.jboss.ide.eclipse.archives.test.model.ModelTest;
+
+public class OutputContributionMapTest extends TestCase {
+	private File dir;
+	private ArchiveModelNode root;
+	private IArchive archive, inner;
+
+	protected void setUp() throws Exception {
+		dir = FileIOUtil.createTempDir("contributionMap");
+		IPath project = new Path(dir.getAbsolutePath());
+		root = new ArchiveModelNode(project, new XbPackages(), ArchivesModel.instance());
+		archive = ModelTest.createArchive("out.jar", project.append("out").toString());
+		archive.setInWorkspace(false);
+		inner = ModelTest.createArchive("inner.jar", "");
+		root.addChild(archive);
+		archive.addChild(inner);
+		ArchivesModel.instance().registerProject(root, new NullProgressMonitor());
+	}
+
+	protected void tearDown() throws Exception {
+		ArchivesModel.instance().unregisterProject(root, new NullProgressMonitor());
+		FileIOUtil.deleteDir(dir);
+	}
+
+	public void testOneMapPerTopLevelArchive() {
+		OutputContributionMap map = OutputContributionMap.getMap(archive);
+		assertNotNull(map);
+		assertSame(map, OutputContributionMap.getMap(archive));
+		assertSame(map, OutputContributionMap.getMap(inner));
+	}
+
+	public void testMapDroppedWhenProjectUnregistered() {
+		OutputContributionMap map = OutputContributionMap.getMap(archive);
+		ArchivesModel.instance().unregisterProject(root, new NullProgressMonitor());
+		// a new map, so the old one and the model it holds can be collected
+		assertNotSame(map, OutputContributionMap.getMap(archive));
+	}
+}
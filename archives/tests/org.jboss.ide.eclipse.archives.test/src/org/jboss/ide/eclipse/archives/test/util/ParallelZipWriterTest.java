@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.test.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+import org.jboss.ide.eclipse.archives.core.zip.ParallelZipWriter;
+
+/**
+ * Writes zips with a {@link ParallelZipWriter} and reads them back
+ */
+public class ParallelZipWriterTest extends TestCase {
+	private File dir;
+
+	protected void setUp() throws Exception {
+		dir = FileIOUtil.createTempDir("zipWriter");
+	}
+
+	protected void tearDown() throws Exception {
+		FileIOUtil.deleteDir(dir);
+	}
+
+	public void testStoredAndDeflated() throws Exception {
+		File text = new File(dir, "text.txt");
+		FileIOUtil.setFileContents(text, "some text, some text, some text");
+		File zip = new File(dir, "out.zip");
+		ParallelZipWriter out = new ParallelZipWriter(new FileOutputStream(zip), 4);
+		out.putDirectory("dir", 0);
+		out.putFile("dir/deflated.txt", text, 0, ZipEntry.DEFLATED);
+		out.putFile("dir/stored.txt", text, 0, ZipEntry.STORED);
+		out.putBytes("bytes.bin", new byte[] { 1, 2, 3 }, 0, ZipEntry.STORED);
+		out.putBytes("empty.txt", new byte[0], 0, ZipEntry.DEFLATED);
+		out.close();
+
+		ZipFile zf = new ZipFile(zip);
+		try {
+			assertEquals(5, zf.size());
+			assertTrue(zf.getEntry("dir/").isDirectory());
+			assertEquals(ZipEntry.DEFLATED, zf.getEntry("dir/deflated.txt").getMethod());
+			assertEquals(ZipEntry.STORED, zf.getEntry("dir/stored.txt").getMethod());
+			assertEquals("some text, some text, some text", new String(read(zf, "dir/deflated.txt")));
+			assertEquals("some text, some text, some text", new String(read(zf, "dir/stored.txt")));
+			assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, read(zf, "bytes.bin")));
+			assertEquals(0, read(zf, "empty.txt").length);
+		} finally {
+			zf.close();
+		}
+		assertEquals(5, getNames(zip).size());
+	}
+
+	public void testLargeEntries() throws Exception {
+		File large = new File(dir, "large.bin");
+		byte[] data = new byte[(int)ParallelZipWriter.LARGE_ENTRY + 1000];
+		for( int i = 0; i < data.length; i++ )
+			data[i] = (byte)(i % 251);
+		OutputStream os = new FileOutputStream(large);
+		os.write(data);
+		os.close();
+
+		File zip = new File(dir, "out.zip");
+		ParallelZipWriter out = new ParallelZipWriter(new FileOutputStream(zip), 4);
+		out.putFile("deflated.bin", large, 0, ZipEntry.DEFLATED);
+		out.putFile("stored.bin", large, 0, ZipEntry.STORED);
+		out.putBytes("small.txt", "small".getBytes(), 0, ZipEntry.DEFLATED);
+		out.close();
+
+		// the deflated entry comes first, its local header says a data descriptor follows
+		byte[] bytes = readFile(zip);
+		assertEquals(0x08, bytes[6] & 0x08);
+
+		ZipFile zf = new ZipFile(zip);
+		try {
+			assertTrue(Arrays.equals(data, read(zf, "deflated.bin")));
+			assertTrue(Arrays.equals(data, read(zf, "stored.bin")));
+			assertEquals(ZipEntry.STORED, zf.getEntry("stored.bin").getMethod());
+			assertEquals("small", new String(read(zf, "small.txt")));
+		} finally {
+			zf.close();
+		}
+		ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes));
+		try {
+			assertEquals("deflated.bin", in.getNextEntry().getName());
+			assertTrue(Arrays.equals(data, readStream(in)));
+			assertEquals("stored.bin", in.getNextEntry().getName());
+			assertTrue(Arrays.equals(data, readStream(in)));
+			assertEquals("small.txt", in.getNextEntry().getName());
+			assertEquals("small", new String(readStream(in)));
+		} finally {
+			in.close();
+		}
+	}
+
+	public void testStreamedEntry() throws Exception {
+		File zip = new File(dir, "out.zip");
+		ParallelZipWriter out = new ParallelZipWriter(new FileOutputStream(zip), 4);
+		out.putBytes("before.txt", "before".getBytes(), 0);
+		OutputStream entry = out.putStream("nested.zip", 0);
+		try {
+			out.putBytes("during.txt", new byte[0], 0);
+			fail("An entry was added while another was being streamed");
+		} catch( IOException ioe ) {
+		}
+		ParallelZipWriter nested = new ParallelZipWriter(entry, 2);
+		nested.putBytes("inner.txt", "inner".getBytes(), 0);
+		nested.close();
+		out.putBytes("after.txt", "after".getBytes(), 0);
+		out.close();
+
+		assertEquals(Arrays.asList(new String[] { "before.txt", "nested.zip", "after.txt" }), getNames(zip));
+		ZipFile zf = new ZipFile(zip);
+		try {
+			ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(read(zf, "nested.zip")));
+			assertEquals("inner.txt", in.getNextEntry().getName());
+			assertEquals("inner", new String(readStream(in)));
+			in.close();
+		} finally {
+			zf.close();
+		}
+	}
+
+	public void testEntriesKeepTheirOrder() throws Exception {
+		File large = new File(dir, "large.bin");
+		OutputStream os = new FileOutputStream(large);
+		os.write(new byte[(int)ParallelZipWriter.LARGE_ENTRY + 1]);
+		os.close();
+		List<String> names = new ArrayList<String>();
+		for( int i = 0; i < 200; i++ )
+			names.add((i * 7919 % 200) + ".txt");
+		names.add(100, "large.bin");
+
+		// however many threads compress them, the entries are written in the order added
+		byte[][] zips = new byte[2][];
+		int[] threads = new int[] { 1, 4 };
+		for( int t = 0; t < threads.length; t++ ) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ParallelZipWriter out = new ParallelZipWriter(bytes, threads[t]);
+			out.setReproducible(true, false);
+			for( int i = 0; i < names.size(); i++ ) {
+				String name = names.get(i);
+				if( name.equals("large.bin"))
+					out.putFile(name, large, 0);
+				else
+					out.putBytes(name, new byte[i * 100], 0);
+			}
+			out.close();
+			zips[t] = bytes.toByteArray();
+		}
+		assertTrue(Arrays.equals(zips[0], zips[1]));
+		File zip = new File(dir, "out.zip");
+		os = new FileOutputStream(zip);
+		os.write(zips[1]);
+		os.close();
+		assertEquals(names, getNames(zip));
+	}
+
+	public void testReproducible() throws Exception {
+		long fixed = 1000000000000L; // 2001-09-09 01:46:40 UTC
+		TimeZone zone = TimeZone.getDefault();
+		byte[][] zips = new byte[2][];
+		try {
+			// neither the entries' times nor the time zone show in the output
+			String[] zones = new String[] { "America/New_York", "Asia/Tokyo" };
+			for( int i = 0; i < zones.length; i++ ) {
+				TimeZone.setDefault(TimeZone.getTimeZone(zones[i]));
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				ParallelZipWriter out = new ParallelZipWriter(bytes, 2);
+				out.setReproducible(true, false);
+				out.setFixedTime(fixed);
+				assertEquals(fixed, out.getDefaultEntryTime());
+				out.putDirectory("dir", System.currentTimeMillis() + i * 60000);
+				out.putBytes("dir/a.txt", "a".getBytes(), System.currentTimeMillis() + i * 60000);
+				out.close();
+				zips[i] = bytes.toByteArray();
+			}
+			assertTrue(Arrays.equals(zips[0], zips[1]));
+
+			// read back in UTC, the time of every entry is the fixed time
+			TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+			File zip = new File(dir, "out.zip");
+			OutputStream os = new FileOutputStream(zip);
+			os.write(zips[0]);
+			os.close();
+			ZipFile zf = new ZipFile(zip);
+			try {
+				assertEquals(fixed, zf.getEntry("dir/").getTime());
+				assertEquals(fixed, zf.getEntry("dir/a.txt").getTime());
+			} finally {
+				zf.close();
+			}
+
+			// keeping source times, only the directory gets the fixed time
+			long source = fixed + 86400000L;
+			os = new FileOutputStream(zip);
+			ParallelZipWriter out = new ParallelZipWriter(os, 2);
+			out.setReproducible(true, true);
+			out.setFixedTime(fixed);
+			out.putDirectory("dir", source);
+			out.putBytes("dir/a.txt", "a".getBytes(), source);
+			out.close();
+			zf = new ZipFile(zip);
+			try {
+				assertEquals(fixed, zf.getEntry("dir/").getTime());
+				assertEquals(source, zf.getEntry("dir/a.txt").getTime());
+			} finally {
+				zf.close();
+			}
+		} finally {
+			TimeZone.setDefault(zone);
+		}
+	}
+
+	public void testMoreEntriesThanZipAllows() throws Exception {
+		// past 65535 entries the counts are only held in the zip64 end record
+		int count = 70000;
+		File zip = new File(dir, "out.zip");
+		ParallelZipWriter out = new ParallelZipWriter(new FileOutputStream(zip), 4);
+		for( int i = 0; i < count; i++ )
+			out.putBytes(i + ".txt", new byte[] { (byte)i }, 0, ZipEntry.STORED);
+		out.close();
+
+		ZipFile zf = new ZipFile(zip);
+		try {
+			assertEquals(count, zf.size());
+			assertTrue(Arrays.equals(new byte[] { (byte)(count - 1) }, read(zf, (count - 1) + ".txt")));
+		} finally {
+			zf.close();
+		}
+		assertEquals(count, getNames(zip).size());
+	}
+
+	public void testWritersGrowingSharedPool() throws Exception {
+		final ByteArrayOutputStream first = new ByteArrayOutputStream();
+		final Exception[] failure = new Exception[1];
+		// one writer keeps submitting while others ask the shared pool for more threads
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					ParallelZipWriter small = new ParallelZipWriter(first, 2);
+					for( int i = 0; i < 5000; i++ )
+						small.putBytes("small" + i + ".txt", ("small" + i).getBytes(), 0);
+					small.close();
+				} catch( Exception e ) {
+					failure[0] = e;
+				}
+			}
+		};
+		t.start();
+		int threads = ParallelZipWriter.getDefaultThreads();
+		for( int i = 1; i <= 4; i++ ) {
+			ByteArrayOutputStream second = new ByteArrayOutputStream();
+			ParallelZipWriter large = new ParallelZipWriter(second, threads + i);
+			for( int j = 0; j < 20; j++ )
+				large.putBytes("large" + j + ".txt", ("large" + j).getBytes(), 0);
+			large.close();
+			assertEquals(20, count(second.toByteArray()));
+		}
+		t.join();
+		if( failure[0] != null )
+			throw failure[0];
+		assertEquals(5000, count(first.toByteArray()));
+	}
+
+	/*
+	 * The entry names in the order of their local headers
+	 */
+	private static List<String> getNames(File zip) throws IOException {
+		List<String> names = new ArrayList<String>();
+		ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(readFile(zip)));
+		try {
+			ZipEntry e;
+			while( (e = in.getNextEntry()) != null ) {
+				readStream(in);
+				names.add(e.getName());
+			}
+		} finally {
+			in.close();
+		}
+		return names;
+	}
+
+	private static byte[] read(ZipFile zf, String name) throws IOException {
+		InputStream in = zf.getInputStream(zf.getEntry(name));
+		try {
+			return readStream(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readFile(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			return readStream(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readStream(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int r;
+		while( (r = in.read(buf)) != -1 )
+			bytes.write(buf, 0, r);
+		return bytes.toByteArray();
+	}
+
+	private static int count(byte[] zip) throws IOException {
+		ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip));
+		int count = 0;
+		try {
+			while( in.getNextEntry() != null )
+				count++;
+		} finally {
+			in.close();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.ide.eclipse.archives.test.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchive;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveFileSet;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveStandardFileSet;
+import org.jboss.ide.eclipse.archives.core.model.internal.ArchiveModelNode;
+import org.jboss.ide.eclipse.archives.core.model.internal.xb.XbPackages;
+import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
+import org.jboss.ide.eclipse.archives.core.util.internal.StreamingArchiveWriter;
+import org.jboss.ide.eclipse.archives.core.zip.ParallelZipWriter;
+import org.jboss.ide.eclipse.archives.test.model.ModelTest;
+
+/**
+ * Writes an archive holding nested packed archives with
+ * a {@link StreamingArchiveWriter} and reads it back.
+ */
+public class StreamingArchiveWriterTest extends TestCase {
+	private File dir;
+	private ArchiveModelNode root;
+	private IArchive outer;
+
+	protected void setUp() throws Exception {
+		dir = FileIOUtil.createTempDir("streamingWriter");
+		FileIOUtil.setFileContents(new File(dir, "src/one.txt"), "one");
+		FileIOUtil.setFileContents(new File(dir, "src/two.txt"), "two");
+		new File(dir, "out").mkdirs();
+		IPath project = new Path(dir.getAbsolutePath());
+		String src = project.append("src").toString();
+
+		// outer.war holds one.txt and inner.jar, which holds two.txt and deep.jar
+		root = new ArchiveModelNode(project, new XbPackages(), ArchivesModel.instance());
+		outer = ModelTest.createArchive("outer.war", project.append("out").toString());
+		outer.setInWorkspace(false);
+		IArchive inner = ModelTest.createArchive("inner.jar", "");
+		IArchive deep = ModelTest.createArchive("deep.jar", "");
+		root.addChild(outer);
+		outer.addChild(inner);
+		inner.addChild(deep);
+		outer.addChild(createFileSet("one.txt", src));
+		inner.addChild(createFileSet("two.txt", src));
+		deep.addChild(createFileSet("*.txt", src));
+		ArchivesModel.instance().registerProject(root, new NullProgressMonitor());
+	}
+
+	protected void tearDown() throws Exception {
+		ArchivesModel.instance().unregisterProject(root, new NullProgressMonitor());
+		FileIOUtil.deleteDir(dir);
+	}
+
+	public void testNestedArchivesAreStreamed() throws Exception {
+		IStatus[] errors = createWriter().write(new NullProgressMonitor());
+		assertEquals(0, errors.length);
+
+		File output = outer.getArchiveFilePath().toFile();
+		ZipFile zf = new ZipFile(output);
+		try {
+			assertEquals(ZipEntry.DEFLATED, zf.getEntry("inner.jar").getMethod());
+		} finally {
+			zf.close();
+		}
+
+		// entries with a data descriptor must also be readable as a stream
+		HashMap<String, byte[]> entries = read(new FileInputStream(output));
+		assertEquals("one", new String(entries.get("one.txt")));
+		HashMap<String, byte[]> inner = read(new ByteArrayInputStream(entries.get("inner.jar")));
+		assertEquals("two", new String(inner.get("two.txt")));
+		HashMap<String, byte[]> deep = read(new ByteArrayInputStream(inner.get("deep.jar")));
+		assertEquals(2, deep.size());
+		assertEquals("one", new String(deep.get("one.txt")));
+		assertEquals("two", new String(deep.get("two.txt")));
+		assertFalse(new File(output.getParentFile(), ".outer.war.tmp").exists());
+	}
+
+	public void testCanceledWriteKeepsOutput() throws Exception {
+		File output = outer.getArchiveFilePath().toFile();
+		FileIOUtil.setFileContents(output, "previous");
+		NullProgressMonitor monitor = new NullProgressMonitor();
+		monitor.setCanceled(true);
+		IStatus[] errors = createWriter().write(monitor);
+		assertEquals(1, errors.length);
+		assertEquals(IStatus.CANCEL, errors[0].getSeverity());
+		assertEquals("previous", FileIOUtil.getFileContents(output));
+		assertFalse(new File(output.getParentFile(), ".outer.war.tmp").exists());
+	}
+
+	public void testReproducibleProperty() throws Exception {
+		long source = 1262304000000L; // 2010-01-01 00:00:00 UTC
+		new File(dir, "src/one.txt").setLastModified(source);
+		new File(dir, "src/two.txt").setLastModified(source);
+		File output = outer.getArchiveFilePath().toFile();
+		String[] values = new String[] { "true", ParallelZipWriter.REPRODUCIBLE_SOURCE };
+		String[] zones = new String[] { "America/New_York", "Asia/Tokyo" };
+		byte[][][] zips = new byte[values.length][zones.length][];
+		String prop = System.getProperty(ParallelZipWriter.REPRODUCIBLE_PROPERTY);
+		TimeZone zone = TimeZone.getDefault();
+		try {
+			for( int i = 0; i < zones.length; i++ ) {
+				// past the two second resolution of zip times, so the wall clock shows if used
+				if( i > 0 )
+					Thread.sleep(2100);
+				TimeZone.setDefault(TimeZone.getTimeZone(zones[i]));
+				for( int j = 0; j < values.length; j++ ) {
+					System.setProperty(ParallelZipWriter.REPRODUCIBLE_PROPERTY, values[j]);
+					assertEquals(0, createWriter().write(new NullProgressMonitor()).length);
+					zips[j][i] = getBytes(output);
+				}
+			}
+			for( int j = 0; j < values.length; j++ )
+				assertTrue(values[j], Arrays.equals(zips[j][0], zips[j][1]));
+
+			// read back in UTC: nested archives get the fixed time, files do unless "source"
+			TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+			long fixed = ParallelZipWriter.getDefaultFixedTime();
+			for( int j = 0; j < values.length; j++ ) {
+				setBytes(output, zips[j][0]);
+				ZipFile zf = new ZipFile(output);
+				try {
+					assertEquals(fixed, zf.getEntry("inner.jar").getTime());
+					assertEquals(j == 0 ? fixed : source, zf.getEntry("one.txt").getTime());
+				} finally {
+					zf.close();
+				}
+			}
+		} finally {
+			if( prop == null )
+				System.clearProperty(ParallelZipWriter.REPRODUCIBLE_PROPERTY);
+			else
+				System.setProperty(ParallelZipWriter.REPRODUCIBLE_PROPERTY, prop);
+			TimeZone.setDefault(zone);
+		}
+	}
+
+	public void testDefaultTimes() throws Exception {
+		long source = 1262304000000L; // 2010-01-01 00:00:00 UTC
+		new File(dir, "src/one.txt").setLastModified(source);
+		String prop = System.getProperty(ParallelZipWriter.REPRODUCIBLE_PROPERTY);
+		try {
+			System.clearProperty(ParallelZipWriter.REPRODUCIBLE_PROPERTY);
+			long before = System.currentTimeMillis();
+			assertEquals(0, createWriter().write(new NullProgressMonitor()).length);
+			long after = System.currentTimeMillis();
+
+			// files keep their own time, entries without one are stamped with the current time
+			ZipFile zf = new ZipFile(outer.getArchiveFilePath().toFile());
+			try {
+				assertEquals(source, zf.getEntry("one.txt").getTime());
+				long time = zf.getEntry("inner.jar").getTime();
+				assertTrue(time >= before - 2000 && time <= after);
+			} finally {
+				zf.close();
+			}
+		} finally {
+			if( prop != null )
+				System.setProperty(ParallelZipWriter.REPRODUCIBLE_PROPERTY, prop);
+		}
+	}
+
+	private StreamingArchiveWriter createWriter() {
+		StreamingArchiveWriter writer = new StreamingArchiveWriter(outer, null);
+		IArchiveFileSet[] filesets = ModelUtil.findAllDescendentFilesets(outer);
+		for( int i = 0; i < filesets.length; i++ )
+			writer.addFileset(filesets[i], filesets[i].findMatchingPaths());
+		return writer;
+	}
+
+	private static IArchiveStandardFileSet createFileSet(String includes, String path) {
+		IArchiveStandardFileSet fs = ModelTest.createFileSet(includes, path);
+		fs.setInWorkspace(false);
+		return fs;
+	}
+
+	private static byte[] getBytes(File f) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] buf = new byte[8192];
+			int r;
+			while( (r = in.read(buf)) != -1 )
+				bytes.write(buf, 0, r);
+		} finally {
+			in.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void setBytes(File f, byte[] bytes) throws IOException {
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 * Read every entry of a zip with a ZipInputStream, which
+	 * unlike ZipFile relies on the local headers alone
+	 */
+	private static HashMap<String, byte[]> read(InputStream in) throws IOException {
+		HashMap<String, byte[]> entries = new HashMap<String, byte[]>();
+		ZipInputStream zin = new ZipInputStream(in);
+		try {
+			byte[] buf = new byte[8192];
+			ZipEntry e;
+			while( (e = zin.getNextEntry()) != null ) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				int r;
+				while( (r = zin.read(buf)) != -1 )
+					bytes.write(buf, 0, r);
+				entries.put(e.getName(), bytes.toByteArray());
+			}
+		} finally {
+			zin.close();
+		}
+		return entries;
+	}
+}
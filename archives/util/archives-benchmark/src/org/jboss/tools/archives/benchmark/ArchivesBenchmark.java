@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Red Hat, Inc.
+ * Distributed under license by Red Hat, Inc. All rights reserved.
+ * This program is made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Red Hat, Inc. - initial API and implementation
+ ******************************************************************************/
+package org.jboss.tools.archives.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.tools.ant.Project;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.ArchivesCore;
+import org.jboss.ide.eclipse.archives.core.ant.AntArchivesCore;
+import org.jboss.ide.eclipse.archives.core.build.ArchiveBuildDelegate;
+import org.jboss.ide.eclipse.archives.core.model.ArchivesModel;
+import org.jboss.ide.eclipse.archives.core.model.IArchiveModelRootNode;
+import org.jboss.ide.eclipse.archives.core.util.ModelUtil;
+import org.jboss.tools.archives.scanner.FilesystemDirectoryScanner;
+
+/**
+ * Measures how fast the archives code scans, matches and builds.
+ *
+ * A synthetic project is generated in a temporary folder: a source tree
+ * split into modules, and a .packages file with one fileset per module,
+ * spread over several archives. The project is then registered and built
+ * the way the generate-archives ant task does, without an Eclipse workbench.
+ *
+ * Each phase runs a few times to warm up, then a few times measured:
+ * <ul>
+ * <li>scan: every module scanned by the shared directory scanner</li>
+ * <li>match: every source file looked up in the model's filesets</li>
+ * <li>full: a full build of the project, from empty output</li>
+ * <li>incremental: an incremental build after changing 1% of the files</li>
+ * </ul>
+ *
+ * Run with -help for the options.
+ */
+public class ArchivesBenchmark {
+	private static final String PROJECT_NAME = "benchmark"; //$NON-NLS-1$
+	private static final String INCLUDES = "**/*.txt,**/*.xml,**/*.properties"; //$NON-NLS-1$
+	private static final String EXCLUDES = "**/skip/**"; //$NON-NLS-1$
+	private static final String[] EXTENSIONS = { ".txt", ".xml", ".properties", ".class" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	private static final int FILES_PER_FOLDER = 20;
+	private static final int FOLDERS_PER_FOLDER = 5;
+
+	private int files = 10000;
+	private int filesets = 20;
+	private int archives = 4;
+	private int warmup = 2;
+	private int iterations = 5;
+	private int fileSize = 512;
+	private boolean exploded = false;
+	private boolean keep = false;
+	private File dir;
+
+	private File project;
+	private File output;
+	private IPath projectPath;
+	private List<File> sources = new ArrayList<File>();
+	private Random random = new Random(42);
+
+	public static void main(String[] args) throws Exception {
+		ArchivesBenchmark b = new ArchivesBenchmark();
+		if( !b.parse(args)) {
+			usage();
+			return;
+		}
+		b.run();
+	}
+
+	private static void usage() {
+		System.out.println("Usage: java " + ArchivesBenchmark.class.getName() + " [options]"); //$NON-NLS-1$ //$NON-NLS-2$
+		System.out.println("  -files <n>        source files to generate (10000)"); //$NON-NLS-1$
+		System.out.println("  -filesets <n>     filesets, one per module of the tree (20)"); //$NON-NLS-1$
+		System.out.println("  -archives <n>     archives the filesets are spread over (4)"); //$NON-NLS-1$
+		System.out.println("  -size <bytes>     size of each file (512)"); //$NON-NLS-1$
+		System.out.println("  -warmup <n>       unmeasured runs of each phase (2)"); //$NON-NLS-1$
+		System.out.println("  -iterations <n>   measured runs of each phase (5)"); //$NON-NLS-1$
+		System.out.println("  -exploded         build exploded archives instead of zip files"); //$NON-NLS-1$
+		System.out.println("  -dir <folder>     where to generate the project (a temporary folder)"); //$NON-NLS-1$
+		System.out.println("  -keep             do not delete the project afterwards"); //$NON-NLS-1$
+	}
+
+	private boolean parse(String[] args) {
+		try {
+			for( int i = 0; i < args.length; i++ ) {
+				String a = args[i];
+				if( a.equals("-files")) files = Integer.parseInt(args[++i]); //$NON-NLS-1$
+				else if( a.equals("-filesets")) filesets = Integer.parseInt(args[++i]); //$NON-NLS-1$
+				else if( a.equals("-archives")) archives = Integer.parseInt(args[++i]); //$NON-NLS-1$
+				else if( a.equals("-size")) fileSize = Integer.parseInt(args[++i]); //$NON-NLS-1$
+				else if( a.equals("-warmup")) warmup = Integer.parseInt(args[++i]); //$NON-NLS-1$
+				else if( a.equals("-iterations")) iterations = Integer.parseInt(args[++i]); //$NON-NLS-1$
+				else if( a.equals("-exploded")) exploded = true; //$NON-NLS-1$
+				else if( a.equals("-dir")) dir = new File(args[++i]); //$NON-NLS-1$
+				else if( a.equals("-keep")) keep = true; //$NON-NLS-1$
+				else return false;
+			}
+		} catch( RuntimeException re ) {
+			return false;
+		}
+		return files > 0 && filesets > 0 && archives > 0 && iterations > 0;
+	}
+
+	public void run() throws Exception {
+		if( dir == null ) {
+			dir = File.createTempFile("archives-benchmark", ""); //$NON-NLS-1$ //$NON-NLS-2$
+			dir.delete();
+		}
+		project = new File(dir, PROJECT_NAME);
+		output = new File(project, "output"); //$NON-NLS-1$
+		projectPath = new Path(project.getAbsolutePath());
+		try {
+			long start = System.currentTimeMillis();
+			generate();
+			System.out.println("Generated " + files + " files, " + filesets + " filesets, " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					+ archives + " archives in " + project + " (" + (System.currentTimeMillis() - start) + " ms)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			register();
+			System.out.println(pad("phase", 14) + pad("min ms", 10) + pad("median ms", 12) + "files/s"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			measure(new Scan());
+			measure(new Match());
+			measure(new FullBuild());
+			measure(new IncrementalBuild());
+		} finally {
+			ArchivesModel.instance().unregisterProject(projectPath, new NullProgressMonitor());
+			if( !keep )
+				delete(dir);
+		}
+	}
+
+	/*
+	 * A measured phase. Returns the number of files it handled.
+	 */
+	private abstract class Phase {
+		abstract String getName();
+		void prepare() throws Exception {
+			// nothing by default
+		}
+		abstract int execute() throws Exception;
+	}
+
+	private void measure(Phase phase) throws Exception {
+		for( int i = 0; i < warmup; i++ ) {
+			phase.prepare();
+			phase.execute();
+		}
+		long[] times = new long[iterations];
+		int count = 0;
+		for( int i = 0; i < iterations; i++ ) {
+			phase.prepare();
+			long start = System.nanoTime();
+			count = phase.execute();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		double median = times[times.length / 2] / 1000000.0;
+		System.out.println(pad(phase.getName(), 14) + pad(format(times[0] / 1000000.0), 10)
+				+ pad(format(median), 12) + (median == 0 ? "-" : format(count * 1000 / median))); //$NON-NLS-1$
+	}
+
+	private class Scan extends Phase {
+		String getName() {
+			return "scan"; //$NON-NLS-1$
+		}
+		int execute() {
+			int count = 0;
+			for( int i = 0; i < filesets; i++ ) {
+				FilesystemDirectoryScanner s = new FilesystemDirectoryScanner();
+				s.setBasedir(getModule(i));
+				s.setIncludes(INCLUDES.split(",")); //$NON-NLS-1$
+				s.setExcludes(EXCLUDES.split(",")); //$NON-NLS-1$
+				s.scan();
+				count += s.getIncludedFilesCount();
+			}
+			return count;
+		}
+	}
+
+	private class Match extends Phase {
+		String getName() {
+			return "match"; //$NON-NLS-1$
+		}
+		int execute() {
+			IArchiveModelRootNode root = ArchivesModel.instance().getRoot(projectPath);
+			for( int i = 0; i < sources.size(); i++ )
+				ModelUtil.getMatchingFilesets(root, new Path(sources.get(i).getAbsolutePath()), false);
+			return sources.size();
+		}
+	}
+
+	private class FullBuild extends Phase {
+		String getName() {
+			return "full"; //$NON-NLS-1$
+		}
+		void prepare() {
+			// no output and no manifests, so nothing is skipped as unchanged
+			delete(output);
+		}
+		int execute() {
+			IStatus status = new ArchiveBuildDelegate().fullProjectBuild(projectPath, new NullProgressMonitor());
+			if( status.getSeverity() == IStatus.ERROR )
+				throw new IllegalStateException(status.getMessage(), status.getException());
+			return sources.size();
+		}
+	}
+
+	private class IncrementalBuild extends Phase {
+		private Set<IPath> changed;
+		String getName() {
+			return "incremental"; //$NON-NLS-1$
+		}
+		void prepare() throws IOException {
+			changed = new HashSet<IPath>();
+			int count = Math.max(1, sources.size() / 100);
+			for( int i = 0; i < count; i++ ) {
+				File f = sources.get(random.nextInt(sources.size()));
+				write(f);
+				changed.add(new Path(f.getAbsolutePath()));
+			}
+		}
+		int execute() {
+			new ArchiveBuildDelegate().incrementalBuild(null, changed, new HashSet<IPath>(), false, new NullProgressMonitor());
+			return changed.size();
+		}
+	}
+
+	/*
+	 * Write the source tree and the .packages file
+	 */
+	private void generate() throws IOException {
+		for( int i = 0; i < filesets; i++ ) {
+			int count = files / filesets + (i < files % filesets ? 1 : 0);
+			fill(getModule(i), count, 0);
+		}
+		PrintWriter w = new PrintWriter(new File(project, ".packages"), "UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			w.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"); //$NON-NLS-1$
+			w.println("<packages version=\"1.2\">"); //$NON-NLS-1$
+			for( int a = 0; a < archives; a++ ) {
+				w.println("   <package name=\"archive" + a + ".jar\" type=\"jar\" todir=\"" //$NON-NLS-1$ //$NON-NLS-2$
+						+ escape(output.getAbsolutePath()) + "\" exploded=\"" + exploded + "\" inWorkspace=\"false\">"); //$NON-NLS-1$ //$NON-NLS-2$
+				for( int i = a; i < filesets; i += archives ) {
+					w.println("      <folder name=\"module" + i + "\">"); //$NON-NLS-1$ //$NON-NLS-2$
+					w.println("         <fileset dir=\"" + escape(getModule(i).getAbsolutePath()) //$NON-NLS-1$
+							+ "\" includes=\"" + INCLUDES + "\" excludes=\"" + EXCLUDES //$NON-NLS-1$ //$NON-NLS-2$
+							+ "\" inWorkspace=\"false\" flatten=\"false\"/>"); //$NON-NLS-1$
+					w.println("      </folder>"); //$NON-NLS-1$
+				}
+				w.println("   </package>"); //$NON-NLS-1$
+			}
+			w.println("</packages>"); //$NON-NLS-1$
+		} finally {
+			w.close();
+		}
+	}
+
+	/*
+	 * Fill a folder with files and subfolders, breadth first:
+	 * a few files here, the rest spread over the subfolders
+	 */
+	private void fill(File folder, int count, int depth) throws IOException {
+		folder.mkdirs();
+		int here = Math.min(count, FILES_PER_FOLDER);
+		for( int i = 0; i < here; i++ ) {
+			File f = new File(folder, "file" + i + EXTENSIONS[i % EXTENSIONS.length]); //$NON-NLS-1$
+			write(f);
+			if( !f.getName().endsWith(".class")) //$NON-NLS-1$
+				sources.add(f);
+		}
+		int left = count - here;
+		if( left == 0 )
+			return;
+		int subfolders = Math.min(FOLDERS_PER_FOLDER, (left + FILES_PER_FOLDER - 1) / FILES_PER_FOLDER);
+		for( int i = 0; i < subfolders; i++ ) {
+			// one subfolder in ten is excluded by every fileset
+			String name = depth > 0 && i == 0 && random.nextInt(10) == 0 ? "skip" : "dir" + i; //$NON-NLS-1$ //$NON-NLS-2$
+			fill(new File(folder, name), left / subfolders + (i < left % subfolders ? 1 : 0), depth + 1);
+		}
+	}
+
+	private void write(File f) throws IOException {
+		byte[] contents = new byte[fileSize];
+		random.nextBytes(contents);
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 * Register the project the way the generate-archives task does
+	 */
+	private void register() {
+		AntArchivesCore core = new AntArchivesCore();
+		Project antProject = new Project();
+		antProject.setProperty(PROJECT_NAME + ".dir", project.getAbsolutePath()); //$NON-NLS-1$
+		core.setProject(antProject);
+		ArchivesCore.setInstance(core);
+		ArchivesModel.instance().registerProject(projectPath, new NullProgressMonitor());
+	}
+
+	private File getModule(int i) {
+		return new File(project, "src/module" + i); //$NON-NLS-1$
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if( children != null )
+			for( int i = 0; i < children.length; i++ )
+				delete(children[i]);
+		f.delete();
+	}
+
+	private static String escape(String s) {
+		return s.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}
+
+	private static String format(double d) {
+		return String.valueOf(Math.round(d * 10) / 10.0);
+	}
+
+	private static String pad(String s, int width) {
+		StringBuffer buffer = new StringBuffer(s);
+		while( buffer.length() < width )
+			buffer.append(' ');
+		return buffer.toString();
+	}
+}
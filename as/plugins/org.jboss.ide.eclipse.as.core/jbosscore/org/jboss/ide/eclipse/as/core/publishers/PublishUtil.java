@@ -12,6 +12,8 @@ package org.jboss.ide.eclipse.as.core.publishers;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
@@ -251,6 +253,14 @@ public class PublishUtil extends ModuleResourceUtil {
 		if (resource instanceof IModuleFolder) {
 			IModuleFolder mFolder = (IModuleFolder)resource;
 			IModuleResource[] resources = mFolder.members();
+			if( resources != null && packager.isReproducible()) {
+				resources = (IModuleResource[])resources.clone();
+				Arrays.sort(resources, new Comparator<IModuleResource>() {
+					public int compare(IModuleResource o1, IModuleResource o2) {
+						return o1.getName().compareTo(o2.getName());
+					}
+				});
+			}
 
 			packager.writeFolder(resource.getModuleRelativePath().append(resource.getName()).toPortableString());
 
@@ -12,28 +12,31 @@ package org.jboss.ide.eclipse.as.core.server.xpl;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.jar.JarOutputStream;
-import java.util.zip.CRC32;
-import java.util.zip.ZipEntry;
+import java.util.Arrays;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.Path;
+import org.jboss.ide.eclipse.archives.core.zip.CompressionPolicy;
+import org.jboss.ide.eclipse.archives.core.zip.ParallelZipWriter;
 
 /**
- * Packages resources to a .zip file
+ * Packages resources to a .zip file.
+ * Entries are compressed on a pool of threads and written in the order added,
+ * see {@link ParallelZipWriter}. When compressing, entries which are already
+ * compressed, such as nested archives, are stored as the {@link CompressionPolicy} says.
+ * When the writer is reproducible, files get their own modification time rather
+ * than the current time, and folders are packed with their children sorted by name.
  */
 public class ModulePackager {
 	private static final String JAR_FILE_SEPERATOR = "/"; //$NON-NLS-1$
-	private JarOutputStream outputStream;
+	private ParallelZipWriter outputStream;
 //	private StringBuffer manifestContents;
 
-	private boolean useCompression = true;
-
 	/**
 	 * Create an instance of this class.
 	 * 
@@ -42,12 +45,25 @@ public class ModulePackager {
 	 * @exception java.io.IOException
 	 */
 	public ModulePackager(String filename, boolean compress) throws IOException {
+		this(filename, compress, ParallelZipWriter.getDefaultThreads());
+	}
+
+	/**
+	 * Create an instance of this class.
+	 * 
+	 * @param filename java.lang.String
+	 * @param compress boolean
+	 * @param threads the number of threads compressing entries
+	 * @exception java.io.IOException
+	 * @since 2.5
+	 */
+	public ModulePackager(String filename, boolean compress, int threads) throws IOException {
 		Path directoryPath = new Path(filename);
 		directoryPath = (Path) directoryPath.removeLastSegments(1);
 		File newZipFile = new File(directoryPath.toString());
 		newZipFile.mkdirs();
-		outputStream = new JarOutputStream(new FileOutputStream(filename)); 
-		useCompression = compress;
+		outputStream = new ParallelZipWriter(new FileOutputStream(filename), threads); 
+		outputStream.setPolicy(compress ? CompressionPolicy.getDefault() : CompressionPolicy.STORE_ALL);
 	}
 
 	/**
@@ -70,20 +86,27 @@ public class ModulePackager {
 	 * @exception java.io.IOException
 	 */
 	protected void write(String pathname, byte[] contents) throws IOException {
-		ZipEntry newEntry = new ZipEntry(pathname);
-
-		// if the contents are being compressed then we get the below for free.
-		if (!useCompression) {
-			newEntry.setMethod(ZipEntry.STORED);
-			newEntry.setSize(contents.length);
-			CRC32 checksumCalculator = new CRC32();
-			checksumCalculator.update(contents);
-			newEntry.setCrc(checksumCalculator.getValue());
-		}
+		write(pathname, contents, outputStream.getDefaultEntryTime());
+	}
+
+	private void write(String pathname, byte[] contents, long time) throws IOException {
+		// sizes and checksums are computed by the writer, also for stored entries
+		outputStream.putBytes(pathname, contents, time);
+	}
 
-		outputStream.putNextEntry(newEntry);
-		outputStream.write(contents);
-		outputStream.closeEntry();
+	/**
+	 * Whether the archive is written reproducibly, see {@link ParallelZipWriter#isReproducible()}
+	 * @since 2.5
+	 */
+	public boolean isReproducible() {
+		return outputStream.isReproducible();
+	}
+
+	/*
+	 * The time of an entry copied from a file modified at the given time
+	 */
+	private long getEntryTime(long modified) {
+		return isReproducible() && modified > 0 ? modified : System.currentTimeMillis();
 	}
 
 	/**
@@ -93,9 +116,7 @@ public class ModulePackager {
 	public void writeFolder(String destinationPath) throws IOException {
 		if (!destinationPath.endsWith(JAR_FILE_SEPERATOR )) 
 			destinationPath = destinationPath + JAR_FILE_SEPERATOR;
-		ZipEntry newEntry = new ZipEntry(destinationPath);
-		outputStream.putNextEntry(newEntry);
-		outputStream.closeEntry();
+		outputStream.putDirectory(destinationPath, outputStream.getDefaultEntryTime());
 	}
 
 	/**
@@ -112,7 +133,7 @@ public class ModulePackager {
 		InputStream contentStream = null;
 		try {
 			contentStream = resource.getContents(false);
-			write(contentStream, destinationPath);
+			write(destinationPath, readContents(contentStream), getEntryTime(resource.getLocalTimeStamp()));
 		} finally {
 			if (contentStream != null)
 				contentStream.close();
@@ -130,14 +151,10 @@ public class ModulePackager {
 	 * @exception org.eclipse.core.runtime.CoreException
 	 */
 	public void write(File resource, String destinationPath) throws IOException, CoreException {
-		InputStream contentStream = null;
-		try {
-			contentStream = new FileInputStream(resource);
-			write(contentStream, destinationPath);
-		} finally {
-			if (contentStream != null)
-				contentStream.close();
-		}
+		if (!resource.canRead())
+			throw new FileNotFoundException(resource.getAbsolutePath());
+		// the file is read by the thread compressing it
+		outputStream.putFile(destinationPath, resource, getEntryTime(resource.lastModified()));
 	}
 
 	/**
@@ -147,24 +164,26 @@ public class ModulePackager {
 	 * @throws CoreException
 	 */
 	public void write(InputStream contentStream, String destinationPath) throws IOException, CoreException {
+		write(destinationPath, readContents(contentStream));
+	}
+
+	private static byte[] readContents(InputStream contentStream) throws IOException {
 		ByteArrayOutputStream output = null;
 
 		try {
 			output = new ByteArrayOutputStream();
-			int chunkSize = contentStream.available();
-			byte[] readBuffer = new byte[chunkSize];
+			byte[] readBuffer = new byte[8192];
 			int n = contentStream.read(readBuffer);
 
-			while (n > 0) {
-				output.write(readBuffer);
+			while (n != -1) {
+				output.write(readBuffer, 0, n);
 				n = contentStream.read(readBuffer);
 			}
 		} finally {
 			if (output != null)
 				output.close();
 		}
-
-		write(destinationPath, output.toByteArray());
+		return output.toByteArray();
 	}
 	
 	/**
@@ -177,6 +196,8 @@ public class ModulePackager {
 	public void pack(File directory, String root) throws CoreException, IOException
 	{
         File[] files = directory.listFiles();
+        if( isReproducible() )
+        	Arrays.sort(files);
         for( int i = 0; i < files.length; i++ )
         {
         	String relativeFolder = makeRelative( files[i].getAbsolutePath(), root );